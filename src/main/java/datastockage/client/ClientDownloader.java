@@ -1,5 +1,6 @@
 package client;
 
+import common.FramedInputStream;
 import model.Session;
 import model.User;
 
@@ -42,8 +43,6 @@ public class ClientDownloader {
             }
 
             long size = dis.readLong();
-            byte[] data = new byte[(int) size];
-            dis.readFully(data);
 
             // Sauvegarder dans le dossier Telechargements
             String home = System.getProperty("user.home");
@@ -73,13 +72,18 @@ public class ClientDownloader {
                 }
             }
 
-            FileOutputStream fos = new FileOutputStream(outputFile);
-            fos.write(data);
-            fos.close();
+            // Réception en trames, écrites au fil de l'eau sur disque
+            try (InputStream in = new FramedInputStream(dis);
+                 OutputStream fos = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+                in.transferTo(fos);
+            } catch (IOException e) {
+                outputFile.delete();
+                throw e;
+            }
 
             JOptionPane.showMessageDialog(null,
                 "Telechargement termine !\n" + outputFile.getAbsolutePath());
-            System.out.println("[CLIENT] Downloaded: " + outputFile.getAbsolutePath());
+            System.out.println("[CLIENT] Downloaded: " + outputFile.getAbsolutePath() + " (" + size + " bytes)");
 
         } catch (java.net.ConnectException e) {
             JOptionPane.showMessageDialog(null,
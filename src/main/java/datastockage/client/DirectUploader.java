@@ -0,0 +1,238 @@
+package client;
+
+import common.ChunkCodec;
+import common.ChunkInfo;
+import common.ChunkSizePolicy;
+import common.ContentHash;
+import common.ErasureCode;
+import common.FileMeta;
+import common.OSDClient;
+import common.SlaveInfo;
+import dir.DirServer;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Upload en écriture directe : le DIR ne voit passer que des métadonnées.
+ *
+ *  1. ALLOCATE — le client annonce l'empreinte (SHA-256) de chaque chunk d'un lot
+ *                et le schéma voulu ; le DIR répond "déjà stocké" ou donne les OSD cibles
+ *  2. seuls les chunks manquants partent du client, compressés si l'échantillonnage
+ *     le juge utile (ChunkCodec) : vers leur tête de chaîne en réplication, ou
+ *     découpés en k + m fragments, un par OSD, en code d'effacement (ErasureCode)
+ *  3. COMMIT   — le client déclare les chunks du fichier, le DIR crée le FileMeta
+ *
+ * La bande passante d'écriture du cluster n'est donc plus plafonnée par le DIR,
+ * et un fichier déjà présent dans le cluster ne coûte qu'une écriture de métadonnées.
+ */
+public class DirectUploader {
+
+    private static final int  BATCH       = 8;            // chunks pré-vérifiés par ALLOCATE
+    private static final long BATCH_BYTES = 128L << 20;   // mémoire max d'un lot
+
+    /** Source des placements : le DIR distant (TCP) ou l'instance locale. */
+    private interface Coordinator {
+        List<ChunkInfo> allocate(String userId, String fileName, List<String> hashes) throws IOException;
+        void commit(FileMeta meta) throws IOException;
+    }
+
+    /** Upload via un DIR distant. */
+    public static boolean upload(String dirHost, int dirPort, String userId, String fileName,
+                                 long totalSize, InputStream in) {
+        return upload(dirHost, dirPort, userId, fileName, totalSize, in, null);
+    }
+
+    /** Upload via un DIR distant ; ec == null → réplication. */
+    public static boolean upload(String dirHost, int dirPort, String userId, String fileName,
+                                 long totalSize, InputStream in, ErasureCode ec) {
+        return upload(new Coordinator() {
+            public List<ChunkInfo> allocate(String u, String f, List<String> hashes) throws IOException {
+                return remoteAllocate(dirHost, dirPort, u, f, ec, hashes);
+            }
+            public void commit(FileMeta meta) throws IOException {
+                remoteCommit(dirHost, dirPort, meta);
+            }
+        }, userId, fileName, totalSize, in);
+    }
+
+    /** Upload depuis le même processus que le DIR (API REST) ; ec == null → réplication. */
+    public static boolean upload(DirServer dir, String userId, String fileName,
+                                 long totalSize, InputStream in, ErasureCode ec) {
+        return upload(new Coordinator() {
+            public List<ChunkInfo> allocate(String u, String f, List<String> hashes) throws IOException {
+                return dir.allocateChunks(u, f, hashes, ec);
+            }
+            public void commit(FileMeta meta) throws IOException {
+                dir.commitUpload(meta);
+            }
+        }, userId, fileName, totalSize, in);
+    }
+
+    private static boolean upload(Coordinator dir, String userId, String fileName,
+                                  long totalSize, InputStream in) {
+        FileMeta meta = new FileMeta();
+        meta.ownerId = userId;
+        meta.fileName = fileName;
+        meta.chunkSize = ChunkSizePolicy.forFileSize(totalSize);
+        int chunkSize = meta.chunkSize;
+        int batch = ChunkSizePolicy.fit(BATCH_BYTES, chunkSize, BATCH);
+
+        try {
+            byte[][] buffers = new byte[batch][];
+            int[] lengths = new int[batch];
+            long total = 0;
+            int sent = 0;
+            boolean eof = false;
+
+            while (!eof) {
+                // Lire un lot de chunks et calculer leurs empreintes
+                List<String> hashes = new ArrayList<>();
+                while (hashes.size() < batch) {
+                    int i = hashes.size();
+                    if (buffers[i] == null) buffers[i] = new byte[chunkSize];
+                    lengths[i] = in.readNBytes(buffers[i], 0, chunkSize);
+                    if (lengths[i] == 0) {
+                        eof = true;
+                        break;
+                    }
+                    hashes.add(ContentHash.of(buffers[i], 0, lengths[i]));
+                    total += lengths[i];
+                    if (lengths[i] < chunkSize) {
+                        eof = true;
+                        break;
+                    }
+                }
+                if (hashes.isEmpty()) break;
+
+                // Pré-vérification : n'envoyer que ce que le cluster n'a pas
+                List<ChunkInfo> placements = dir.allocate(userId, fileName, hashes);
+                for (int i = 0; i < hashes.size(); i++) {
+                    ChunkInfo c = placements.get(i);
+                    List<String> stored = new ArrayList<>();
+                    if (c.replicas != null) {
+                        ChunkCodec.Encoded enc = ChunkCodec.encode(buffers[i], lengths[i]);
+                        if (!ChunkCodec.NONE.equals(enc.codec)) meta.chunkCodecs().put(c.chunkId, enc.codec);
+                        ErasureCode code = ErasureCode.ofChunk(c.chunkId);
+                        if (code == null) {
+                            stored = OSDClient.storeChain(c.replicas, c.chunkId, enc.data, 0, enc.length);
+                            if (stored.isEmpty()) throw new IOException("Chunk non stocké: " + c.chunkId);
+                        } else {
+                            stored = storeFragments(code, c, enc);
+                        }
+                        sent++;
+                    }
+                    meta.chunkIds().add(c.chunkId);
+                    meta.chunkLocations().put(c.chunkId, stored);
+                }
+            }
+
+            meta.totalSize = total;   // octets réellement lus : le DIR les recoupe avec les chunks
+            dir.commit(meta);
+            System.out.println("[CLIENT] Upload direct OK: " + fileName + " (" + meta.chunkIds().size()
+                    + " chunks, " + sent + " envoyés)");
+            return true;
+
+        } catch (Exception e) {
+            System.err.println("[CLIENT] Upload direct KO: " + fileName + " → " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Écrit les k + m fragments en parallèle, le fragment i sur le i-ème OSD cible.
+     *
+     * @return répliques positionnelles ("" pour un fragment non écrit)
+     */
+    private static List<String> storeFragments(ErasureCode code, ChunkInfo c, ChunkCodec.Encoded enc)
+            throws IOException {
+        if (c.replicas.size() != code.totalShards()) {
+            throw new IOException("Placement incomplet pour " + c.chunkId);
+        }
+        byte[][] fragments = code.encode(enc.data, 0, enc.length);
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+        for (int f = 0; f < fragments.length; f++) {
+            SlaveInfo osd = c.replicas.get(f);
+            String fragmentId = ErasureCode.fragmentId(c.chunkId, f);
+            byte[] fragment = fragments[f];
+            writes.add(CompletableFuture.supplyAsync(
+                    () -> OSDClient.store(osd, fragmentId, fragment, 0, fragment.length)));
+        }
+
+        List<String> stored = new ArrayList<>();
+        int ok = 0;
+        for (int f = 0; f < fragments.length; f++) {
+            boolean done = writes.get(f).join();
+            stored.add(done ? c.replicas.get(f).id : ErasureCode.LOST);
+            if (done) ok++;
+        }
+        // Lisible avec k fragments ; la réparation complétera les autres
+        if (ok < code.dataShards) throw new IOException("Fragments non stockés: " + c.chunkId);
+        return stored;
+    }
+
+    // ─── Protocole DIR ────────────────────────────────────────────────────────
+
+    private static List<ChunkInfo> remoteAllocate(String host, int port, String userId, String fileName,
+                                                  ErasureCode ec, List<String> hashes) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+
+            dos.writeUTF("ALLOCATE");
+            dos.writeUTF(userId);
+            dos.writeUTF(fileName);
+            dos.writeUTF(ec == null ? "" : ec.toString());
+            dos.writeInt(hashes.size());
+            for (String hash : hashes) dos.writeUTF(hash);
+            dos.flush();
+
+            List<ChunkInfo> placements = new ArrayList<>();
+            int n = dis.readInt();
+            if (n < 0) throw new IOException("ALLOCATE refusé: " + dis.readUTF());
+            for (int i = 0; i < n; i++) {
+                String chunkId = dis.readUTF();
+                if (dis.readBoolean()) {
+                    // Déjà présent dans le cluster : rien à envoyer
+                    placements.add(new ChunkInfo(chunkId, null));
+                    continue;
+                }
+                int r = dis.readInt();
+                List<SlaveInfo> replicas = new ArrayList<>();
+                for (int j = 0; j < r; j++) {
+                    replicas.add(new SlaveInfo(dis.readUTF(), dis.readUTF(), dis.readInt()));
+                }
+                placements.add(new ChunkInfo(chunkId, replicas));
+            }
+            return placements;
+        }
+    }
+
+    private static void remoteCommit(String host, int port, FileMeta meta) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+
+            dos.writeUTF("COMMIT");
+            dos.writeUTF(meta.ownerId);
+            dos.writeUTF(meta.fileName);
+            dos.writeLong(meta.totalSize);
+            dos.writeInt(meta.chunkSize);
+            dos.writeInt(meta.chunkIds().size());
+            for (String chunkId : meta.chunkIds()) {
+                List<String> locs = meta.chunkLocations().get(chunkId);
+                dos.writeUTF(chunkId);
+                dos.writeUTF(meta.codecOf(chunkId));
+                dos.writeInt(locs.size());
+                for (String id : locs) dos.writeUTF(id);
+            }
+            dos.flush();
+
+            String resp = dis.readUTF();
+            if (!"OK".equals(resp)) throw new IOException("COMMIT refusé: " + resp);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package common;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression transparente des chunks.
+ *
+ * Avant l'écriture, quelques échantillons du chunk sont compressés à l'essai :
+ * si le gain est trop faible (jpg, png, zip, vidéo…), le chunk part brut sans
+ * payer le coût d'une compression complète. Sinon il est compressé en deflate,
+ * et gardé brut quand même si le résultat ne fait pas gagner MIN_GAIN.
+ *
+ * Le codec retenu est enregistré par chunk dans le FileMeta ; l'identifiant du
+ * chunk reste l'empreinte du contenu brut, la déduplication ne dépend donc pas
+ * du codec. Les OSD stockent les octets tels quels sans connaître le codec.
+ */
+public final class ChunkCodec {
+
+    public static final String NONE    = "none";
+    public static final String DEFLATE = "deflate";
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    public static final boolean COMPRESSION = true;
+    static final int    SAMPLES     = 4;          // échantillons répartis dans le chunk
+    static final int    SAMPLE_SIZE = 4 * 1024;
+    static final double MIN_GAIN    = 0.10;       // gain minimal pour garder la compression
+
+    // ── Stats (processus courant) ────────────────────────────────────────────
+    private static final AtomicLong rawBytes      = new AtomicLong();
+    private static final AtomicLong storedBytes   = new AtomicLong();
+    private static final AtomicLong compressed    = new AtomicLong();
+    private static final AtomicLong skipped       = new AtomicLong();
+
+    private ChunkCodec() {
+    }
+
+    /** Chunk prêt à être écrit : octets (éventuellement compressés) et codec. */
+    public static final class Encoded {
+        public final String codec;
+        public final byte[] data;
+        public final int    length;
+
+        Encoded(String codec, byte[] data, int length) {
+            this.codec  = codec;
+            this.data   = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Compresse le chunk si ça en vaut la peine. Sans compression, le buffer
+     * d'origine est renvoyé tel quel (pas de copie).
+     */
+    public static Encoded encode(byte[] chunk, int length) {
+        rawBytes.addAndGet(length);
+        if (COMPRESSION && looksCompressible(chunk, length)) {
+            // Sortie bornée au seuil de gain : si elle déborde, inutile d'aller au bout
+            byte[] out = new byte[(int) (length * (1 - MIN_GAIN))];
+            Deflater d = new Deflater(Deflater.BEST_SPEED);
+            try {
+                d.setInput(chunk, 0, length);
+                d.finish();
+                int n = 0;
+                while (!d.finished() && n < out.length) {
+                    n += d.deflate(out, n, out.length - n);
+                }
+                if (d.finished()) {
+                    compressed.incrementAndGet();
+                    storedBytes.addAndGet(n);
+                    return new Encoded(DEFLATE, out, n);
+                }
+            } finally {
+                d.end();
+            }
+        }
+        skipped.incrementAndGet();
+        storedBytes.addAndGet(length);
+        return new Encoded(NONE, chunk, length);
+    }
+
+    /**
+     * Flux décompressé lu au fil de l'eau depuis le flux stocké.
+     * Pour DEFLATE, le flux sous-jacent peut être lu au-delà des données compressées.
+     */
+    public static InputStream decoder(String codec, InputStream in) {
+        if (codec == null || NONE.equals(codec)) return in;
+        if (DEFLATE.equals(codec)) return new InflaterInputStream(in, new Inflater(), 64 * 1024);
+        throw new IllegalArgumentException("Codec inconnu: " + codec);
+    }
+
+    /** Numéro d'un codec, pour la forme compacte du FileMeta (un octet par chunk). */
+    public static byte id(String codec) {
+        if (codec == null || NONE.equals(codec)) return 0;
+        if (DEFLATE.equals(codec)) return 1;
+        throw new IllegalArgumentException("Codec inconnu: " + codec);
+    }
+
+    public static String name(byte id) {
+        return id == 0 ? NONE : DEFLATE;
+    }
+
+    /** Compression à l'essai de quelques échantillons. */
+    private static boolean looksCompressible(byte[] chunk, int length) {
+        if (length < SAMPLE_SIZE) return true;
+        byte[] out = new byte[SAMPLE_SIZE + 64];
+        Deflater d = new Deflater(Deflater.BEST_SPEED);
+        long in = 0, produced = 0;
+        try {
+            for (int i = 0; i < SAMPLES; i++) {
+                int off = (int) ((long) (length - SAMPLE_SIZE) * i / Math.max(1, SAMPLES - 1));
+                d.reset();
+                d.setInput(chunk, off, SAMPLE_SIZE);
+                d.finish();
+                while (!d.finished()) produced += d.deflate(out);
+                in += SAMPLE_SIZE;
+            }
+        } finally {
+            d.end();
+        }
+        return produced < in * (1 - MIN_GAIN);
+    }
+
+    public static String getStats() {
+        long raw = rawBytes.get();
+        long stored = storedBytes.get();
+        return "=== Compression ===\n"
+                + "Enabled       : " + COMPRESSION + "\n"
+                + "Chunks        : " + compressed.get() + " compressed, " + skipped.get() + " raw\n"
+                + "Bytes         : " + raw + " → " + stored
+                + (raw > 0 ? " (" + (100 * stored / raw) + "%)" : "") + "\n";
+    }
+}
@@ -0,0 +1,254 @@
+package common;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+/**
+ * Liste d'identifiants de chunks encodée en tableaux primitifs, en lecture
+ * seule : la forme que garde un FileMeta publié.
+ *
+ * Un id "<sha256 hex>[-rsK-M]" (cf. ContentHash, ErasureCode) tient en quatre
+ * long et un octet de schéma, un ancien id "<owner>_<UUID>" en deux long, le
+ * préfixe étant partagé par la liste. Un id d'une autre forme est gardé tel
+ * quel. La chaîne n'est reconstruite qu'à la lecture (get).
+ */
+public final class ChunkIdList extends AbstractList<String> implements RandomAccess {
+
+    private static final byte RAW  = 0;
+    private static final byte HASH = 1;
+    private static final byte UUID_ID = 2;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // En deçà, find() parcourt la liste plutôt que de construire un index
+    private static final int SCAN_MAX = 16;
+
+    private final long[]   words;    // 4 par chunk
+    private final byte[]   kinds;
+    private final byte[]   schemes;  // (k << 4) | m des chunks codés, null s'il n'y en a pas
+    private final String[] raw;      // ids gardés tels quels, null s'il n'y en a pas
+    private final String   prefix;   // préfixe commun des ids UUID
+    private volatile int[] index;    // cf. index()
+
+    private ChunkIdList(long[] words, byte[] kinds, byte[] schemes, String[] raw, String prefix) {
+        this.words = words;
+        this.kinds = kinds;
+        this.schemes = schemes;
+        this.raw = raw;
+        this.prefix = prefix;
+    }
+
+    public static ChunkIdList of(List<String> chunkIds) {
+        if (chunkIds instanceof ChunkIdList list) return list;
+        int n = chunkIds.size();
+        long[] words = new long[4 * n];
+        byte[] kinds = new byte[n];
+        byte[] schemes = null;
+        String[] raw = null;
+        String prefix = null;
+
+        long[] w = new long[4];
+        for (int i = 0; i < n; i++) {
+            String id = chunkIds.get(i);
+            int scheme = parseHash(id, w);
+            if (scheme >= 0) {
+                kinds[i] = HASH;
+                if (scheme > 0) {
+                    if (schemes == null) schemes = new byte[n];
+                    schemes[i] = (byte) scheme;
+                }
+                System.arraycopy(w, 0, words, 4 * i, 4);
+                continue;
+            }
+            String p = parseUuid(id, w);
+            if (p != null && (prefix == null || prefix.equals(p))) {
+                prefix = p;
+                kinds[i] = UUID_ID;
+                words[4 * i] = w[0];
+                words[4 * i + 1] = w[1];
+                continue;
+            }
+            if (raw == null) raw = new String[n];
+            raw[i] = id;
+        }
+        return new ChunkIdList(words, kinds, schemes, raw, prefix);
+    }
+
+    @Override
+    public int size() {
+        return kinds.length;
+    }
+
+    @Override
+    public String get(int i) {
+        switch (kinds[i]) {
+            case HASH -> {
+                int scheme = schemes == null ? 0 : schemes[i] & 0xFF;
+                char[] out = new char[64];
+                for (int j = 0; j < 4; j++) {
+                    long v = words[4 * i + j];
+                    for (int c = 15; c >= 0; c--) {
+                        out[16 * j + c] = HEX[(int) (v & 0xF)];
+                        v >>>= 4;
+                    }
+                }
+                String hash = new String(out);
+                return scheme == 0 ? hash : hash + "-rs" + (scheme >> 4) + "-" + (scheme & 0xF);
+            }
+            case UUID_ID -> {
+                return prefix + new UUID(words[4 * i], words[4 * i + 1]);
+            }
+            default -> {
+                return raw[i];
+            }
+        }
+    }
+
+    /** Première position de chunkId, -1 s'il n'y est pas. */
+    public int find(String chunkId) {
+        long[] w = new long[4];
+        int scheme = parseHash(chunkId, w);
+        String p;
+        if (scheme >= 0) return find(HASH, w, 0, scheme, chunkId);
+        if ((p = parseUuid(chunkId, w)) != null && p.equals(prefix)) return find(UUID_ID, w, 0, 0, chunkId);
+        return find(RAW, w, 0, 0, chunkId);
+    }
+
+    /** Première position du chunk i (i lui-même sauf doublon), sans reconstruire son id. */
+    public int first(int i) {
+        return kinds[i] == RAW ? find(RAW, null, 0, 0, raw[i]) : find(kinds[i], words, 4 * i, scheme(i), null);
+    }
+
+    private int find(byte kind, long[] w, int at, int scheme, String id) {
+        int n = kinds.length;
+        if (n <= SCAN_MAX) {
+            for (int i = 0; i < n; i++) {
+                if (matches(i, kind, w, at, scheme, id)) return i;
+            }
+            return -1;
+        }
+        int[] slots = index();
+        int mask = slots.length - 1;
+        for (int s = hash(kind, w, at, id) & mask; slots[s] != 0; s = (s + 1) & mask) {
+            int i = slots[s] - 1;
+            if (matches(i, kind, w, at, scheme, id)) return i;
+        }
+        return -1;
+    }
+
+    private boolean matches(int i, byte kind, long[] w, int at, int scheme, String id) {
+        if (kinds[i] != kind) return false;
+        return switch (kind) {
+            case HASH -> scheme(i) == scheme && words[4 * i] == w[at] && words[4 * i + 1] == w[at + 1]
+                    && words[4 * i + 2] == w[at + 2] && words[4 * i + 3] == w[at + 3];
+            case UUID_ID -> words[4 * i] == w[at] && words[4 * i + 1] == w[at + 1];
+            default -> raw[i].equals(id);
+        };
+    }
+
+    private int scheme(int i) {
+        return schemes == null ? 0 : schemes[i] & 0xFF;
+    }
+
+    private static int hash(byte kind, long[] w, int at, String id) {
+        long h = kind == RAW ? id.hashCode() : w[at] ^ w[at + 1];
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    /**
+     * Table de positions (adressage ouvert, position + 1, 0 = libre), construite
+     * au premier find d'une liste de plus de SCAN_MAX chunks : 8 octets par chunk.
+     * Les positions y sont insérées dans l'ordre, un doublon se trouve donc
+     * après sa première occurrence. Deux constructions simultanées donnent la
+     * même table : la dernière publiée reste.
+     */
+    private int[] index() {
+        int[] slots = index;
+        if (slots != null) return slots;
+        int n = kinds.length;
+        slots = new int[Integer.highestOneBit(2 * n - 1) << 1];
+        int mask = slots.length - 1;
+        for (int i = 0; i < n; i++) {
+            int s = hash(kinds[i], words, 4 * i, raw == null ? null : raw[i]) & mask;
+            while (slots[s] != 0) s = (s + 1) & mask;
+            slots[s] = i + 1;
+        }
+        index = slots;
+        return slots;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return o instanceof String s ? find(s) : -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * Lit "<64 hex minuscules>[-rsK-M]" dans w ; rend le schéma (k << 4) | m,
+     * 0 pour un chunk répliqué, -1 si l'id n'a pas cette forme.
+     */
+    private static int parseHash(String id, long[] w) {
+        int len = id.length();
+        if (len < 64) return -1;
+        for (int j = 0; j < 4; j++) {
+            long v = 0;
+            for (int c = 0; c < 16; c++) {
+                int d = hexDigit(id.charAt(16 * j + c));
+                if (d < 0) return -1;
+                v = (v << 4) | d;
+            }
+            w[j] = v;
+        }
+        if (len == 64) return 0;
+
+        // Suffixe de code d'effacement, chiffres 1 à 15 sans zéro en tête (forme exacte de ErasureCode.chunkId)
+        if (len < 69 || !id.startsWith("-rs", 64)) return -1;
+        int dash = id.indexOf('-', 67);
+        if (dash < 0) return -1;
+        int k = smallNumber(id, 67, dash);
+        int m = smallNumber(id, dash + 1, len);
+        if (k <= 0 || m <= 0) return -1;
+        return (k << 4) | m;
+    }
+
+    private static int smallNumber(String s, int from, int to) {
+        if (to - from < 1 || to - from > 2 || s.charAt(from) == '0') return -1;
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v <= 15 ? v : -1;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+
+    /** Lit "<préfixe>_<UUID>" dans w[0..1] ; rend le préfixe (avec '_'), null si l'id n'a pas cette forme. */
+    private static String parseUuid(String id, long[] w) {
+        int sep = id.length() - 36;
+        if (sep < 1 || id.charAt(sep - 1) != '_') return null;
+        String text = id.substring(sep);
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(text);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!uuid.toString().equals(text)) return null;   // relecture exacte seulement
+        w[0] = uuid.getMostSignificantBits();
+        w[1] = uuid.getLeastSignificantBits();
+        return id.substring(0, sep);
+    }
+}
@@ -0,0 +1,45 @@
+package common;
+
+/**
+ * Choix de la taille des chunks d'un fichier en fonction de sa taille.
+ *
+ *   - petit fichier (≤ SMALL_FILE) : un seul chunk, à sa taille exacte
+ *   - au-delà : environ TARGET_CHUNKS chunks, taille arrondie à une puissance
+ *     de 2 et bornée à [MIN_CHUNK, MAX_CHUNK]
+ *   - taille inconnue : FileMeta.LEGACY_CHUNK_SIZE
+ *
+ * Un fichier de plusieurs Go passe ainsi à des chunks de 8 à 64 Mio : beaucoup
+ * moins d'entrées de métadonnées, de sockets et d'allers-retours par fichier.
+ * La taille retenue est enregistrée dans le FileMeta (chunkSize).
+ */
+public final class ChunkSizePolicy {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    public static final int  MIN_CHUNK     = 1 << 20;    // 1 Mio
+    public static final int  MAX_CHUNK     = 64 << 20;   // 64 Mio
+    static final long        SMALL_FILE    = 4 << 20;    // en dessous : un seul chunk
+    static final long        TARGET_CHUNKS = 256;
+
+    private ChunkSizePolicy() {
+    }
+
+    public static int forFileSize(long totalSize) {
+        if (totalSize <= 0) return FileMeta.LEGACY_CHUNK_SIZE;
+        if (totalSize <= SMALL_FILE) return (int) totalSize;
+
+        long wanted = (totalSize + TARGET_CHUNKS - 1) / TARGET_CHUNKS;
+        long size = Long.highestOneBit(wanted);
+        if (size < wanted) size <<= 1;
+        return (int) Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size));
+    }
+
+    /** Taille acceptable pour un chunk déclaré par un client. */
+    public static boolean isValid(int chunkSize) {
+        return chunkSize > 0 && chunkSize <= MAX_CHUNK;
+    }
+
+    /** Nombre de chunks de chunkSize octets qui tiennent dans budget (au moins 1, au plus max). */
+    public static int fit(long budget, int chunkSize, int max) {
+        return (int) Math.max(1, Math.min(max, budget / chunkSize));
+    }
+}
@@ -0,0 +1,54 @@
+package common;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * Identifiant de chunk adressé par contenu : SHA-256 en hexadécimal.
+ * Deux chunks identiques, quel que soit l'utilisateur, ont le même id.
+ *
+ * Un id déclaré par un client (ALLOCATE, COMMIT) doit avoir exactement la forme
+ * "<64 hex minuscules>[-rsK-M]" (cf. ErasureCode.chunkId), K et M de 1 à 15 :
+ * il sert de nom de fichier et de clé de déduplication.
+ */
+public class ContentHash {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Pattern CHUNK_ID =
+            Pattern.compile("[0-9a-f]{64}(-rs([1-9]|1[0-5])-([1-9]|1[0-5]))?");
+
+    public static String of(byte[] data, int off, int len) {
+        MessageDigest md = digest();
+        md.update(data, off, len);
+        return hex(md.digest());
+    }
+
+    /** SHA-256 vierge, pour une empreinte calculée au fil d'un flux. */
+    public static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponible", e);
+        }
+    }
+
+    public static String hex(byte[] digest) {
+        char[] out = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            out[2 * i]     = HEX[(digest[i] >> 4) & 0xF];
+            out[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+    /** Empreinte seule (chunk répliqué), sans suffixe de code d'effacement. */
+    public static boolean isHash(String id) {
+        return id != null && id.length() == 64 && CHUNK_ID.matcher(id).matches();
+    }
+
+    /** Id de chunk acceptable venant d'un client. */
+    public static boolean isChunkId(String id) {
+        return id != null && CHUNK_ID.matcher(id).matches();
+    }
+}
@@ -0,0 +1,223 @@
+package common;
+
+import common.DirProtocol.ChunkEntry;
+import common.DirProtocol.FileEntry;
+import common.DirProtocol.Frame;
+import common.DirProtocol.FrameWriter;
+import common.DirProtocol.OsdEntry;
+import common.DirProtocol.UsageEntry;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Client du protocole v2 du DIR (voir {@link DirProtocol}).
+ *
+ * Les listes sont renvoyées sous forme d'Iterable paresseux : les enregistrements
+ * sont lus sur la socket au fil de l'itération et la page suivante n'est demandée
+ * qu'une fois la précédente consommée. Une seule requête à la fois par client ;
+ * en commencer une nouvelle abandonne (et vide) la liste en cours.
+ */
+public class DirClient implements Closeable {
+
+    private final Socket           socket;
+    private final DataInputStream  in;
+    private final DataOutputStream out;
+    private final FrameWriter      requests;
+
+    /** Une réponse est en cours de lecture sur la socket. */
+    private boolean pending;
+
+    private DirClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.requests = new FrameWriter(out);
+    }
+
+    public static DirClient connect(String host, int port, int timeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            DirClient client = new DirClient(socket);
+            client.negotiate();
+            return client;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void negotiate() throws IOException {
+        out.writeUTF(DirProtocol.HELLO);
+        out.writeInt(DirProtocol.VERSION);
+        out.flush();
+        int version = in.readInt();
+        if (version != DirProtocol.VERSION) {
+            throw new IOException("Protocole v" + DirProtocol.VERSION + " non supporté par le DIR (réponse " + version + ")");
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  REQUÊTES
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Fichiers d'un propriétaire, triés par nom. */
+    public Iterable<FileEntry> listFiles(String ownerId) {
+        return () -> new Listing<>(DirProtocol.REC_FILE, FileEntry::read, cursor ->
+                request(DirProtocol.OP_LIST_FILES, b -> {
+                    DirProtocol.writeString(b, ownerId);
+                    DirProtocol.writeString(b, cursor);
+                    b.writeInt(DirProtocol.DEFAULT_PAGE);
+                }));
+    }
+
+    /** Tous les fichiers du cluster, triés par clé (owner_nom). */
+    public Iterable<FileEntry> listAll() {
+        return () -> new Listing<>(DirProtocol.REC_FILE, FileEntry::read, cursor ->
+                request(DirProtocol.OP_LIST_ALL, b -> {
+                    DirProtocol.writeString(b, cursor);
+                    b.writeInt(DirProtocol.DEFAULT_PAGE);
+                }));
+    }
+
+    /** Emplacement de chaque chunk, fichier par fichier. */
+    public Iterable<ChunkEntry> chunks() {
+        return () -> new Listing<>(DirProtocol.REC_CHUNK, ChunkEntry::read, cursor ->
+                request(DirProtocol.OP_CHUNKS, b -> {
+                    DirProtocol.writeString(b, cursor);
+                    b.writeInt(DirProtocol.DEFAULT_PAGE);
+                }));
+    }
+
+    public List<OsdEntry> cluster() throws IOException {
+        List<OsdEntry> result = new ArrayList<>();
+        try {
+            new Listing<>(DirProtocol.REC_OSD, OsdEntry::read,
+                    cursor -> request(DirProtocol.OP_CLUSTER, b -> { })).forEachRemaining(result::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result;
+    }
+
+    /** Nombre de fichiers et octets d'un propriétaire. */
+    public UsageEntry usage(String ownerId) throws IOException {
+        List<UsageEntry> result = new ArrayList<>(1);
+        try {
+            new Listing<>(DirProtocol.REC_USAGE, UsageEntry::read,
+                    cursor -> request(DirProtocol.OP_USAGE, b -> DirProtocol.writeString(b, ownerId)))
+                    .forEachRemaining(result::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result.isEmpty() ? new UsageEntry(ownerId, 0, 0) : result.get(0);
+    }
+
+    public String stats() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try {
+            new Listing<>(DirProtocol.REC_TEXT, DirProtocol::readString,
+                    cursor -> request(DirProtocol.OP_STATS, b -> { })).forEachRemaining(sb::append);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return sb.toString();
+    }
+
+    private void request(byte op, DirProtocol.Body args) throws IOException {
+        drain();
+        requests.write(op, args);
+        out.flush();
+        pending = true;
+    }
+
+    /** Vide la réponse précédente si l'appelant ne l'a pas lue jusqu'au bout. */
+    private void drain() throws IOException {
+        while (pending) {
+            Frame f = DirProtocol.readFrame(in);
+            if (f.type == DirProtocol.REC_END || f.type == DirProtocol.REC_ERROR) pending = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  ITÉRATION PAGE PAR PAGE
+    // ════════════════════════════════════════════════════════════════════════
+
+    private interface Decoder<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private interface PageRequest {
+        void send(String cursor) throws IOException;
+    }
+
+    /**
+     * Lit les enregistrements du type attendu au fil de l'eau et enchaîne les pages.
+     * Les erreurs réseau ou serveur remontent en UncheckedIOException.
+     */
+    private final class Listing<T> implements Iterator<T> {
+        private final byte        type;
+        private final Decoder<T>  decoder;
+        private final PageRequest page;
+        private T       next;
+        private boolean done;
+
+        Listing(byte type, Decoder<T> decoder, PageRequest page) {
+            this.type = type;
+            this.decoder = decoder;
+            this.page = page;
+            try {
+                page.send("");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) return true;
+            if (done) return false;
+            try {
+                while (next == null && !done) {
+                    Frame f = DirProtocol.readFrame(in);
+                    if (f.type == type) {
+                        next = decoder.read(f.body);
+                    } else if (f.type == DirProtocol.REC_END) {
+                        pending = false;
+                        String cursor = DirProtocol.readString(f.body);
+                        if (cursor.isEmpty()) done = true;
+                        else page.send(cursor);
+                    } else if (f.type == DirProtocol.REC_ERROR) {
+                        pending = false;
+                        done = true;
+                        throw new IOException("DIR: " + DirProtocol.readString(f.body));
+                    }
+                    // Autre type : enregistrement inconnu de ce client, ignoré
+                }
+            } catch (IOException e) {
+                done = true;
+                throw new UncheckedIOException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            T t = next;
+            next = null;
+            return t;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protocole binaire v2 du DIR : enregistrements typés, préfixés par leur longueur.
+ *
+ * Négociation à la connexion :
+ *   client  writeUTF("PROTO") [int version max]
+ *   serveur [int version retenue]           (0 si aucune version commune)
+ *
+ * Puis, autant de requêtes que voulu sur la même connexion :
+ *   requête  [byte op][int len][arguments]
+ *   réponse  [byte type][int len][contenu] ... terminée par REC_END ou REC_ERROR
+ *
+ * Les chaînes sont en UTF-8 préfixées par un int : pas de plafond à 64 Ko comme
+ * avec writeUTF. Le préfixe de longueur permet à un client d'ignorer un type
+ * d'enregistrement qu'il ne connaît pas.
+ *
+ * Les listes sont paginées : la requête porte un curseur (clé exclusive, "" pour
+ * commencer) et une taille de page ; REC_END renvoie le curseur suivant, "" quand
+ * la liste est épuisée. Le serveur écrit chaque enregistrement dès qu'il le lit,
+ * si bien qu'une liste d'un million de fichiers passe en mémoire constante
+ * des deux côtés.
+ */
+public final class DirProtocol {
+
+    public static final String HELLO   = "PROTO";
+    public static final int    VERSION = 2;
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    public static final int DEFAULT_PAGE = 500;
+    public static final int MAX_PAGE     = 5_000;
+    public static final int MAX_FRAME    = 1 << 20;   // trame ou chaîne : taille lue de l'autre bout
+
+    // ── Requêtes ─────────────────────────────────────────────────────────────
+    public static final byte OP_LIST_FILES = 1;   // owner, curseur, limite
+    public static final byte OP_LIST_ALL   = 2;   // curseur, limite
+    public static final byte OP_CLUSTER    = 3;   // (rien)
+    public static final byte OP_CHUNKS     = 4;   // curseur, limite (en fichiers)
+    public static final byte OP_STATS      = 5;   // (rien)
+    public static final byte OP_USAGE      = 6;   // owner
+
+    // ── Enregistrements ──────────────────────────────────────────────────────
+    public static final byte REC_END   = 0;   // curseur suivant
+    public static final byte REC_ERROR = 1;   // message
+    public static final byte REC_FILE  = 2;
+    public static final byte REC_OSD   = 3;
+    public static final byte REC_CHUNK = 4;
+    public static final byte REC_TEXT  = 5;
+    public static final byte REC_USAGE = 6;
+
+    private DirProtocol() {
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  ENREGISTREMENTS TYPÉS
+    // ════════════════════════════════════════════════════════════════════════
+
+    public static final class FileEntry {
+        public final String fileKey;
+        public final String ownerId;
+        public final String fileName;
+        public final long   totalSize;
+        public final int    chunkCount;
+        public final int    chunkSize;
+        /** Plus grand nombre de répliques d'un chunk, -1 si le DIR ne l'a pas calculé (cf. FileMeta.maxReplicas). */
+        public final int    replicas;
+
+        public FileEntry(String fileKey, String ownerId, String fileName, long totalSize,
+                         int chunkCount, int chunkSize, int replicas) {
+            this.fileKey = fileKey;
+            this.ownerId = ownerId;
+            this.fileName = fileName;
+            this.totalSize = totalSize;
+            this.chunkCount = chunkCount;
+            this.chunkSize = chunkSize;
+            this.replicas = replicas;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            writeString(out, fileKey);
+            writeString(out, ownerId);
+            writeString(out, fileName);
+            out.writeLong(totalSize);
+            out.writeInt(chunkCount);
+            out.writeInt(chunkSize);
+            out.writeInt(replicas);
+        }
+
+        public static FileEntry read(DataInputStream in) throws IOException {
+            return new FileEntry(readString(in), readString(in), readString(in), in.readLong(),
+                    in.readInt(), in.readInt(), in.readInt());
+        }
+    }
+
+    public static final class OsdEntry {
+        public final String id;
+        public final String status;
+        public final String host;
+        public final int    port;
+        public final int    chunkCount;
+        public final int    queueDepth;
+
+        public OsdEntry(String id, String status, String host, int port, int chunkCount, int queueDepth) {
+            this.id = id;
+            this.status = status;
+            this.host = host;
+            this.port = port;
+            this.chunkCount = chunkCount;
+            this.queueDepth = queueDepth;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            writeString(out, id);
+            writeString(out, status);
+            writeString(out, host);
+            out.writeInt(port);
+            out.writeInt(chunkCount);
+            out.writeInt(queueDepth);
+        }
+
+        public static OsdEntry read(DataInputStream in) throws IOException {
+            String id = readString(in);
+            String status = readString(in);
+            String host = readString(in);
+            int port = in.readInt();
+            int chunkCount = in.readInt();
+            // Champ ajouté en fin d'enregistrement : absent chez un DIR plus ancien
+            int queueDepth = in.available() >= Integer.BYTES ? in.readInt() : 0;
+            return new OsdEntry(id, status, host, port, chunkCount, queueDepth);
+        }
+    }
+
+    public static final class UsageEntry {
+        public final String ownerId;
+        public final long   files;
+        public final long   bytes;
+
+        public UsageEntry(String ownerId, long files, long bytes) {
+            this.ownerId = ownerId;
+            this.files = files;
+            this.bytes = bytes;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            writeString(out, ownerId);
+            out.writeLong(files);
+            out.writeLong(bytes);
+        }
+
+        public static UsageEntry read(DataInputStream in) throws IOException {
+            return new UsageEntry(readString(in), in.readLong(), in.readLong());
+        }
+    }
+
+    public static final class ChunkEntry {
+        public final String       fileName;
+        public final String       chunkId;
+        public final List<String> locations;
+
+        public ChunkEntry(String fileName, String chunkId, List<String> locations) {
+            this.fileName = fileName;
+            this.chunkId = chunkId;
+            this.locations = locations;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            writeString(out, fileName);
+            writeString(out, chunkId);
+            out.writeInt(locations.size());
+            for (String loc : locations) writeString(out, loc);
+        }
+
+        public static ChunkEntry read(DataInputStream in) throws IOException {
+            String fileName = readString(in);
+            String chunkId = readString(in);
+            int n = in.readInt();
+            List<String> locations = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) locations.add(readString(in));
+            return new ChunkEntry(fileName, chunkId, locations);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  TRAMES
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Contenu d'un enregistrement ou d'une requête, écrit dans un tampon puis préfixé. */
+    public interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Écrit les trames [byte type][int len][contenu] en réutilisant un seul tampon :
+     * la mémoire reste bornée par le plus gros enregistrement.
+     */
+    public static final class FrameWriter {
+        private final DataOutputStream       out;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream       body  = new DataOutputStream(bytes);
+
+        public FrameWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void write(byte type, Body content) throws IOException {
+            bytes.reset();
+            content.write(body);
+            body.flush();
+            out.writeByte(type);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+
+        public void end(String nextCursor) throws IOException {
+            write(REC_END, b -> writeString(b, nextCursor));
+            out.flush();
+        }
+
+        public void error(String message) throws IOException {
+            write(REC_ERROR, b -> writeString(b, message));
+            out.flush();
+        }
+    }
+
+    /** Trame lue : son type et son contenu. */
+    public static final class Frame {
+        public final byte            type;
+        public final DataInputStream body;
+
+        Frame(byte type, DataInputStream body) {
+            this.type = type;
+            this.body = body;
+        }
+    }
+
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        int len = in.readInt();
+        if (len < 0 || len > MAX_FRAME) throw new IOException("Trame invalide (" + len + " octets)");
+        byte[] content = new byte[len];
+        in.readFully(content);
+        return new Frame(type, new DataInputStream(new ByteArrayInputStream(content)));
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  CHAÎNES
+    // ════════════════════════════════════════════════════════════════════════
+
+    public static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_FRAME) throw new IOException("Chaîne invalide (" + len + " octets)");
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,145 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stockage par code d'effacement (alternative à la réplication, choisie par fichier).
+ *
+ * Un chunk k+m est découpé en k fragments de données et m fragments de parité,
+ * chacun sur un OSD distinct : surcoût de (k + m) / k au lieu de 3x, et le chunk
+ * survit à la perte de m OSD (4+2 : 1,5x, deux pannes).
+ *
+ * Nommage :
+ *   chunk    <empreinte>-rs4-2      (le schéma fait partie de l'identifiant)
+ *   fragment <chunk>.f3             (objet réellement stocké sur l'OSD)
+ *
+ * Les répliques d'un chunk codé sont positionnelles : chunkLocations.get(i) est
+ * l'OSD qui porte le fragment i, "" si le fragment est perdu.
+ *
+ * Contenu codé : [int longueur][octets du chunk][bourrage], réparti sur les k
+ * fragments de données.
+ */
+public final class ErasureCode {
+
+    public static final ErasureCode DEFAULT = new ErasureCode(4, 2);
+
+    /** Marque d'un emplacement de fragment perdu dans chunkLocations. */
+    public static final String LOST = "";
+
+    private static final Pattern SUFFIX = Pattern.compile("-rs(\\d+)-(\\d+)$");
+
+    public final int dataShards;
+    public final int parityShards;
+    private final ReedSolomon rs;
+
+    public ErasureCode(int dataShards, int parityShards) {
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.rs = new ReedSolomon(dataShards, parityShards);
+    }
+
+    /**
+     * "4+2" → schéma ; null, "" ou "replica" → réplication. "4 2" est accepté aussi :
+     * c'est ce qu'il reste de "4+2" une fois une query string décodée.
+     */
+    public static ErasureCode parse(String spec) {
+        if (spec == null || spec.isBlank() || "replica".equalsIgnoreCase(spec)) return null;
+        if ("ec".equalsIgnoreCase(spec)) return DEFAULT;
+        String[] parts = spec.trim().split("[+ ]");
+        if (parts.length != 2) throw new IllegalArgumentException("Schéma invalide: " + spec);
+        int k = Integer.parseInt(parts[0]);
+        int m = Integer.parseInt(parts[1]);
+        // Bornes de la forme d'id acceptée (cf. ContentHash.isChunkId)
+        if (k < 1 || k > 15 || m < 1 || m > 15) throw new IllegalArgumentException("Schéma invalide: " + spec);
+        return new ErasureCode(k, m);
+    }
+
+    /** Schéma d'un chunk d'après son identifiant, null s'il est répliqué. */
+    public static ErasureCode ofChunk(String chunkId) {
+        Matcher m = SUFFIX.matcher(chunkId);
+        if (!m.find()) return null;
+        int k = Integer.parseInt(m.group(1));
+        int p = Integer.parseInt(m.group(2));
+        return DEFAULT.dataShards == k && DEFAULT.parityShards == p ? DEFAULT : new ErasureCode(k, p);
+    }
+
+    public String chunkId(String contentHash) {
+        return contentHash + "-rs" + dataShards + "-" + parityShards;
+    }
+
+    public static String fragmentId(String chunkId, int index) {
+        return chunkId + ".f" + index;
+    }
+
+    public int totalShards() {
+        return dataShards + parityShards;
+    }
+
+    /** Découpe le chunk en k + m fragments de même taille. */
+    public byte[][] encode(byte[] data, int off, int len) {
+        int shardSize = (Integer.BYTES + len + dataShards - 1) / dataShards;
+        ByteBuffer payload = ByteBuffer.allocate(shardSize * dataShards);
+        payload.putInt(len).put(data, off, len);
+
+        byte[][] shards = new byte[totalShards()][];
+        byte[] all = payload.array();
+        for (int i = 0; i < dataShards; i++) {
+            shards[i] = java.util.Arrays.copyOfRange(all, i * shardSize, (i + 1) * shardSize);
+        }
+        for (int i = dataShards; i < shards.length; i++) shards[i] = new byte[shardSize];
+        rs.encodeParity(shards, shardSize);
+        return shards;
+    }
+
+    /**
+     * Reconstruit en place les fragments absents (null).
+     *
+     * @throws IllegalStateException s'il reste moins de k fragments
+     */
+    public void reconstruct(byte[][] shards) {
+        int shardSize = -1;
+        for (byte[] s : shards) {
+            if (s != null) {
+                shardSize = s.length;
+                break;
+            }
+        }
+        if (shardSize < 0) throw new IllegalStateException("Aucun fragment");
+        rs.reconstruct(shards, shardSize);
+    }
+
+    /**
+     * Contenu du chunk à partir d'au moins k fragments (les absents valent null).
+     *
+     * @throws IOException si les fragments n'ont pas tous la même taille ou si la
+     *                     longueur en tête ne tient pas dans les k fragments
+     */
+    public byte[] decode(byte[][] shards) throws IOException {
+        int shardSize = -1;
+        for (byte[] s : shards) {
+            if (s == null) continue;
+            if (shardSize >= 0 && s.length != shardSize) throw new IOException("Fragments de tailles différentes");
+            shardSize = s.length;
+        }
+        reconstruct(shards);
+        ByteBuffer payload = ByteBuffer.allocate(shardSize * dataShards);
+        for (int i = 0; i < dataShards; i++) payload.put(shards[i]);
+        payload.flip();
+        if (payload.remaining() < Integer.BYTES) throw new IOException("Fragments trop courts");
+        int length = payload.getInt();
+        if (length < 0 || length > payload.remaining()) {
+            throw new IOException("Longueur décodée invalide: " + length + " (max " + payload.remaining() + ")");
+        }
+        byte[] data = new byte[length];
+        payload.get(data);
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return dataShards + "+" + parityShards;
+    }
+}
@@ -6,11 +6,223 @@ import java.nio.file.*;
 
 public class FileMeta {
 
+    /** Taille des chunks des fichiers écrits avant que chunkSize soit enregistré. */
+    public static final int LEGACY_CHUNK_SIZE = 1_000_000;
+
     public String fileName;
     public String ownerId;
     public long totalSize;
-    public List<String> chunkIds = new ArrayList<>();
-    public Map<String, List<String>> chunkLocations = new HashMap<>();
+    /** Taille des chunks du fichier : le chunk i couvre [i * chunkSize, (i + 1) * chunkSize). */
+    public int chunkSize = LEGACY_CHUNK_SIZE;
+    private List<String> chunkIds = new ArrayList<>();
+    private Map<String, List<String>> chunkLocations = new HashMap<>();
+    /** Codec de chaque chunk stocké compressé (absent = brut, cf. ChunkCodec). */
+    private Map<String, String> chunkCodecs = new HashMap<>();
+
+    /**
+     * Forme compacte d'un fichier publié (cf. compact) : ids encodés
+     * (ChunkIdList), listes de répliques partagées avec l'index du DIR, un octet
+     * de codec par chunk. chunkLocations et chunkCodecs sont alors des vues en
+     * lecture seule sur ces tableaux.
+     */
+    private List<List<String>> replicas;
+    private byte[] codecIds;
+
+    /**
+     * Liste des chunks pas encore construite : un fichier chargé depuis l'image
+     * du DIR ne la décode qu'au premier accès (cf. MetaStore). En attendant,
+     * seul le nombre de chunks est connu.
+     */
+    public interface Loader {
+        void load(FileMeta meta);
+    }
+
+    private volatile Loader loader;
+    private int declaredChunks;
+
+    /** Fichier dont la liste des chunks sera construite par loader au premier accès. */
+    public void defer(int chunkCount, Loader loader) {
+        this.declaredChunks = chunkCount;
+        this.loader = loader;
+    }
+
+    /** Loader en attente, null si la liste des chunks est déjà construite. */
+    public Loader pendingLoader() {
+        return loader;
+    }
+
+    /**
+     * Passe le fichier sous sa forme compacte ; appelé par l'index du DIR quand
+     * le fichier est publié ou chargé. replicas.get(i) est la liste partagée du
+     * chunk i (null s'il est inconnu), codecs[i] son codec (ChunkCodec.id).
+     */
+    public void compact(List<String> chunkIds, List<List<String>> replicas, byte[] codecs) {
+        this.chunkIds = ChunkIdList.of(chunkIds);
+        this.replicas = replicas;
+        this.codecIds = codecs;
+        this.chunkLocations = new LocationView();
+        this.chunkCodecs = new CodecView();
+    }
+
+    private void materialize() {
+        if (loader == null) return;
+        synchronized (this) {
+            Loader l = loader;
+            if (l != null) {
+                l.load(this);
+                loader = null;
+            }
+        }
+    }
+
+    public List<String> chunkIds() {
+        materialize();
+        return chunkIds;
+    }
+
+    public Map<String, List<String>> chunkLocations() {
+        materialize();
+        return chunkLocations;
+    }
+
+    public Map<String, String> chunkCodecs() {
+        materialize();
+        return chunkCodecs;
+    }
+
+    /** Nombre de chunks, sans construire la liste. */
+    public int chunkCount() {
+        return loader != null ? declaredChunks : chunkIds().size();
+    }
+
+    /**
+     * Plus grand nombre de répliques d'un chunk, sans construire la liste :
+     * -1 tant qu'elle n'est pas construite (cf. defer).
+     */
+    public int maxReplicas() {
+        if (loader != null) return -1;
+        int max = 0;
+        for (List<String> locs : replicas != null ? replicas : chunkLocations.values()) {
+            if (locs != null) max = Math.max(max, locs.size());
+        }
+        return max;
+    }
+
+    /** Position d'un chunk dans la forme compacte (index de ChunkIdList), -1 s'il n'en fait pas partie. */
+    private int indexOf(Object chunkId) {
+        return chunkId instanceof String id ? ((ChunkIdList) chunkIds).find(id) : -1;
+    }
+
+    /**
+     * Entrées d'une vue compacte, lues dans les tableaux au fil du parcours :
+     * première occurrence de chaque chunk pour lequel value(i) n'est pas null.
+     */
+    private abstract class CompactEntries<V> extends AbstractSet<Map.Entry<String, V>> {
+        abstract V value(int i);
+
+        private boolean listed(int i) {
+            return value(i) != null && ((ChunkIdList) chunkIds).first(i) == i;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, V>> iterator() {
+            return new Iterator<>() {
+                private int next = advance(0);
+
+                private int advance(int from) {
+                    int i = from;
+                    while (i < chunkIds.size() && !listed(i)) i++;
+                    return i;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < chunkIds.size();
+                }
+
+                @Override
+                public Map.Entry<String, V> next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    int i = next;
+                    next = advance(i + 1);
+                    return new AbstractMap.SimpleImmutableEntry<>(chunkIds.get(i), value(i));
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int n = 0;
+            for (int i = 0; i < chunkIds.size(); i++) {
+                if (listed(i)) n++;
+            }
+            return n;
+        }
+    }
+
+    /** chunkLocations de la forme compacte : un chunk présent plusieurs fois n'y figure qu'une. */
+    private final class LocationView extends AbstractMap<String, List<String>> {
+        @Override
+        public List<String> get(Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : replicas.get(i);
+        }
+
+        @Override
+        public List<String> getOrDefault(Object key, List<String> defaultValue) {
+            List<String> locs = get(key);
+            return locs != null ? locs : defaultValue;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, List<String>>> entrySet() {
+            return new CompactEntries<>() {
+                @Override
+                List<String> value(int i) {
+                    return replicas.get(i);
+                }
+            };
+        }
+    }
+
+    /** chunkCodecs de la forme compacte : chunks compressés uniquement. */
+    private final class CodecView extends AbstractMap<String, String> {
+        @Override
+        public String get(Object key) {
+            int i = indexOf(key);
+            return i < 0 || codecIds[i] == 0 ? null : ChunkCodec.name(codecIds[i]);
+        }
+
+        @Override
+        public String getOrDefault(Object key, String defaultValue) {
+            String codec = get(key);
+            return codec != null ? codec : defaultValue;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new CompactEntries<>() {
+                @Override
+                String value(int i) {
+                    return codecIds[i] == 0 ? null : ChunkCodec.name(codecIds[i]);
+                }
+            };
+        }
+    }
+
+    public String codecOf(String chunkId) {
+        return chunkCodecs().getOrDefault(chunkId, ChunkCodec.NONE);
+    }
 
     // ─────────────────────────────────────────────
     // Sérialisation JSON manuelle (pas de lib externe)
@@ -23,10 +235,15 @@ public class FileMeta {
      * {
      * "fileName": "test.txt",
      * "ownerId": "12",
+     * "totalSize": 1500000,
+     * "chunkSize": 1048576,
      * "chunkIds": ["id1","id2"],
      * "chunkLocations": {
      * "id1": ["osd-9001","osd-9002"],
      * "id2": ["osd-9001"]
+     * },
+     * "chunkCodecs": {
+     * "id1": "deflate"
      * }
      * }
      * 
@@ -40,22 +257,23 @@ public class FileMeta {
         sb.append("  \"fileName\": \"").append(escapeJson(fileName)).append("\",\n");
         sb.append("  \"ownerId\": \"").append(escapeJson(ownerId)).append("\",\n");
         sb.append("  \"totalSize\": ").append(totalSize).append(",\n");
+        sb.append("  \"chunkSize\": ").append(chunkSize).append(",\n");
 
         // chunkIds
         sb.append("  \"chunkIds\": [");
-        for (int i = 0; i < chunkIds.size(); i++) {
-            sb.append("\"").append(escapeJson(chunkIds.get(i))).append("\"");
-            if (i < chunkIds.size() - 1)
+        for (int i = 0; i < chunkIds().size(); i++) {
+            sb.append("\"").append(escapeJson(chunkIds().get(i))).append("\"");
+            if (i < chunkIds().size() - 1)
                 sb.append(",");
         }
         sb.append("],\n");
 
         // chunkLocations
         sb.append("  \"chunkLocations\": {\n");
-        List<String> keys = new ArrayList<>(chunkLocations.keySet());
+        List<String> keys = new ArrayList<>(chunkLocations().keySet());
         for (int i = 0; i < keys.size(); i++) {
             String k = keys.get(i);
-            List<String> locs = chunkLocations.get(k);
+            List<String> locs = chunkLocations().get(k);
             sb.append("    \"").append(escapeJson(k)).append("\": [");
             for (int j = 0; j < locs.size(); j++) {
                 sb.append("\"").append(escapeJson(locs.get(j))).append("\"");
@@ -67,6 +285,19 @@ public class FileMeta {
                 sb.append(",");
             sb.append("\n");
         }
+        sb.append("  },\n");
+
+        // chunkCodecs (chunks compressés uniquement)
+        sb.append("  \"chunkCodecs\": {\n");
+        List<String> codecKeys = new ArrayList<>(chunkCodecs().keySet());
+        for (int i = 0; i < codecKeys.size(); i++) {
+            String k = codecKeys.get(i);
+            sb.append("    \"").append(escapeJson(k)).append("\": \"")
+              .append(escapeJson(chunkCodecs().get(k))).append("\"");
+            if (i < codecKeys.size() - 1)
+                sb.append(",");
+            sb.append("\n");
+        }
         sb.append("  }\n");
         sb.append("}");
         return sb.toString();
@@ -82,17 +313,9 @@ public class FileMeta {
         // fileName
         m.fileName = extractString(json, "fileName");
         m.ownerId = extractString(json, "ownerId");
-        // totalSize
-        try {
-            String marker = "\"totalSize\": ";
-            int idx = json.indexOf(marker);
-            if (idx >= 0) {
-                int start = idx + marker.length();
-                int end = json.indexOf(",", start);
-                if (end < 0) end = json.indexOf("\n", start);
-                m.totalSize = Long.parseLong(json.substring(start, end).trim());
-            }
-        } catch (Exception ignored) {}
+        // totalSize, chunkSize (absent des anciens fichiers : LEGACY_CHUNK_SIZE)
+        m.totalSize = extractLong(json, "totalSize", 0);
+        m.chunkSize = (int) extractLong(json, "chunkSize", LEGACY_CHUNK_SIZE);
 
         // chunkIds : tableau entre les [ ] après "chunkIds"
         String chunkIdsBlock = extractArrayBlock(json, "chunkIds");
@@ -120,11 +343,37 @@ public class FileMeta {
             }
         }
 
+        // chunkCodecs : absent des fichiers écrits avant la compression
+        String codecBlock = extractObjectBlock(json, "chunkCodecs");
+        for (String line : codecBlock.split(",\\s*\n|\\n")) {
+            line = line.trim();
+            int colonIdx = line.indexOf("\":");
+            if (colonIdx < 0)
+                continue;
+            List<String> vals = parseStringArray(line.substring(colonIdx + 2));
+            if (!vals.isEmpty())
+                m.chunkCodecs.put(line.substring(1, colonIdx).trim(), vals.get(0));
+        }
+
         return m;
     }
 
     // ─── helpers de parsing ───────────────────────
 
+    private static long extractLong(String json, String field, long defaultValue) {
+        try {
+            String marker = "\"" + field + "\": ";
+            int idx = json.indexOf(marker);
+            if (idx >= 0) {
+                int start = idx + marker.length();
+                int end = json.indexOf(",", start);
+                if (end < 0) end = json.indexOf("\n", start);
+                return Long.parseLong(json.substring(start, end).trim());
+            }
+        } catch (Exception ignored) {}
+        return defaultValue;
+    }
+
     private static String extractString(String json, String field) {
         String marker = "\"" + field + "\": \"";
         int start = json.indexOf(marker);
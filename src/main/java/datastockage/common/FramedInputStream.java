@@ -0,0 +1,51 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Lecture d'un flux écrit par {@link FramedOutputStream}.
+ * Renvoie -1 sur la trame de fin, lève une IOException sur la trame d'erreur.
+ */
+public class FramedInputStream extends InputStream {
+
+    private final DataInputStream dis;
+    private int remaining = 0;
+    private boolean done = false;
+
+    public FramedInputStream(DataInputStream dis) {
+        this.dis = dis;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextFrame()) return -1;
+        remaining--;
+        return dis.readUnsignedByte();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!nextFrame()) return -1;
+        int r = dis.read(b, off, Math.min(len, remaining));
+        if (r < 0) throw new IOException("Flux interrompu");
+        remaining -= r;
+        return r;
+    }
+
+    private boolean nextFrame() throws IOException {
+        while (remaining == 0) {
+            if (done) return false;
+            int len = dis.readInt();
+            if (len == 0) {
+                done = true;
+                return false;
+            }
+            if (len < 0) throw new IOException("Transfert interrompu côté serveur");
+            remaining = len;
+        }
+        return true;
+    }
+}
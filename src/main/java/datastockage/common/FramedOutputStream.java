@@ -0,0 +1,78 @@
+package common;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Flux de réponse découpé en trames : [int len][len octets] ... [int 0].
+ *
+ * Permet d'envoyer un fichier chunk par chunk sans le matérialiser :
+ * le destinataire n'a pas besoin de connaître la taille à l'avance et
+ * une trame [int -1] signale un échec en cours de transfert.
+ */
+public class FramedOutputStream extends FilterOutputStream {
+
+    public static final int FRAME_SIZE = 64 * 1024;
+
+    private final DataOutputStream dos;
+    private final byte[] buffer = new byte[FRAME_SIZE];
+    private int count = 0;
+
+    public FramedOutputStream(DataOutputStream dos) {
+        super(dos);
+        this.dos = dos;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) flushFrame();
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) flushFrame();
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushFrame();
+        dos.flush();
+    }
+
+    /** Trame de fin : le flux est complet. */
+    public void finish() throws IOException {
+        flushFrame();
+        dos.writeInt(0);
+        dos.flush();
+    }
+
+    /** Trame d'erreur : le destinataire doit jeter ce qu'il a reçu. */
+    public void abort() throws IOException {
+        count = 0;
+        dos.writeInt(-1);
+        dos.flush();
+    }
+
+    /** Ne ferme pas la socket sous-jacente : la réponse peut continuer. */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void flushFrame() throws IOException {
+        if (count == 0) return;
+        dos.writeInt(count);
+        dos.write(buffer, 0, count);
+        count = 0;
+    }
+}
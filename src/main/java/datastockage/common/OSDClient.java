@@ -0,0 +1,151 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Côté client du protocole OSD (utilisé par le DIR et par les OSD entre eux).
+ *
+ * Réplication en chaîne (STORE_CHUNK_CHAIN) :
+ *
+ *   émetteur ──► OSD1 ──► OSD2 ──► OSD3
+ *            ◄── ack  ◄── ack  ◄── ack
+ *
+ * L'émetteur n'envoie le chunk qu'une seule fois, au premier OSD, avec la liste
+ * des répliques suivantes. Chaque OSD écrit localement tout en relayant le flux
+ * au suivant, puis remonte la liste des OSD qui ont effectivement stocké le chunk.
+ * La chaîne utilise sa propre socket : le flux y est relayé au fil de l'eau.
+ *
+ * Les opérations unitaires (store, fetch, delete) passent par les connexions
+ * persistantes et multiplexées d'OSDConnectionPool.
+ */
+public class OSDClient {
+
+    /**
+     * Envoie un chunk en tête de chaîne.
+     *
+     * @return les ids des OSD ayant stocké le chunk (vide si la tête est injoignable)
+     */
+    public static List<String> storeChain(List<SlaveInfo> chain, String chunkId,
+                                          byte[] data, int off, int len) {
+        List<String> stored = new ArrayList<>();
+        if (chain.isEmpty()) return stored;
+
+        SlaveInfo head = chain.get(0);
+        try (Socket socket = new Socket(head.host, head.port);
+             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+
+            writeChainHeader(dos, chunkId, len, chain.subList(1, chain.size()));
+            dos.write(data, off, len);
+            dos.flush();
+
+            stored.addAll(readChainAck(dis));
+        } catch (Exception e) {
+            System.out.println("[OSDClient] Chain head unreachable: " + head.id + " (" + e.getMessage() + ")");
+        }
+        return stored;
+    }
+
+    /**
+     * Écrit un objet sur un seul OSD (STORE_CHUNK), par exemple un fragment codé.
+     *
+     * @return true si l'OSD a acquitté l'écriture
+     */
+    public static boolean store(SlaveInfo osd, String chunkId, byte[] data, int off, int len) {
+        try {
+            DataInputStream in = OSDConnectionPool.call(osd, out -> {
+                out.writeUTF("STORE_CHUNK");
+                out.writeUTF(chunkId);
+                out.writeInt(len);
+            }, data, off, len);
+            return "OK".equals(in.readUTF());
+        } catch (IOException e) {
+            System.out.println("[OSDClient] Store failed → " + osd.id + " (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    /** Lit un objet entier (GET_CHUNK). */
+    public static byte[] fetch(SlaveInfo osd, String chunkId) throws IOException {
+        DataInputStream in = OSDConnectionPool.call(osd, out -> {
+            out.writeUTF("GET_CHUNK");
+            out.writeUTF(chunkId);
+        });
+        String status = in.readUTF();
+        if (!"OK".equals(status)) throw new IOException("Chunk " + chunkId + " absent de " + osd.id + " (" + status + ")");
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    /**
+     * Contrôle d'un objet par l'OSD (CHECK_CHUNK) : "OK <codec> <taille>", codec sous
+     * lequel son contenu correspond à son id ("-" si l'id n'est pas une empreinte),
+     * "NOT_FOUND" ou "CORRUPT".
+     */
+    public static String check(SlaveInfo osd, String chunkId) throws IOException {
+        DataInputStream in = OSDConnectionPool.call(osd, out -> {
+            out.writeUTF("CHECK_CHUNK");
+            out.writeUTF(chunkId);
+        });
+        return in.readUTF();
+    }
+
+    /** check() sans attendre la réponse. */
+    public static CompletableFuture<String> checkAsync(SlaveInfo osd, String chunkId) {
+        return OSDConnectionPool.send(osd, out -> {
+            out.writeUTF("CHECK_CHUNK");
+            out.writeUTF(chunkId);
+        }).thenApply(in -> {
+            try {
+                return in.readUTF();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /** Supprime un objet (DELETE_CHUNK). */
+    public static boolean delete(SlaveInfo osd, String chunkId) {
+        try {
+            DataInputStream in = OSDConnectionPool.call(osd, out -> {
+                out.writeUTF("DELETE_CHUNK");
+                out.writeUTF(chunkId);
+            });
+            return "OK".equals(in.readUTF());
+        } catch (IOException e) {
+            System.err.println("[OSDClient] Delete failed → " + osd.id + " (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    /** En-tête STORE_CHUNK_CHAIN : chunkId, taille, puis les maillons restants. */
+    public static void writeChainHeader(DataOutputStream dos, String chunkId, int len,
+                                        List<SlaveInfo> rest) throws IOException {
+        dos.writeUTF("STORE_CHUNK_CHAIN");
+        dos.writeUTF(chunkId);
+        dos.writeInt(len);
+        dos.writeInt(rest.size());
+        for (SlaveInfo s : rest) {
+            dos.writeUTF(s.id);
+            dos.writeUTF(s.host);
+            dos.writeInt(s.port);
+        }
+    }
+
+    /** Lit l'ack de chaîne : "OK" puis la liste des OSD ayant stocké le chunk. */
+    public static List<String> readChainAck(DataInputStream dis) throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (!"OK".equals(dis.readUTF())) return ids;
+        int n = dis.readInt();
+        for (int i = 0; i < n; i++) ids.add(dis.readUTF());
+        return ids;
+    }
+}
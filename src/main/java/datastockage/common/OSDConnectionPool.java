@@ -0,0 +1,312 @@
+package common;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connexions persistantes et multiplexées vers les OSD.
+ *
+ * Chaque OSD est joint par CONNECTIONS_PER_OSD sockets longue durée, passées
+ * en mode MUX à l'ouverture. Sur une socket MUX, chaque requête porte un
+ * identifiant :
+ *
+ *   requête  [long id][int len][commande + arguments, format habituel]
+ *   réponse  [long id][int len][réponse, format habituel]
+ *
+ * Plusieurs opérations sont donc en vol sur la même connexion, et les réponses
+ * reviennent dans l'ordre où l'OSD les termine. Plus d'établissement TCP par
+ * chunk ni d'épuisement des ports éphémères sous forte charge.
+ *
+ * Les gros corps ne sont pas recopiés en mémoire : les données d'un STORE_CHUNK
+ * partent du tableau de l'appelant directement sur la socket, et une réponse de
+ * plus de INLINE_BYTES est lue par son destinataire sur la socket même, pendant
+ * que le lecteur de la connexion attend qu'il l'ait lue ou fermée. Un destinataire
+ * qui ne la lit pas aussitôt la retrouve en mémoire (Body), comme avant.
+ *
+ * Une connexion en erreur fait échouer ses requêtes en vol et sera rouverte
+ * à la prochaine utilisation.
+ */
+public final class OSDConnectionPool {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final int        CONNECTIONS_PER_OSD = 2;
+    static final int        CONNECT_TIMEOUT_MS  = 5_000;
+    public static final int REQUEST_TIMEOUT_MS  = 30_000;
+    static final int        INLINE_BYTES        = 64 * 1024;   // réponse plus grosse : lue sur la socket
+    static final long       HANDOFF_MS          = 100;         // pause du destinataire avant mise en mémoire
+
+    private static final Map<String, Connection[]> POOL = new ConcurrentHashMap<>();
+    private static final AtomicLong    NEXT_ID     = new AtomicLong();
+    private static final AtomicInteger ROUND_ROBIN = new AtomicInteger();
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private static final AtomicLong opened   = new AtomicLong();
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong streamed = new AtomicLong();
+    private static final AtomicLong handedOff = new AtomicLong();
+
+    private OSDConnectionPool() {
+    }
+
+    /** Écrit une requête (commande + arguments) comme sur une connexion classique. */
+    public interface RequestWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** Envoie la requête ; la réponse arrive de façon asynchrone. */
+    public static CompletableFuture<DataInputStream> send(SlaveInfo osd, RequestWriter writer) {
+        return send(osd, writer, null, 0, 0);
+    }
+
+    /**
+     * Envoie une requête suivie de len octets de data, écrits tels quels sur la
+     * socket à la suite des arguments (sans copie).
+     */
+    public static CompletableFuture<DataInputStream> send(SlaveInfo osd, RequestWriter writer,
+                                                          byte[] data, int off, int len) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writer.write(new DataOutputStream(bytes));
+            return connection(osd).send(bytes.toByteArray(), data, off, len);
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /** Envoie la requête et attend la réponse (au plus REQUEST_TIMEOUT_MS). */
+    public static DataInputStream call(SlaveInfo osd, RequestWriter writer) throws IOException {
+        return call(osd, writer, null, 0, 0);
+    }
+
+    /** Comme send(osd, writer, data, off, len), en attendant la réponse. */
+    public static DataInputStream call(SlaveInfo osd, RequestWriter writer,
+                                       byte[] data, int off, int len) throws IOException {
+        CompletableFuture<DataInputStream> response = send(osd, writer, data, off, len);
+        try {
+            return response.get(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Requête interrompue: " + osd.id);
+        } catch (TimeoutException e) {
+            response.cancel(true);
+            throw new IOException("Pas de réponse de " + osd.id);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private static Connection connection(SlaveInfo osd) throws IOException {
+        Connection[] slots = POOL.computeIfAbsent(osd.host + ":" + osd.port,
+                k -> new Connection[CONNECTIONS_PER_OSD]);
+        int i = Math.floorMod(ROUND_ROBIN.getAndIncrement(), slots.length);
+        synchronized (slots) {
+            Connection c = slots[i];
+            if (c == null || c.closed) {
+                c = new Connection(osd);
+                slots[i] = c;
+            }
+            return c;
+        }
+    }
+
+    public static String getStats() {
+        int open = 0;
+        int inFlight = 0;
+        for (Connection[] slots : POOL.values()) {
+            synchronized (slots) {
+                for (Connection c : slots) {
+                    if (c != null && !c.closed) {
+                        open++;
+                        inFlight += c.pending.size();
+                    }
+                }
+            }
+        }
+        return "=== OSD Connections ===\n"
+                + "Open        : " + open + " (opened " + opened.get() + " total)\n"
+                + "Requests    : " + requests.get() + " (" + inFlight + " in flight)\n"
+                + "Streamed    : " + streamed.get() + " responses (" + handedOff.get() + " buffered)\n"
+                + "Failed      : " + failures.get() + "\n";
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  CONNEXION MULTIPLEXÉE
+    // ════════════════════════════════════════════════════════════════════════
+
+    private static final class Connection {
+        final SlaveInfo        osd;
+        final Socket           socket;
+        final DataOutputStream out;
+        final Map<Long, CompletableFuture<DataInputStream>> pending = new ConcurrentHashMap<>();
+        volatile boolean closed;
+
+        Connection(SlaveInfo osd) throws IOException {
+            this.osd = osd;
+            this.socket = new Socket();
+            socket.connect(new InetSocketAddress(osd.host, osd.port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            out.writeUTF("MUX");
+            out.flush();
+            opened.incrementAndGet();
+
+            Thread reader = new Thread(this::readLoop, "osd-mux-" + osd.id);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        CompletableFuture<DataInputStream> send(byte[] request, byte[] data, int off, int len) {
+            long id = NEXT_ID.incrementAndGet();
+            CompletableFuture<DataInputStream> response = new CompletableFuture<>();
+            pending.put(id, response);
+            // Réponse reçue, échec ou abandon (timeout, hedging) : plus rien à attendre
+            response.whenComplete((r, e) -> pending.remove(id));
+            requests.incrementAndGet();
+            try {
+                synchronized (out) {
+                    out.writeLong(id);
+                    out.writeInt(request.length + len);
+                    out.write(request);
+                    if (len > 0) out.write(data, off, len);   // au-delà du tampon : directement sur la socket
+                    out.flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            return response;
+        }
+
+        private void readLoop() {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), 64 * 1024))) {
+                while (true) {
+                    long id = in.readLong();
+                    int len = in.readInt();
+                    CompletableFuture<DataInputStream> response = pending.get(id);
+                    if (len <= INLINE_BYTES) {
+                        byte[] body = new byte[len];
+                        in.readFully(body);
+                        if (response != null) response.complete(new DataInputStream(new ByteArrayInputStream(body)));
+                        continue;
+                    }
+                    // Gros corps : le destinataire le lit sur la socket, la suite attend
+                    Body body = new Body(in, len);
+                    if (response != null && response.complete(new DataInputStream(body))) {
+                        streamed.incrementAndGet();
+                        body.await();
+                    } else {
+                        in.skipNBytes(len);   // abandonnée entre-temps
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void fail(IOException e) {
+            if (closed) return;
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            for (CompletableFuture<DataInputStream> f : pending.values()) {
+                failures.incrementAndGet();
+                f.completeExceptionally(new IOException("Connexion perdue avec " + osd.id + ": " + e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Corps d'une réponse lu directement sur la socket de la connexion, tant que
+     * son destinataire le lit sans pause de plus de HANDOFF_MS. Sinon (il attend
+     * d'abord une autre réponse, ou ne lira jamais celle-ci), le lecteur de la
+     * connexion met le reste en mémoire et passe à la réponse suivante : les
+     * réponses ne se bloquent jamais entre elles.
+     */
+    private static final class Body extends InputStream {
+        private final DataInputStream in;
+        private long    remaining;   // encore sur la socket
+        private byte[]  rest;        // repris par le lecteur de la connexion
+        private int     restPos;
+        private long    lastProgress = System.currentTimeMillis();
+        private boolean released;
+
+        Body(DataInputStream in, int length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (rest != null) {
+                if (restPos == rest.length) return -1;
+                int n = Math.min(len, rest.length - restPos);
+                System.arraycopy(rest, restPos, b, off, n);
+                restPos += n;
+                return n;
+            }
+            if (remaining == 0) {
+                release();
+                return -1;
+            }
+            if (len == 0) return 0;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                release();
+                throw new EOFException("Réponse tronquée");
+            }
+            remaining -= n;
+            lastProgress = System.currentTimeMillis();
+            if (remaining == 0) release();
+            return n;
+        }
+
+        @Override
+        public synchronized void close() {
+            release();
+        }
+
+        private void release() {
+            released = true;
+            notifyAll();
+        }
+
+        /** Côté lecteur de la connexion : rend la socket une fois le corps lu, fermé ou repris. */
+        synchronized void await() throws IOException {
+            try {
+                while (!released) {
+                    long pause = HANDOFF_MS - (System.currentTimeMillis() - lastProgress);
+                    if (pause <= 0) {
+                        rest = new byte[(int) remaining];
+                        in.readFully(rest);
+                        remaining = 0;
+                        handedOff.incrementAndGet();
+                        return;
+                    }
+                    wait(pause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Connexion arrêtée");
+            }
+            in.skipNBytes(remaining);   // fermé avant la fin
+            remaining = 0;
+        }
+    }
+}
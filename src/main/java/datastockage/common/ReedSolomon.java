@@ -0,0 +1,178 @@
+package common;
+
+/**
+ * Code de Reed-Solomon systématique sur GF(2^8).
+ *
+ * Les k fragments de données sont gardés tels quels ; les m fragments de parité
+ * sont des combinaisons linéaires des données. N'importe quels k fragments parmi
+ * les k + m suffisent à reconstruire tous les autres.
+ *
+ * Matrice de codage : Vandermonde (k + m) × k, normalisée pour que ses k premières
+ * lignes forment l'identité (d'où le caractère systématique).
+ */
+public final class ReedSolomon {
+
+    // ── Arithmétique GF(2^8), polynôme 0x11D ─────────────────────────────────
+    private static final int[]      EXP = new int[512];
+    private static final int[]      LOG = new int[256];
+    private static final byte[][]   MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) x ^= 0x11D;
+        }
+        for (int i = 255; i < EXP.length; i++) EXP[i] = EXP[i - 255];
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) MUL[a][b] = (byte) mul(a, b);
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    private final int[][] matrix;    // (k + m) × k
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > 255) {
+            throw new IllegalArgumentException("Schéma invalide: " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        int n = dataShards + parityShards;
+        int[][] vandermonde = new int[n][dataShards];
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < dataShards; c++) vandermonde[r][c] = pow(r, c);
+        }
+        int[][] top = new int[dataShards][];
+        for (int r = 0; r < dataShards; r++) top[r] = vandermonde[r].clone();
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    /** Calcule les fragments de parité shards[k..k+m) à partir de shards[0..k). */
+    public void encodeParity(byte[][] shards, int len) {
+        for (int p = 0; p < parityShards; p++) {
+            combine(matrix[dataShards + p], shards, shards[dataShards + p], len);
+        }
+    }
+
+    /**
+     * Reconstruit en place les fragments absents (null), données et parité.
+     *
+     * @throws IllegalStateException s'il reste moins de k fragments
+     */
+    public void reconstruct(byte[][] shards, int len) {
+        int n = dataShards + parityShards;
+        int[] present = new int[dataShards];
+        int count = 0;
+        boolean dataComplete = true;
+        for (int i = 0; i < n && count < dataShards; i++) {
+            if (shards[i] != null) present[count++] = i;
+        }
+        if (count < dataShards) {
+            throw new IllegalStateException("Fragments insuffisants: " + count + "/" + dataShards);
+        }
+        for (int i = 0; i < dataShards; i++) {
+            if (shards[i] == null) dataComplete = false;
+        }
+
+        if (!dataComplete) {
+            // Les lignes des fragments présents forment une sous-matrice inversible
+            int[][] sub = new int[dataShards][];
+            byte[][] inputs = new byte[dataShards][];
+            for (int i = 0; i < dataShards; i++) {
+                sub[i] = matrix[present[i]].clone();
+                inputs[i] = shards[present[i]];
+            }
+            int[][] decode = invert(sub);
+            for (int d = 0; d < dataShards; d++) {
+                if (shards[d] == null) {
+                    shards[d] = new byte[len];
+                    combine(decode[d], inputs, shards[d], len);
+                }
+            }
+        }
+
+        for (int p = 0; p < parityShards; p++) {
+            if (shards[dataShards + p] == null) {
+                shards[dataShards + p] = new byte[len];
+                combine(matrix[dataShards + p], shards, shards[dataShards + p], len);
+            }
+        }
+    }
+
+    /** out = Σ coeffs[i] · inputs[i] */
+    private void combine(int[] coeffs, byte[][] inputs, byte[] out, int len) {
+        java.util.Arrays.fill(out, 0, len, (byte) 0);
+        for (int i = 0; i < dataShards; i++) {
+            int c = coeffs[i];
+            if (c == 0) continue;
+            byte[] row = MUL[c];
+            byte[] in = inputs[i];
+            for (int j = 0; j < len; j++) out[j] ^= row[in[j] & 0xFF];
+        }
+    }
+
+    // ── Algèbre linéaire sur GF(2^8) ─────────────────────────────────────────
+
+    private static int mul(int a, int b) {
+        if (a == 0 || b == 0) return 0;
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    private static int div(int a, int b) {
+        if (a == 0) return 0;
+        return EXP[LOG[a] + 255 - LOG[b]];
+    }
+
+    private static int pow(int a, int e) {
+        if (e == 0) return 1;
+        if (a == 0) return 0;
+        return EXP[(LOG[a] * e) % 255];
+    }
+
+    private static int[][] multiply(int[][] a, int[][] b) {
+        int[][] out = new int[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                int v = 0;
+                for (int i = 0; i < b.length; i++) v ^= mul(a[r][i], b[i][c]);
+                out[r][c] = v;
+            }
+        }
+        return out;
+    }
+
+    /** Inversion de Gauss-Jordan ; la matrice passée est modifiée. */
+    private static int[][] invert(int[][] m) {
+        int n = m.length;
+        int[][] inv = new int[n][n];
+        for (int i = 0; i < n; i++) inv[i][i] = 1;
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && m[pivot][col] == 0) pivot++;
+            if (pivot == n) throw new IllegalStateException("Matrice singulière");
+            int[] t = m[col]; m[col] = m[pivot]; m[pivot] = t;
+            t = inv[col]; inv[col] = inv[pivot]; inv[pivot] = t;
+
+            int p = m[col][col];
+            for (int c = 0; c < n; c++) {
+                m[col][c] = div(m[col][c], p);
+                inv[col][c] = div(inv[col][c], p);
+            }
+            for (int r = 0; r < n; r++) {
+                int f = m[r][col];
+                if (r == col || f == 0) continue;
+                for (int c = 0; c < n; c++) {
+                    m[r][c] ^= mul(f, m[col][c]);
+                    inv[r][c] ^= mul(f, inv[col][c]);
+                }
+            }
+        }
+        return inv;
+    }
+}
@@ -1,14 +1,13 @@
 package controleur;
 
+import common.DirClient;
+import common.DirProtocol;
 import model.FileModel;
 import model.User;
 import service.FileService;
 import service.UserService;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -66,41 +65,16 @@ public class FileController {
 
         List<FileModel> result = new ArrayList<>();
 
-        try (Socket socket = new Socket("10.134.17.222", 7000);
-                DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-                DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+        // Protocole v2 : enregistrements typés, lus page par page
+        try (DirClient dir = DirClient.connect("10.134.17.222", 7000, 5000)) {
 
-            dos.writeUTF("LIST_FILES");
-            dos.writeUTF(String.valueOf(user.getId()));
-            dos.flush();
-
-            String response = dis.readUTF();
-
-            if (!response.isEmpty()) {
-                String[] lines = response.split("\n");
-
-                for (String line : lines) {
-                    if (line.isBlank()) continue;
-                    String[] parts = line.split("\\|");
-
-                    String name = parts[0];
-                    long size = Long.parseLong(parts[1]);
-                    String date = parts.length > 2 ? parts[2] : "unknown";
-
-                    FileModel fm = new FileModel(name, size, date);
-
-                    // Chunks et replicas si disponibles
-                    if (parts.length > 3) {
-                        try { fm.setChunkCount(Integer.parseInt(parts[3])); } catch (Exception e) {}
-                    }
-                    if (parts.length > 4) {
-                        try { fm.setReplicas(Integer.parseInt(parts[4])); } catch (Exception e) {}
-                    }
-
-                    fm.setDistribue(true);
-                    fm.setProprietaireId(user.getId());
-                    result.add(fm);
-                }
+            for (DirProtocol.FileEntry f : dir.listFiles(String.valueOf(user.getId()))) {
+                FileModel fm = new FileModel(f.fileName, f.totalSize, "unknown");
+                fm.setChunkCount(f.chunkCount);
+                fm.setReplicas(f.replicas);
+                fm.setDistribue(true);
+                fm.setProprietaireId(user.getId());
+                result.add(fm);
             }
 
         } catch (Exception e) {
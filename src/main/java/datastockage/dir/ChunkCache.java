@@ -0,0 +1,224 @@
+package dir;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache des chunks téléchargés souvent, côté DIR.
+ *
+ * Un lien partagé fait télécharger le même fichier des centaines de fois : sans
+ * cache, chaque téléchargement relit chaque chunk sur les OSD. Les chunks lus en
+ * entier sont gardés ici, décompressés et reconstruits, sous leur chunkId :
+ *
+ *   mémoire  LRU borné en octets (-Ddir.cacheBytes) : chaque chunk pèse sa taille,
+ *            l'éviction libère les moins récents jusqu'à faire la place
+ *   disque   facultatif (-Ddir.cacheSpill=<répertoire>) : un chunk chassé de la
+ *            mémoire y est écrit en tâche de fond, LRU borné par dir.cacheSpillBytes ;
+ *            une lecture l'y retrouve et le remonte en mémoire ; les fichiers sont
+ *            numérotés (le chunkId vient des clients, il ne sert pas de nom)
+ *
+ * Le contenu d'un chunkId ne change pas, mais un chunk supprimé (fichier effacé ou
+ * écrasé) est retiré des deux niveaux. Une lecture commencée avant la suppression
+ * n'insère pas son résultat (compteur de versions).
+ */
+class ChunkCache {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final long   CAPACITY    = Long.getLong("dir.cacheBytes", 256L << 20);
+    static final String SPILL_DIR   = System.getProperty("dir.cacheSpill");
+    static final long   SPILL_BYTES = Long.getLong("dir.cacheSpillBytes", 4L << 30);
+
+    private static final ExecutorService SPILLER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "dir-cache-spill");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LinkedHashMap<String, byte[]> memory  = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Spill>  spilled = new LinkedHashMap<>(16, 0.75f, true);
+    private final Path spillDir;
+    private long memoryBytes;
+    private long spilledBytes;
+    private long spillFiles;   // numéro du prochain fichier
+    private long version;      // change à chaque invalidation
+
+    /** Chunk écrit sur disque : numéro de son fichier et taille. */
+    private static final class Spill {
+        final long file;
+        final long size;
+
+        Spill(long file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicLong hits      = new AtomicLong();
+    private final AtomicLong diskHits  = new AtomicLong();
+    private final AtomicLong misses    = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ChunkCache() {
+        Path dir = null;
+        if (SPILL_DIR != null) {
+            try {
+                dir = Files.createDirectories(Paths.get(SPILL_DIR));
+                // Les fichiers d'une exécution précédente ne sont pas indexés : repartir de zéro,
+                // sans toucher à ce que le répertoire contient d'autre
+                try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "*.chunk")) {
+                    for (Path p : old) {
+                        if (isSpillFile(p)) Files.deleteIfExists(p);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[DIR-Cache] Débordement sur disque désactivé: " + e.getMessage());
+                dir = null;
+            }
+        }
+        this.spillDir = dir;
+    }
+
+    /** Version courante, à relever avant une lecture pour la passer à put(). */
+    synchronized long version() {
+        return version;
+    }
+
+    /** Chunk entier en cache, null s'il n'y est pas. */
+    byte[] get(String chunkId) {
+        Path file;
+        synchronized (this) {
+            byte[] data = memory.get(chunkId);
+            if (data != null) {
+                hits.incrementAndGet();
+                return data;
+            }
+            Spill s = spilled.get(chunkId);
+            if (s == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            file = fileOf(s);
+        }
+
+        byte[] data;
+        long seen = version();
+        try {
+            data = Files.readAllBytes(file);
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return null;   // évincé du disque entre-temps
+        }
+        diskHits.incrementAndGet();
+        put(chunkId, data, seen);
+        return data;
+    }
+
+    /** Garde un chunk lu en entier, sauf s'il a été invalidé depuis seenVersion. */
+    void put(String chunkId, byte[] data, long seenVersion) {
+        if (data.length > CAPACITY / 8) return;   // un seul chunk viderait le cache
+        List<Map.Entry<String, byte[]>> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (version != seenVersion || memory.containsKey(chunkId)) return;
+            memory.put(chunkId, data);
+            memoryBytes += data.length;
+            Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+            while (memoryBytes > CAPACITY && it.hasNext()) {
+                Map.Entry<String, byte[]> eldest = it.next();
+                it.remove();
+                memoryBytes -= eldest.getValue().length;
+                evictions.incrementAndGet();
+                if (spillDir != null && !spilled.containsKey(eldest.getKey())) evicted.add(eldest);
+            }
+        }
+        if (!evicted.isEmpty()) SPILLER.execute(() -> spill(evicted));
+    }
+
+    private void spill(List<Map.Entry<String, byte[]>> chunks) {
+        for (Map.Entry<String, byte[]> e : chunks) {
+            String chunkId = e.getKey();
+            long seen;
+            Spill spill;
+            synchronized (this) {
+                seen = version;
+                spill = new Spill(spillFiles++, e.getValue().length);
+            }
+            try {
+                Files.write(fileOf(spill), e.getValue());
+            } catch (IOException ex) {
+                System.err.println("[DIR-Cache] Écriture sur disque impossible: " + ex.getMessage());
+                deleteSpilled(spill);
+                continue;
+            }
+
+            List<Spill> dropped = new ArrayList<>();
+            synchronized (this) {
+                if (version != seen) {
+                    dropped.add(spill);   // supprimé pendant l'écriture
+                } else {
+                    Spill previous = spilled.put(chunkId, spill);
+                    if (previous != null) {
+                        spilledBytes -= previous.size;
+                        dropped.add(previous);
+                    }
+                    spilledBytes += spill.size;
+                    Iterator<Spill> it = spilled.values().iterator();
+                    while (spilledBytes > SPILL_BYTES && it.hasNext()) {
+                        Spill eldest = it.next();
+                        it.remove();
+                        spilledBytes -= eldest.size;
+                        dropped.add(eldest);
+                    }
+                }
+            }
+            for (Spill s : dropped) deleteSpilled(s);
+        }
+    }
+
+    /** Retire un chunk supprimé des OSD. */
+    void invalidate(String chunkId) {
+        Spill onDisk;
+        synchronized (this) {
+            version++;
+            byte[] data = memory.remove(chunkId);
+            if (data != null) memoryBytes -= data.length;
+            onDisk = spilled.remove(chunkId);
+            if (onDisk != null) spilledBytes -= onDisk.size;
+        }
+        if (onDisk != null) deleteSpilled(onDisk);
+    }
+
+    /** Fichier de débordement de ce cache : "<n>.chunk", fichier ordinaire. */
+    private static boolean isSpillFile(Path p) {
+        String name = p.getFileName().toString();
+        return name.matches("[0-9]+\\.chunk") && Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private Path fileOf(Spill s) {
+        return spillDir.resolve(Long.toString(s.file) + ".chunk");
+    }
+
+    private void deleteSpilled(Spill s) {
+        try {
+            Files.deleteIfExists(fileOf(s));
+        } catch (IOException ignored) {
+        }
+    }
+
+    String getStats() {
+        long h = hits.get() + diskHits.get();
+        long total = h + misses.get();
+        synchronized (this) {
+            return "=== Chunk Cache ===\n"
+                    + "Memory      : " + memory.size() + " chunks, " + memoryBytes + " / " + CAPACITY + " bytes\n"
+                    + "Disk        : " + (spillDir == null ? "off"
+                            : spilled.size() + " chunks, " + spilledBytes + " / " + SPILL_BYTES + " bytes") + "\n"
+                    + "Hits        : " + h + " / " + total + " (" + diskHits.get() + " from disk)"
+                    + (total > 0 ? String.format(" %.1f%%", 100.0 * h / total) : "") + "\n"
+                    + "Evictions   : " + evictions.get() + "\n";
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package dir;
+
+import common.ChunkCodec;
+import common.ChunkSizePolicy;
+import common.ErasureCode;
+import common.OSDConnectionPool;
+import common.SlaveInfo;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moteur de lecture des chunks côté DIR :
+ *
+ *  1. Fenêtre   — WINDOW chunks sont lus en parallèle, livrés dans l'ordre
+ *  2. Répartition — la réplique de départ tourne d'un chunk à l'autre,
+ *                   pour solliciter tous les OSD qui portent le fichier
+ *  3. Hedging   — si une lecture dépasse le p95 des latences récentes,
+ *                 une requête doublon part vers une autre réplique ;
+ *                 la première réponse gagne, la perdante est abandonnée
+ *
+ * Les lectures passent par les connexions persistantes d'OSDConnectionPool :
+ * toutes les lectures en vol vers un OSD partagent quelques sockets.
+ *
+ * Chunks codés (ErasureCode) : les k fragments de données sont lus en parallèle ;
+ * un fragment en échec ou trop lent est remplacé par un fragment de parité, et le
+ * chunk est alors reconstruit (lecture dégradée).
+ *
+ * Les chunks compressés sont décompressés au fil de la réception (ChunkCodec).
+ * Une portion d'un chunk compressé impose de lire le chunk entier, mais seuls
+ * les octets utiles sont conservés.
+ *
+ * Les chunks lus en entier passent par le {@link ChunkCache} : un chunk en cache
+ * ne coûte aucun aller-retour vers les OSD, et les téléchargements simultanés
+ * d'un même chunk absent n'en déclenchent qu'une lecture. Une portion d'un chunk
+ * en cache y est découpée ; une portion d'un chunk compressé, qui impose de toute
+ * façon de lire le chunk entier, le charge en cache.
+ *
+ * La mémoire par téléchargement reste bornée à WINDOW chunks, et à
+ * READ_AHEAD_BYTES quand les chunks sont gros.
+ */
+class ChunkReader {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final int    WINDOW            = 4;      // chunks lus en avance
+    static final long   READ_AHEAD_BYTES  = 128L << 20;
+    static final double HEDGE_PERCENTILE  = 0.95;
+    static final long   HEDGE_MIN_MS      = 10;     // plancher du délai de hedging
+    static final long   HEDGE_DEFAULT_MS  = 200;    // tant qu'on manque d'échantillons
+    static final int    READ_TIMEOUT_MS   = 30_000;
+
+    // Orchestration d'un chunk (attente, hedging) et tentatives réseau : pools séparés
+    private static final ExecutorService ORCHESTRATORS = daemonPool(16, "chunk-reader");
+    private static final ExecutorService ATTEMPTS      = daemonPool(32, "chunk-fetch");
+
+    private final Map<String, SlaveInfo> osds;
+    private final Map<String, OSDHealth> health;
+    private final ChunkCache cache;
+    private final LatencyWindow latencies = new LatencyWindow(256);
+    // Lectures de chunks entiers en cours, partagées par les téléchargements simultanés
+    private final Map<String, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicLong fetches   = new AtomicLong();
+    private final AtomicLong hedges    = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong failures  = new AtomicLong();
+    private final AtomicLong degraded  = new AtomicLong();
+
+    /** Reçoit les chunks dans l'ordre du fichier. */
+    interface ChunkSink {
+        void accept(byte[] data) throws IOException;
+    }
+
+    /** Portion (non compressée) d'un chunk à lire ; length < 0 = chunk entier. */
+    static class Slice {
+        final String chunkId;
+        final String codec;
+        final int    offset;
+        final int    length;
+
+        Slice(String chunkId, String codec, int offset, int length) {
+            this.chunkId = chunkId;
+            this.codec   = codec;
+            this.offset  = offset;
+            this.length  = length;
+        }
+
+        static Slice whole(String chunkId, String codec) {
+            return new Slice(chunkId, codec, 0, -1);
+        }
+
+        boolean compressed() {
+            return !ChunkCodec.NONE.equals(codec);
+        }
+    }
+
+    ChunkReader(Map<String, SlaveInfo> osds, Map<String, OSDHealth> health, ChunkCache cache) {
+        this.osds   = osds;
+        this.health = health;
+        this.cache  = cache;
+    }
+
+    /**
+     * Lit les portions de chunks et les passe au sink dans l'ordre.
+     *
+     * @return false si un chunk n'a pu être lu sur aucune réplique
+     */
+    boolean read(List<Slice> slices, Map<String, List<String>> locations, int chunkSize, ChunkSink sink)
+            throws IOException {
+        int depth = ChunkSizePolicy.fit(READ_AHEAD_BYTES, chunkSize, WINDOW);
+        Deque<Future<byte[]>> window = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < slices.size() || !window.isEmpty()) {
+                while (window.size() < depth && next < slices.size()) {
+                    Slice slice = slices.get(next);
+                    List<String> locs = locations.get(slice.chunkId);
+                    byte[] cached = cache.get(slice.chunkId);
+                    if (cached != null) {
+                        window.add(CompletableFuture.completedFuture(cut(slice, cached)));
+                    } else if (slice.length < 0 || slice.compressed()) {
+                        window.add(load(slice.chunkId, slice.codec, locs, next).thenApply(d -> cut(slice, d)));
+                    } else {
+                        window.add(submit(slice, locs, next));
+                    }
+                    next++;
+                }
+
+                byte[] data = window.poll().get();
+                if (data == null) return false;
+                sink.accept(data);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Lecture interrompue");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<byte[]> f : window) f.cancel(true);
+        }
+    }
+
+    /** Lecture d'un chunk ou d'une portion, sur les répliques ou les fragments. */
+    private Future<byte[]> submit(Slice slice, List<String> locs, int index) {
+        ErasureCode ec = ErasureCode.ofChunk(slice.chunkId);
+        if (ec == null) {
+            List<SlaveInfo> replicas = orderedReplicas(locs, index);
+            return ORCHESTRATORS.submit(() -> fetch(slice, replicas));
+        }
+        return ORCHESTRATORS.submit(() -> fetchCoded(slice, ec, locs));
+    }
+
+    /**
+     * Chunk entier, lu une seule fois pour tous les téléchargements qui le
+     * demandent en même temps, puis gardé en cache. null s'il est illisible.
+     */
+    private CompletableFuture<byte[]> load(String chunkId, String codec, List<String> locs, int index) {
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> shared = loading.putIfAbsent(chunkId, mine);
+        if (shared != null) return shared;
+
+        long version = cache.version();
+        Slice whole = Slice.whole(chunkId, codec);
+        ErasureCode ec = ErasureCode.ofChunk(chunkId);
+        List<SlaveInfo> replicas = ec == null ? orderedReplicas(locs, index) : null;
+        ORCHESTRATORS.execute(() -> {
+            try {
+                byte[] data = ec == null ? fetch(whole, replicas) : fetchCoded(whole, ec, locs);
+                if (data != null) cache.put(chunkId, data, version);
+                loading.remove(chunkId, mine);
+                mine.complete(data);
+            } catch (Throwable e) {
+                loading.remove(chunkId, mine);
+                mine.completeExceptionally(e);
+            }
+        });
+        return mine;
+    }
+
+    /** Portion demandée d'un chunk entier (non compressé). */
+    private static byte[] cut(Slice slice, byte[] chunk) {
+        if (chunk == null) return null;
+        if (slice.length < 0 && slice.offset == 0) return chunk;
+        int from = Math.min(slice.offset, chunk.length);
+        int to = slice.length < 0 ? chunk.length : Math.min(chunk.length, from + slice.length);
+        return Arrays.copyOfRange(chunk, from, to);
+    }
+
+    /**
+     * Répliques vivantes, en commençant à un rang qui dépend de la position du chunk.
+     */
+    private List<SlaveInfo> orderedReplicas(List<String> locs, int index) {
+        List<SlaveInfo> alive = new ArrayList<>();
+        if (locs == null) return alive;
+        synchronized (locs) {
+            for (String id : locs) {
+                SlaveInfo s = osds.get(id);
+                OSDHealth h = health.get(id);
+                if (s != null && (h == null || h.isAlive())) alive.add(s);
+            }
+        }
+        if (!alive.isEmpty()) Collections.rotate(alive, -(index % alive.size()));
+        return alive;
+    }
+
+    /**
+     * Lit un chunk : une tentative sur la première réplique, un doublon sur la
+     * suivante si la réponse tarde, et bascule immédiate en cas d'échec.
+     */
+    private byte[] fetch(Slice slice, List<SlaveInfo> replicas) throws InterruptedException {
+        fetches.incrementAndGet();
+        BlockingQueue<Attempt> done = new LinkedBlockingQueue<>();
+        List<Attempt> launched = new ArrayList<>();
+        int next = 0;
+        int running = 0;
+
+        if (replicas.isEmpty()) {
+            failures.incrementAndGet();
+            return null;
+        }
+        launched.add(launch(replicas.get(next++), slice, done));
+        running++;
+
+        try {
+            while (true) {
+                Attempt a = next < replicas.size()
+                        ? done.poll(hedgeDelayMs(), TimeUnit.MILLISECONDS)
+                        : done.take();
+
+                if (a == null) {
+                    // Trop lent : doublon vers la réplique suivante
+                    hedges.incrementAndGet();
+                    launched.add(launch(replicas.get(next++), slice, done));
+                    running++;
+                    continue;
+                }
+
+                running--;
+                if (a.data != null) {
+                    latencies.record(a.elapsedMs);
+                    if (a != launched.get(0)) hedgeWins.incrementAndGet();
+                    return a.data;
+                }
+
+                System.out.println("[ChunkReader] Chunk fetch failed from " + a.osd.id + ": " + a.error);
+                if (next < replicas.size()) {
+                    launched.add(launch(replicas.get(next++), slice, done));
+                    running++;
+                } else if (running == 0) {
+                    failures.incrementAndGet();
+                    return null;
+                }
+            }
+        } finally {
+            for (Attempt a : launched) a.cancel();
+        }
+    }
+
+    /**
+     * Lit un chunk codé : les fragments de données d'abord (pas de décodage s'ils
+     * répondent tous), un fragment de parité à la place de chaque fragment en échec
+     * ou trop lent, puis reconstruction.
+     */
+    private byte[] fetchCoded(Slice slice, ErasureCode ec, List<String> locs) throws InterruptedException {
+        fetches.incrementAndGet();
+
+        // Emplacements lisibles, dans l'ordre : données puis parité
+        List<Integer> order = new ArrayList<>();
+        List<SlaveInfo> sources = new ArrayList<>();
+        if (locs != null) {
+            synchronized (locs) {
+                for (int i = 0; i < locs.size(); i++) {
+                    SlaveInfo s = osds.get(locs.get(i));
+                    OSDHealth h = health.get(locs.get(i));
+                    if (s != null && (h == null || h.isAlive())) {
+                        order.add(i);
+                        sources.add(s);
+                    }
+                }
+            }
+        }
+        if (order.size() < ec.dataShards) {
+            failures.incrementAndGet();
+            return null;
+        }
+
+        byte[][] fragments = new byte[ec.totalShards()][];
+        Map<Attempt, Integer> index = new HashMap<>();
+        BlockingQueue<Attempt> done = new LinkedBlockingQueue<>();
+        int next = 0;
+        int running = 0;
+        int got = 0;
+
+        try {
+            for (; next < ec.dataShards; next++, running++) {
+                index.put(launchFragment(slice, order.get(next), sources.get(next), done), order.get(next));
+            }
+
+            while (got < ec.dataShards) {
+                Attempt a = next < order.size()
+                        ? done.poll(hedgeDelayMs(), TimeUnit.MILLISECONDS)
+                        : done.take();
+
+                if (a == null) {
+                    // Fragment trop lent : un fragment de parité en renfort
+                    hedges.incrementAndGet();
+                    index.put(launchFragment(slice, order.get(next), sources.get(next), done), order.get(next));
+                    next++;
+                    running++;
+                    continue;
+                }
+
+                running--;
+                if (a.data != null) {
+                    latencies.record(a.elapsedMs);
+                    fragments[index.get(a)] = a.data;
+                    got++;
+                    continue;
+                }
+
+                System.out.println("[ChunkReader] Fragment fetch failed from " + a.osd.id + ": " + a.error);
+                if (next < order.size()) {
+                    index.put(launchFragment(slice, order.get(next), sources.get(next), done), order.get(next));
+                    next++;
+                    running++;
+                } else if (got + running < ec.dataShards) {
+                    failures.incrementAndGet();
+                    return null;
+                }
+            }
+        } finally {
+            for (Attempt a : index.keySet()) a.cancel();
+        }
+
+        for (int i = 0; i < ec.dataShards; i++) {
+            if (fragments[i] == null) {
+                degraded.incrementAndGet();
+                break;
+            }
+        }
+        try {
+            return extract(slice, ec.decode(fragments));
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[ChunkReader] Decode failed for " + slice.chunkId + ": " + e.getMessage());
+            failures.incrementAndGet();
+            return null;
+        }
+    }
+
+    private Attempt launchFragment(Slice slice, int fragment, SlaveInfo osd, BlockingQueue<Attempt> done) {
+        return launch(osd, Slice.whole(ErasureCode.fragmentId(slice.chunkId, fragment), ChunkCodec.NONE), done);
+    }
+
+    /** Portion utile d'un chunk reconstruit, décompressée si besoin. */
+    private static byte[] extract(Slice slice, byte[] stored) throws IOException {
+        InputStream in = ChunkCodec.decoder(slice.codec, new ByteArrayInputStream(stored));
+        in.skipNBytes(slice.offset);
+        return slice.length < 0 ? in.readAllBytes() : in.readNBytes(slice.length);
+    }
+
+    private Attempt launch(SlaveInfo osd, Slice slice, BlockingQueue<Attempt> done) {
+        Attempt a = new Attempt(osd, slice);
+        ATTEMPTS.execute(() -> {
+            a.run();
+            done.offer(a);
+        });
+        return a;
+    }
+
+    private long hedgeDelayMs() {
+        long p = latencies.percentile(HEDGE_PERCENTILE);
+        return p < 0 ? HEDGE_DEFAULT_MS : Math.max(HEDGE_MIN_MS, p);
+    }
+
+    String getStats() {
+        return "=== Read Engine ===\n"
+                + "Fetches     : " + fetches.get() + "\n"
+                + "Hedged      : " + hedges.get() + " (won " + hedgeWins.get() + ")\n"
+                + "Degraded    : " + degraded.get() + "\n"
+                + "Failed      : " + failures.get() + "\n"
+                + "Hedge delay : " + hedgeDelayMs() + " ms (p" + (int) (HEDGE_PERCENTILE * 100) + ")\n";
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  HELPERS
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Une lecture GET_CHUNK(_RANGE) vers un OSD ; cancel() abandonne la requête. */
+    private static class Attempt {
+        final SlaveInfo osd;
+        final Slice     slice;
+        private volatile CompletableFuture<DataInputStream> response;
+        private volatile boolean cancelled;
+        byte[] data;
+        String error;
+        long   elapsedMs;
+
+        Attempt(SlaveInfo osd, Slice slice) {
+            this.osd   = osd;
+            this.slice = slice;
+        }
+
+        void run() {
+            long start = System.nanoTime();
+            if (cancelled) return;
+            try {
+                response = OSDConnectionPool.send(osd, out -> {
+                    if (slice.length < 0 || slice.compressed()) {
+                        out.writeUTF("GET_CHUNK");
+                        out.writeUTF(slice.chunkId);
+                    } else {
+                        out.writeUTF("GET_CHUNK_RANGE");
+                        out.writeUTF(slice.chunkId);
+                        out.writeInt(slice.offset);
+                        out.writeInt(slice.length);
+                    }
+                });
+                if (cancelled) response.cancel(true);
+                // Fermée après lecture : une grosse réponse est lue sur la socket (OSDConnectionPool)
+                try (DataInputStream in = response.get(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    String status = in.readUTF();
+                    if (!"OK".equals(status)) {
+                        error = status;
+                        return;
+                    }
+                    int size = in.readInt();
+                    byte[] buf;
+                    if (slice.compressed()) {
+                        // Décompression directe depuis la réponse, sans tampon intermédiaire
+                        InputStream raw = ChunkCodec.decoder(slice.codec, in);
+                        raw.skipNBytes(slice.offset);
+                        buf = slice.length < 0 ? raw.readAllBytes() : raw.readNBytes(slice.length);
+                    } else {
+                        buf = new byte[size];
+                        in.readFully(buf);
+                    }
+                    elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                    data = buf;
+                }
+            } catch (IOException | ExecutionException | TimeoutException | CancellationException e) {
+                error = cancelled ? "cancelled" : String.valueOf(e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = "interrupted";
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            CompletableFuture<DataInputStream> r = response;
+            if (r != null) r.cancel(true);
+        }
+    }
+
+    /** Fenêtre glissante des dernières latences de lecture. */
+    private static class LatencyWindow {
+        private final long[] samples;
+        private int count = 0;
+        private int pos   = 0;
+
+        LatencyWindow(int size) {
+            samples = new long[size];
+        }
+
+        synchronized void record(long ms) {
+            samples[pos] = ms;
+            pos = (pos + 1) % samples.length;
+            if (count < samples.length) count++;
+        }
+
+        /** -1 tant que l'échantillon est trop petit pour être significatif. */
+        synchronized long percentile(double p) {
+            if (count < 20) return -1;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) (p * count))];
+        }
+    }
+
+    private static ExecutorService daemonPool(int size, String name) {
+        return Executors.newFixedThreadPool(size, r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
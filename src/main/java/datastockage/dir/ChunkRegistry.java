@@ -0,0 +1,312 @@
+package dir;
+
+import common.ChunkCodec;
+import common.ErasureCode;
+import common.FileMeta;
+
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Index des chunks du cluster (adressage par contenu) :
+ *
+ *   chunkId → nombre de références + liste des répliques + codec de stockage
+ *
+ * Un même chunk peut être référencé par plusieurs fichiers (ou plusieurs fois
+ * par le même fichier). Sa liste de répliques est partagée par tous les FileMeta
+ * qui le référencent : une réparation est donc vue par tous les fichiers.
+ * Le chunk n'est supprimé des OSD que lorsque sa dernière référence disparaît.
+ *
+ * Le codec est celui de la première écriture : un fichier qui réutilise le
+ * chunk hérite de ce codec, quel que soit celui qu'il avait déclaré.
+ *
+ * Les répliques sont des ReplicaSet (numéros d'OSD dans un int[]) et chaque
+ * fichier publié passe sous forme compacte (FileMeta.compact) : ids encodés,
+ * une référence vers la liste partagée et un octet de codec par chunk.
+ *
+ * Un upload réserve ses chunks (reserve) avant de les écrire ou de s'appuyer
+ * sur une copie existante, et les libère (release) une fois le fichier publié
+ * ou abandonné : un chunk réservé n'est jamais supprimé, même si sa dernière
+ * référence disparaît entre-temps. Un chunk orphelin reste « en suppression »
+ * jusqu'à l'ack des OSD (deleted) ; une réservation attend cette fin, pour
+ * qu'aucune nouvelle copie ne soit écrite puis effacée par l'ancienne suppression.
+ *
+ * L'index est sauvegardé tel quel dans l'image du MetaStore et rechargé au
+ * démarrage (load) : un fichier chargé n'a pas besoin de sa liste de chunks
+ * pour compter ses références, et la retrouve ici au premier accès (attach).
+ */
+class ChunkRegistry {
+
+    private static class Entry {
+        int refs = 0;
+        int pins = 0;                 // réservations d'uploads en cours, jamais persistées
+        final List<String> locations;
+        String codec;                 // null tant que le chunk n'est que réservé
+
+        Entry(List<String> locations, String codec) {
+            this.locations = locations;
+            this.codec = codec;
+        }
+    }
+
+    /** État d'un chunk, pour l'image du MetaStore et le chargement. */
+    static final class ChunkState {
+        final String       chunkId;
+        final int          refs;
+        final String       codec;
+        final List<String> locations;
+
+        ChunkState(String chunkId, int refs, String codec, List<String> locations) {
+            this.chunkId = chunkId;
+            this.refs = refs;
+            this.codec = codec;
+            this.locations = locations;
+        }
+    }
+
+    private final Map<String, Entry> chunks = new HashMap<>();
+    private final Map<String, CompletableFuture<Void>> deleting = new HashMap<>();
+    private long dedupHits = 0;
+
+    /**
+     * Ajoute une référence pour chaque chunk du fichier et remplace ses listes
+     * de répliques par la liste partagée (fusionnée si besoin) ; aligne le codec
+     * déclaré sur celui du chunk réellement stocké. Le fichier passe sous forme
+     * compacte.
+     */
+    synchronized void register(FileMeta meta) {
+        List<String> chunkIds = meta.chunkIds();
+        List<List<String>> replicas = new ArrayList<>(chunkIds.size());
+        byte[] codecs = new byte[chunkIds.size()];
+        for (int i = 0; i < chunkIds.size(); i++) {
+            String chunkId = chunkIds.get(i);
+            List<String> locs = meta.chunkLocations().get(chunkId);
+            Entry e = chunks.get(chunkId);
+            if (e == null) {
+                e = new Entry(new ReplicaSet(locs != null ? locs : List.of()), meta.codecOf(chunkId));
+                chunks.put(chunkId, e);
+            } else if (locs != null && locs != e.locations) {
+                synchronized (e.locations) {
+                    if (ErasureCode.ofChunk(chunkId) != null) {
+                        // Fragments : fusion emplacement par emplacement
+                        while (e.locations.size() < locs.size()) e.locations.add(ErasureCode.LOST);
+                        for (int s = 0; s < locs.size() && s < e.locations.size(); s++) {
+                            if (ErasureCode.LOST.equals(e.locations.get(s))) e.locations.set(s, locs.get(s));
+                        }
+                    } else {
+                        for (String id : locs) {
+                            if (!e.locations.contains(id)) e.locations.add(id);
+                        }
+                    }
+                }
+            }
+            if (e.codec == null) e.codec = meta.codecOf(chunkId);   // réservé : premier fichier publié
+            e.refs++;
+            replicas.add(e.locations);
+            codecs[i] = ChunkCodec.id(e.codec);
+        }
+        meta.compact(chunkIds, replicas, codecs);
+    }
+
+    /**
+     * Retire les références du fichier.
+     *
+     * @return les chunks qui ne sont plus ni référencés ni réservés (à supprimer
+     *         des OSD, puis à signaler par deleted), avec leurs répliques
+     */
+    synchronized Map<String, List<String>> unregister(FileMeta meta) {
+        Map<String, List<String>> orphans = new LinkedHashMap<>();
+        for (String chunkId : meta.chunkIds()) {
+            Entry e = chunks.get(chunkId);
+            if (e == null) continue;
+            e.refs--;
+            orphan(chunkId, e, orphans);
+        }
+        return orphans;
+    }
+
+    /**
+     * Réserve un chunk pour un upload : il ne sera pas supprimé avant release.
+     * Attend d'abord la fin d'une suppression en cours du même chunk.
+     *
+     * @return ses répliques s'il est déjà stocké (upload évité), null sinon
+     */
+    List<String> reserve(String chunkId) throws InterruptedIOException {
+        while (true) {
+            CompletableFuture<Void> pending;
+            synchronized (this) {
+                pending = deleting.get(chunkId);
+                if (pending == null) {
+                    Entry e = chunks.computeIfAbsent(chunkId, id -> new Entry(new ReplicaSet(List.of()), null));
+                    e.pins++;
+                    List<String> locs = locations(chunkId);
+                    if (locs != null) dedupHits++;
+                    return locs;
+                }
+            }
+            try {
+                pending.get();
+            } catch (ExecutionException ignored) {
+                // deleted() ne complète jamais en erreur
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Réservation interrompue: " + chunkId);
+            }
+        }
+    }
+
+    /**
+     * Libère des réservations (une par appel à reserve).
+     *
+     * @return les chunks devenus orphelins, comme unregister
+     */
+    synchronized Map<String, List<String>> release(Collection<String> chunkIds) {
+        Map<String, List<String>> orphans = new LinkedHashMap<>();
+        for (String chunkId : chunkIds) {
+            Entry e = chunks.get(chunkId);
+            if (e == null) continue;
+            e.pins--;
+            orphan(chunkId, e, orphans);
+        }
+        return orphans;
+    }
+
+    /** Retire un chunk ni référencé ni réservé ; s'il a des répliques, il passe en suppression. */
+    private void orphan(String chunkId, Entry e, Map<String, List<String>> orphans) {
+        if (e.refs > 0 || e.pins > 0) return;
+        chunks.remove(chunkId);
+        if (e.locations.isEmpty()) return;   // réservé puis abandonné : rien d'enregistré
+        orphans.put(chunkId, e.locations);
+        deleting.putIfAbsent(chunkId, new CompletableFuture<>());
+    }
+
+    /** Fin de la suppression de chunks orphelins : les réservations en attente reprennent. */
+    void deleted(Collection<String> chunkIds) {
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        synchronized (this) {
+            for (String chunkId : chunkIds) {
+                CompletableFuture<Void> f = deleting.remove(chunkId);
+                if (f != null) done.add(f);
+            }
+        }
+        done.forEach(f -> f.complete(null));
+    }
+
+    /** Ajoute des chunks lus dans une image (démarrage). */
+    synchronized void load(List<ChunkState> states) {
+        for (ChunkState s : states) {
+            Entry e = new Entry(new ReplicaSet(s.locations), s.codec);
+            e.refs = s.refs;
+            chunks.put(s.chunkId, e);
+        }
+    }
+
+    /** Copie de l'index, pour l'image du MetaStore. */
+    synchronized List<ChunkState> dump() {
+        List<ChunkState> states = new ArrayList<>(chunks.size());
+        for (Map.Entry<String, Entry> c : chunks.entrySet()) {
+            Entry e = c.getValue();
+            if (e.refs <= 0) continue;   // seulement réservé
+            List<String> locs;
+            synchronized (e.locations) {
+                locs = new ArrayList<>(e.locations);
+            }
+            states.add(new ChunkState(c.getKey(), e.refs, e.codec, locs));
+        }
+        return states;
+    }
+
+    /**
+     * Donne au fichier ses listes de répliques partagées et ses codecs, sous
+     * forme compacte, sans compter de référence : celles du fichier le sont
+     * déjà (chargé d'une image).
+     */
+    synchronized void attach(FileMeta meta, List<String> chunkIds) {
+        List<List<String>> replicas = new ArrayList<>(chunkIds.size());
+        byte[] codecs = new byte[chunkIds.size()];
+        for (int i = 0; i < chunkIds.size(); i++) {
+            Entry e = chunks.get(chunkIds.get(i));
+            replicas.add(e == null ? null : e.locations);
+            if (e != null) codecs[i] = ChunkCodec.id(e.codec);
+        }
+        meta.compact(chunkIds, replicas, codecs);
+    }
+
+    /** Nouvelle réplique d'un chunk (rejeu du journal). */
+    synchronized void addReplica(String chunkId, String osdId) {
+        Entry e = chunks.get(chunkId);
+        if (e == null) return;
+        synchronized (e.locations) {
+            if (!e.locations.contains(osdId)) e.locations.add(osdId);
+        }
+    }
+
+    /** Fragment codé replacé (rejeu du journal). */
+    synchronized void setSlot(String chunkId, int slot, String osdId) {
+        Entry e = chunks.get(chunkId);
+        if (e == null) return;
+        synchronized (e.locations) {
+            while (e.locations.size() <= slot) e.locations.add(ErasureCode.LOST);
+            e.locations.set(slot, osdId);
+        }
+    }
+
+    /** Liste de répliques partagée d'un chunk référencé, null s'il ne l'est plus. */
+    synchronized List<String> replicas(String chunkId) {
+        Entry e = chunks.get(chunkId);
+        return e == null || e.refs <= 0 ? null : e.locations;
+    }
+
+    /** Parcourt les chunks référencés et leurs listes de répliques (copie des clés, sans verrou ensuite). */
+    void forEachChunk(BiConsumer<String, List<String>> action) {
+        Map<String, List<String>> copy;
+        synchronized (this) {
+            copy = new HashMap<>(chunks.size());
+            for (Map.Entry<String, Entry> c : chunks.entrySet()) {
+                if (c.getValue().refs > 0) copy.put(c.getKey(), c.getValue().locations);
+            }
+        }
+        copy.forEach(action);
+    }
+
+    /** Répliques connues d'un chunk déjà stocké, null s'il est inconnu du cluster. */
+    synchronized List<String> locations(String chunkId) {
+        Entry e = chunks.get(chunkId);
+        if (e == null) return null;
+        synchronized (e.locations) {
+            for (String id : e.locations) {
+                if (!ErasureCode.LOST.equals(id)) return e.locations;
+            }
+        }
+        return null;
+    }
+
+    /** Codec sous lequel un chunk connu est stocké, null s'il est inconnu. */
+    synchronized String codec(String chunkId) {
+        Entry e = chunks.get(chunkId);
+        return e == null ? null : e.codec;
+    }
+
+    /** Référencé par un fichier ou réservé par un upload. */
+    synchronized boolean isReferenced(String chunkId) {
+        return chunks.containsKey(chunkId);
+    }
+
+    synchronized String getStats() {
+        long refs = 0;
+        long pins = 0;
+        for (Entry e : chunks.values()) {
+            refs += e.refs;
+            pins += e.pins;
+        }
+        return "=== Dedup ===\n"
+                + "Unique chunks : " + chunks.size() + "\n"
+                + "References    : " + refs + "\n"
+                + "Reserved      : " + pins + " (" + deleting.size() + " being deleted)\n"
+                + "Dedup hits    : " + dedupHits + "\n"
+                + "OSD ids       : " + OsdIds.size() + " interned\n";
+    }
+}
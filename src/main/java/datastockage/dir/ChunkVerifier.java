@@ -0,0 +1,168 @@
+package dir;
+
+import common.ChunkCodec;
+import common.ErasureCode;
+import common.OSDClient;
+import common.OSDConnectionPool;
+import common.SlaveInfo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contrôle des chunks d'une écriture directe, au COMMIT, avant qu'ils n'entrent
+ * dans le ChunkRegistry et ne servent à la déduplication.
+ *
+ * Le client déclare les répliques qu'il a écrites ; rien ne garantit qu'elles
+ * existent ni qu'elles sont sous le codec déclaré. Chaque OSD déclaré répond à
+ * un CHECK_CHUNK, sans relire le chunk : l'OSD n'accepte à l'écriture qu'un
+ * contenu correspondant à son id (ContentCheck) et retient sous quel codec.
+ *
+ *   répliqué  l'OSD doit confirmer le codec déclaré ; les autres répliques sont écartées
+ *   codé      un fragment ne se vérifie pas seul : il doit être présent et de la
+ *             taille des autres fragments du chunk, sinon il est perdu
+ *
+ * Les contrôles de tous les chunks d'un COMMIT partent ensemble (start), puis
+ * sont attendus un par un (finish).
+ */
+final class ChunkVerifier {
+
+    private final Map<String, SlaveInfo> osds;
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong dropped  = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    ChunkVerifier(Map<String, SlaveInfo> osds) {
+        this.osds = osds;
+    }
+
+    /** Contrôle en cours d'un chunk, lancé par start(). */
+    static final class Pending {
+        final ErasureCode ec;
+        final String codec;
+        final List<String> locs;
+        final List<String> claimed;
+        final List<CompletableFuture<String>> statuses = new ArrayList<>();
+
+        Pending(ErasureCode ec, String codec, List<String> locs, List<String> claimed) {
+            this.ec = ec;
+            this.codec = codec;
+            this.locs = locs;
+            this.claimed = claimed;
+        }
+    }
+
+    /** Envoie un CHECK_CHUNK à chaque emplacement déclaré de locs (fragments LOST exclus). */
+    Pending start(String chunkId, ErasureCode ec, String codec, List<String> locs) {
+        List<String> claimed;
+        synchronized (locs) {
+            claimed = new ArrayList<>(locs);
+        }
+        Pending p = new Pending(ec, codec, locs, claimed);
+        for (int i = 0; i < claimed.size(); i++) {
+            SlaveInfo osd = osds.get(claimed.get(i));
+            String objectId = ec == null ? chunkId : ErasureCode.fragmentId(chunkId, i);
+            p.statuses.add(osd == null || ErasureCode.LOST.equals(claimed.get(i))
+                    ? CompletableFuture.completedFuture("NOT_FOUND")
+                    : OSDClient.checkAsync(osd, objectId));
+        }
+        return p;
+    }
+
+    /**
+     * Retire de locs ce que les OSD n'ont pas confirmé : répliques écartées,
+     * fragments passés à LOST.
+     */
+    void finish(Pending p) throws IOException {
+        List<String[]> answers = new ArrayList<>();   // {"OK", codec, taille} ou null
+        for (CompletableFuture<String> f : p.statuses) {
+            String status = await(f);
+            String[] parts = status == null ? null : status.split(" ");
+            answers.add(parts != null && parts.length == 3 && "OK".equals(parts[0]) ? parts : null);
+        }
+        if (p.ec == null) {
+            checkReplicas(p, answers);
+        } else {
+            checkFragments(p, answers);
+        }
+    }
+
+    /** Garde les répliques dont l'OSD confirme le contenu sous le codec déclaré. */
+    private void checkReplicas(Pending p, List<String[]> answers) {
+        String expected = p.codec == null ? ChunkCodec.NONE : p.codec;
+        Set<String> confirmed = new HashSet<>();
+        for (int i = 0; i < p.claimed.size(); i++) {
+            String[] a = answers.get(i);
+            if (a != null && expected.equals(a[1])) confirmed.add(p.claimed.get(i));
+        }
+        synchronized (p.locs) {
+            int before = p.locs.size();
+            p.locs.removeIf(id -> !confirmed.contains(id));
+            dropped.addAndGet(before - p.locs.size());
+        }
+        if (!confirmed.isEmpty()) verified.incrementAndGet();
+    }
+
+    /** Fragments présents, de la taille la plus fréquente ; les autres passent à LOST. */
+    private void checkFragments(Pending p, List<String[]> answers) {
+        long[] sizes = new long[answers.size()];
+        Map<Long, Integer> counts = new HashMap<>();
+        for (int i = 0; i < sizes.length; i++) {
+            String[] a = answers.get(i);
+            sizes[i] = a == null ? -1 : parseSize(a[2]);
+            if (sizes[i] > 0) counts.merge(sizes[i], 1, Integer::sum);
+        }
+        long shardSize = counts.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(-1L);
+
+        int lost = 0;
+        int present = 0;
+        synchronized (p.locs) {
+            for (int i = 0; i < p.locs.size() && i < sizes.length; i++) {
+                if (shardSize > 0 && sizes[i] == shardSize) {
+                    present++;
+                    continue;
+                }
+                if (!ErasureCode.LOST.equals(p.locs.get(i))) lost++;
+                p.locs.set(i, ErasureCode.LOST);
+            }
+        }
+        dropped.addAndGet(lost);
+        if (present >= p.ec.dataShards) {
+            verified.incrementAndGet();
+        } else {
+            rejected.incrementAndGet();
+        }
+    }
+
+    private static long parseSize(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Réponse d'un OSD, null s'il n'a pas répondu. */
+    private static String await(CompletableFuture<String> f) throws IOException {
+        try {
+            return f.get(OSDConnectionPool.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Vérification interrompue");
+        }
+    }
+
+    String getStats() {
+        return "=== Commit Checks ===\n"
+                + "Verified    : " + verified.get() + " chunks\n"
+                + "Dropped     : " + dropped.get() + " replicas/fragments\n"
+                + "Refused     : " + rejected.get() + " chunks\n";
+    }
+}
@@ -0,0 +1,265 @@
+package dir;
+
+import common.DirProtocol;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Acceptation et répartition des connexions du DIR.
+ *
+ * Un seul thread, sur un Selector NIO, accepte les connexions et lit leur
+ * première commande sans bloquer : un client lent ou muet n'occupe aucun thread
+ * et il est fermé au bout de COMMAND_TIMEOUT_MS. Une fois la commande connue,
+ * la socket repasse en mode bloquant et part sur l'une des trois voies :
+ *
+ *   - contrôle (HEARTBEAT, STATS, HEALTH, CLUSTER) : petit pool dédié, jamais
+ *     derrière les transferts, pour que la santé du cluster reste à jour ;
+ *   - sessions v2 (PROTO) : connexions longues d'un client, sur leur propre
+ *     pool ; fermées après SESSION_IDLE_MS sans requête, pour qu'un client
+ *     inactif ne garde pas son thread ;
+ *   - données (tout le reste) : pool borné en threads et en file d'attente.
+ *     Au-delà, la connexion est refusée (fermée) plutôt que d'empiler les threads.
+ *
+ * Java 17 n'a pas de threads virtuels : les trois voies sont des pools de
+ * threads classiques, dimensionnables par propriétés système.
+ */
+class ConnectionDispatcher {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final int  CONTROL_THREADS    = Integer.getInteger("dir.controlThreads", 4);
+    static final int  DATA_THREADS       = Integer.getInteger("dir.dataThreads", 64);
+    static final int  DATA_QUEUE         = Integer.getInteger("dir.dataQueue", 256);
+    static final int  SESSION_THREADS    = Integer.getInteger("dir.sessionThreads", 16);
+    static final int  SESSION_QUEUE      = Integer.getInteger("dir.sessionQueue", 64);
+    static final int  SESSION_IDLE_MS    = 60_000;
+    static final long COMMAND_TIMEOUT_MS = 10_000;
+    static final int  MAX_COMMAND_BYTES  = 1_024;
+
+    static final Set<String> CONTROL_COMMANDS = Set.of("HEARTBEAT", "STATS", "HEALTH", "CLUSTER");
+
+    /** Traite une connexion dont la première commande a déjà été lue. */
+    interface Handler {
+        void handle(Socket socket, String command);
+    }
+
+    private final int     port;
+    private final Handler handler;
+    private final ExecutorService    control;
+    private final ThreadPoolExecutor data;
+    private final ThreadPoolExecutor sessions;
+    private volatile boolean  running = true;
+    private volatile Selector selector;
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicLong controlServed = new AtomicLong();
+    private final AtomicLong dataServed    = new AtomicLong();
+    private final AtomicLong sessionServed = new AtomicLong();
+    private final AtomicLong rejected      = new AtomicLong();
+    private final AtomicLong timedOut      = new AtomicLong();
+
+    ConnectionDispatcher(int port, Handler handler) {
+        this.port = port;
+        this.handler = handler;
+        this.control = Executors.newFixedThreadPool(CONTROL_THREADS, daemon("dir-control"));
+        this.data = bounded(DATA_THREADS, DATA_QUEUE, "dir-data");
+        this.sessions = bounded(SESSION_THREADS, SESSION_QUEUE, "dir-session");
+    }
+
+    /** Pool borné en threads et en file ; plein, il refuse au lieu d'empiler. */
+    private static ThreadPoolExecutor bounded(int threads, int queue, String name) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), daemon(name), (task, p) -> {
+                    throw new RejectedExecutionException();
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Boucle d'acceptation. Lève BindException si le port est pris ; rend la main
+     * après {@link #stop()}.
+     */
+    void serve() throws IOException {
+        try (Selector sel = Selector.open();
+             ServerSocketChannel server = ServerSocketChannel.open()) {
+            selector = sel;
+            server.bind(new InetSocketAddress("0.0.0.0", port), 50);
+            server.configureBlocking(false);
+            server.register(sel, SelectionKey.OP_ACCEPT);
+            System.out.println("[DIR] Serveur lancé sur le port " + port + " (toutes interfaces)");
+
+            while (running) {
+                sel.select(1_000);
+                List<PendingCommand> ready = new ArrayList<>();
+
+                Iterator<SelectionKey> it = sel.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept(server, sel);
+                    } else if (key.isReadable()) {
+                        PendingCommand p = (PendingCommand) key.attachment();
+                        try {
+                            if (p.read()) {
+                                key.cancel();
+                                ready.add(p);
+                            }
+                        } catch (IOException e) {
+                            key.cancel();
+                            closeQuietly(p.channel);
+                        }
+                    }
+                }
+                expire(sel);
+
+                if (!ready.isEmpty()) {
+                    sel.selectNow(); // désenregistre les clés annulées avant de repasser en bloquant
+                    for (PendingCommand p : ready) dispatch(p);
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // arrêt
+        }
+    }
+
+    void stop() {
+        running = false;
+        Selector sel = selector;
+        if (sel != null) sel.wakeup();
+        control.shutdownNow();
+        data.shutdownNow();
+        sessions.shutdownNow();
+    }
+
+    private void accept(ServerSocketChannel server, Selector sel) throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null) {
+            ch.configureBlocking(false);
+            ch.register(sel, SelectionKey.OP_READ, new PendingCommand(ch));
+        }
+    }
+
+    /** Ferme les connexions qui n'ont pas envoyé leur commande à temps. */
+    private void expire(Selector sel) {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : sel.keys()) {
+            if (key.attachment() instanceof PendingCommand p && now - p.since > COMMAND_TIMEOUT_MS) {
+                key.cancel();
+                timedOut.incrementAndGet();
+                closeQuietly(p.channel);
+            }
+        }
+    }
+
+    private void dispatch(PendingCommand p) {
+        String command;
+        Socket socket;
+        boolean session;
+        try {
+            command = p.command();
+            p.channel.configureBlocking(true);
+            socket = p.channel.socket();
+            session = DirProtocol.HELLO.equals(command);
+            if (session) socket.setSoTimeout(SESSION_IDLE_MS);
+        } catch (IOException e) {
+            closeQuietly(p.channel);
+            return;
+        }
+
+        if (CONTROL_COMMANDS.contains(command)) {
+            control.execute(() -> {
+                controlServed.incrementAndGet();
+                handler.handle(socket, command);
+            });
+            return;
+        }
+        ThreadPoolExecutor pool = session ? sessions : data;
+        AtomicLong served = session ? sessionServed : dataServed;
+        try {
+            pool.execute(() -> {
+                served.incrementAndGet();
+                handler.handle(socket, command);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            System.err.println("[DIR] Saturé, connexion refusée: " + command + " de " + socket.getInetAddress());
+            closeQuietly(p.channel);
+        }
+    }
+
+    String getStats() {
+        return "=== Dispatch ===\n"
+                + "Control     : " + controlServed.get() + " served (" + CONTROL_THREADS + " threads)\n"
+                + "Data        : " + dataServed.get() + " served, " + data.getActiveCount() + "/" + DATA_THREADS
+                + " active, " + data.getQueue().size() + "/" + DATA_QUEUE + " queued\n"
+                + "Sessions    : " + sessionServed.get() + " served, " + sessions.getActiveCount() + "/"
+                + SESSION_THREADS + " active, " + sessions.getQueue().size() + "/" + SESSION_QUEUE + " queued\n"
+                + "Rejected    : " + rejected.get() + "\n"
+                + "Timed out   : " + timedOut.get() + "\n";
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  LECTURE NON BLOQUANTE DE LA COMMANDE
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Commande en cours de lecture, au format writeUTF : [short len][octets].
+     * Le tampon est borné exactement à la commande, si bien que rien de ce qui
+     * suit (arguments, données) n'est consommé : le handler le lira sur la socket.
+     */
+    private static final class PendingCommand {
+        final SocketChannel channel;
+        final long          since = System.currentTimeMillis();
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+
+        PendingCommand(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /** @return true quand la commande est complète */
+        boolean read() throws IOException {
+            if (channel.read(buffer) < 0) throw new EOFException("Connexion fermée avant la commande");
+            if (buffer.hasRemaining()) return false;
+            if (buffer.capacity() == 2) {
+                int len = buffer.getShort(0) & 0xFFFF;
+                if (len > MAX_COMMAND_BYTES) throw new IOException("Commande trop longue: " + len);
+                ByteBuffer full = ByteBuffer.allocate(2 + len);
+                full.put(buffer.array());
+                buffer = full;
+                return !buffer.hasRemaining() || read();
+            }
+            return true;
+        }
+
+        String command() throws IOException {
+            return new DataInputStream(new ByteArrayInputStream(buffer.array())).readUTF();
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -3,6 +3,7 @@ package dir;
 import common.*;
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -11,27 +12,45 @@ public class DirServer implements Runnable {
     private final Map<String, SlaveInfo> osds = new ConcurrentHashMap<>();
     private final Map<String, OSDHealth> health = new ConcurrentHashMap<>();
 
-    public static final Map<String, FileMeta> files = new ConcurrentHashMap<>();
+    // Triée par clé (owner_nom) : les listes paginées du protocole v2 sont des parcours de plage.
+    // En mémoire ou sur disque selon -Ddir.metaBackend (cf. FileTable)
+    public static final FileTable files = FileTable.create(Paths.get("dir-meta"));
     private final MetaStore metaStore = new MetaStore("dir-meta");
+    private final OwnerIndex owners = new OwnerIndex(files);
 
+    private final ChunkRegistry registry = new ChunkRegistry();
     private final ReplicationManager replication;
+    private final ChunkCache cache = new ChunkCache();
+    private final ChunkReader reader;
+    private final ChunkVerifier verifier = new ChunkVerifier(osds);
+    private final ProtocolV2Handler protocolV2;
     private volatile boolean running = true;
-    private ServerSocket serverSocket;
+
+    // Uploads directs entre ALLOCATE et COMMIT, par clé owner_nom
+    private final Map<String, Allocation> allocations = new ConcurrentHashMap<>();
+    private static final long ALLOCATION_TTL_MS = 30 * 60_000L;   // upload abandonné sans COMMIT
+    private volatile ConnectionDispatcher dispatcher;
 
     public DirServer() {
-        replication = new ReplicationManager(osds, health, files, metaStore);
-        // Charger les métadonnées persistées
+        replication = new ReplicationManager(osds, health, metaStore, registry);
+        reader = new ChunkReader(osds, health, cache);
+        protocolV2 = new ProtocolV2Handler(files, owners, osds, health, this::getStats);
+        // Charger les métadonnées persistées (listes de chunks construites au premier accès)
         try {
-            Map<String, FileMeta> loaded = metaStore.loadAll();
-            files.putAll(loaded);
-            System.out.println("[DIR] Métadonnées chargées: " + loaded.size() + " fichiers");
+            metaStore.load(files, registry);
+            System.out.println("[DIR] Métadonnées chargées: " + files.size() + " fichiers");
         } catch (Exception e) {
             System.err.println("[DIR] Erreur chargement métadonnées: " + e.getMessage());
         }
+        try {
+            metaStore.start();
+        } catch (IOException e) {
+            System.err.println("[DIR] Journal des métadonnées indisponible: " + e.getMessage());
+        }
         replication.start();
     }
 
-    public Map<String, FileMeta> getFiles() {
+    public FileTable getFiles() {
         return files;
     }
 
@@ -40,36 +59,28 @@ public class DirServer implements Runnable {
     }
 
     @Override
-public void run() {
-    try {
-        serverSocket = new ServerSocket(7000, 50, java.net.InetAddress.getByName("0.0.0.0"));
-        System.out.println("[DIR] Serveur lancé sur le port 7000 (toutes interfaces)");
-
-        while (running) {
-            Socket client = serverSocket.accept();
-            System.out.println("[DIR] Client connecté : " + client.getInetAddress());
-            new Thread(() -> handleClient(client)).start();
+    public void run() {
+        dispatcher = new ConnectionDispatcher(7000, this::handleClient);
+        try {
+            dispatcher.serve();
+        } catch (java.net.BindException ex) {
+            System.err.println("Port 7000 deja utilise. Le serveur ne peut pas demarrer.");
+        } catch (Exception e) {
+            if (running) e.printStackTrace();
         }
-
-    } catch (java.net.BindException ex) {
-        System.err.println("Port 7000 deja utilise. Le serveur ne peut pas demarrer.");
-    } catch (java.net.SocketException ex) {
-        // Normal lors de l'arret du serveur
-        if (running) ex.printStackTrace();
-    } catch (Exception e) {
-        e.printStackTrace();
     }
-}
-
 
-    private void handleClient(Socket socket) {
+    /** Sert une connexion dont le dispatcher a déjà lu la première commande. */
+    private void handleClient(Socket socket, String command) {
         try (DataInputStream dis = new DataInputStream(socket.getInputStream());
                 DataOutputStream dos = new DataOutputStream(socket.getOutputStream())) {
 
-            String command = dis.readUTF();
-
             switch (command) {
 
+                case DirProtocol.HELLO:
+                    negotiate(dis, dos);
+                    break;
+
                 case "UPLOAD":
                     handleUpload(dis, dos);
                     break;
@@ -78,10 +89,24 @@ public void run() {
                     handleDownload(dis, dos);
                     break;
 
+                case "READ_RANGE":
+                    handleReadRange(dis, dos);
+                    break;
+
+                case "ALLOCATE":
+                    handleAllocate(dis, dos);
+                    break;
+
+                case "COMMIT":
+                    handleCommit(dis, dos);
+                    break;
+
                 case "HEARTBEAT":
                     handleHeartbeat(dis, socket);
                     break;
 
+                // Anciennes commandes texte (writeUTF, 64 Ko au plus) : gardées pour les
+                // clients qui ne négocient pas le protocole v2
                 case "CLUSTER":
                     StringBuilder clusterSb = new StringBuilder();
                     for (var e : osds.entrySet()) {
@@ -101,11 +126,7 @@ public void run() {
                     break;
 
                 case "STATS":
-                    if (replication != null) {
-                        dos.writeUTF(replication.getStats());
-                    } else {
-                        dos.writeUTF("ReplicationManager non initialisé");
-                    }
+                    dos.writeUTF(getStats());
                     dos.flush();
                     break;
 
@@ -114,7 +135,8 @@ public void run() {
                     for (OSDHealth h : health.values()) {
                         healthSb.append(h.osdId)
                                 .append("|").append(h.status)
-                                .append("|chunks=").append(h.chunkCount)
+                                .append("|chunks=").append(h.chunkCount.get())
+                                .append("|queue=").append(h.queueDepth)
                                 .append("\n");
                     }
                     dos.writeUTF(healthSb.toString());
@@ -144,6 +166,29 @@ public void run() {
         }
     }
 
+    /** Choisit la version du protocole, puis sert la connexion en v2. */
+    private void negotiate(DataInputStream dis, DataOutputStream dos) throws IOException {
+        int requested = dis.readInt();
+        int version = Math.min(requested, DirProtocol.VERSION);
+        if (version < DirProtocol.VERSION) {
+            dos.writeInt(0); // aucune version commune : rester sur les commandes texte
+            dos.flush();
+            return;
+        }
+        dos.writeInt(version);
+        dos.flush();
+        protocolV2.serve(dis, dos);
+    }
+
+    private String getStats() {
+        if (replication == null) return "ReplicationManager non initialisé";
+        return replication.getStats() + "\n" + reader.getStats() + "\n" + cache.getStats()
+                + "\n" + metaStore.getStats() + "\n" + files.getStats() + "\n" + owners.getStats()
+                + "\n" + registry.getStats() + "\n" + verifier.getStats() + "\n" + ChunkCodec.getStats()
+                + "\n" + OSDConnectionPool.getStats()
+                + (dispatcher != null ? "\n" + dispatcher.getStats() : "");
+    }
+
     public void handleUpload(DataInputStream dis, DataOutputStream dos) throws IOException {
         String userId = dis.readUTF();
         String fileName = dis.readUTF();
@@ -155,34 +200,307 @@ public void run() {
         meta.fileName = fileName;
         meta.ownerId = userId;
         meta.totalSize = totalSize;
+        meta.chunkSize = ChunkSizePolicy.forFileSize(totalSize);
+
+        int chunkSize = meta.chunkSize;
+        UploadPipeline pipeline = new UploadPipeline(replication, registry, health, meta);
+        byte[] buffer = new byte[chunkSize];
+        int filled = 0;
+        long received = 0;
+
+        System.out.println("[DIR] Upload: " + fileKey + " (" + totalSize + " bytes, chunks de "
+                + chunkSize + ")");
+
+        try {
+            while (true) {
+                int size = dis.readInt();
+                if (size == -1)
+                    break;
+                // La taille des chunks découle de la taille annoncée : pas un octet de plus
+                if (size < 0 || (totalSize > 0 && received + size > totalSize)) {
+                    throw new IOException("Upload " + fileKey + ": plus d'octets que les " + totalSize + " annoncés");
+                }
+                received += size;
+
+                // Lire directement dans le buffer du chunk courant, sans copie intermédiaire
+                while (size > 0) {
+                    int n = Math.min(size, chunkSize - filled);
+                    dis.readFully(buffer, filled, n);
+                    filled += n;
+                    size -= n;
+
+                    if (filled == chunkSize) {
+                        pipeline.submit(buffer, filled);   // bloque si trop de chunks en vol
+                        buffer = new byte[chunkSize];
+                        filled = 0;
+                    }
+                }
+            }
+
+            if (totalSize > 0 && received != totalSize) {
+                throw new IOException("Upload " + fileKey + ": " + received + " octets reçus sur " + totalSize + " annoncés");
+            }
+            meta.totalSize = received;
+
+            if (filled > 0)
+                pipeline.submit(buffer, filled);
+            pipeline.finish();
+            publish(meta);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrompu: " + fileKey);
+        } finally {
+            deleteChunks(pipeline.release());
+        }
 
-        int chunkSize = 1_000_000;
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.out.println("[DIR] Upload terminé: " + fileKey);
+    }
 
-        System.out.println("[DIR] Upload: " + fileKey + " (" + totalSize + " bytes)");
+    /**
+     * Publie un FileMeta complet : références de ses chunks, remplacement
+     * d'une éventuelle version précédente, persistance.
+     */
+    private void publish(FileMeta meta) throws IOException {
+        String fileKey = meta.ownerId + "_" + meta.fileName;
+        Map<String, List<String>> orphans = new LinkedHashMap<>();
+        metaStore.save(meta, () -> {
+            registry.register(meta);
+            FileMeta previous = files.put(fileKey, meta);
+            owners.put(meta, previous);
+            // Écrasement : seuls les chunks que plus personne ne référence partent
+            if (previous != null) orphans.putAll(registry.unregister(previous));
+        });
+        deleteChunks(orphans);
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // ÉCRITURE DIRECTE CLIENT → OSD
+    //   ALLOCATE : le client annonce les empreintes de ses chunks et le schéma
+    //              voulu (réplication ou code d'effacement) ; le DIR fixe l'id de
+    //              chaque chunk et répond "déjà stocké" ou donne les OSD cibles
+    //   (le client envoie ensuite les chunks manquants en chaîne aux OSD)
+    //   COMMIT   : le client déclare les chunks du fichier, le DIR crée le FileMeta
+    //
+    // Les chunks alloués restent réservés jusqu'au COMMIT (ou ALLOCATION_TTL_MS) ;
+    // le COMMIT ne peut citer que ces chunks, sur les OSD qui leur ont été donnés.
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Chunks réservés par les ALLOCATE d'un upload direct (un par lot de chunks). */
+    private static final class Allocation {
+        final List<String> reserved = new ArrayList<>();              // une entrée par reserve()
+        final Map<String, List<String>> targets = new HashMap<>();    // chunkId → OSD donnés (vide : déjà stocké)
+        long expires;
+    }
+
+    private void handleAllocate(DataInputStream dis, DataOutputStream dos) throws IOException {
+        String userId = dis.readUTF();
+        String fileName = dis.readUTF();
+        String erasure = dis.readUTF();
+        int count = dis.readInt();
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < count; i++) hashes.add(dis.readUTF());
+
+        List<ChunkInfo> placements;
+        try {
+            for (String hash : hashes) {
+                if (!ContentHash.isHash(hash)) throw new IllegalArgumentException("Empreinte invalide: " + hash);
+            }
+            placements = allocateChunks(userId, fileName, hashes, ErasureCode.parse(erasure));
+        } catch (IllegalArgumentException e) {
+            dos.writeInt(-1);
+            dos.writeUTF(e.getMessage());
+            dos.flush();
+            return;
+        }
+        int known = 0;
+        dos.writeInt(placements.size());
+        for (ChunkInfo c : placements) {
+            dos.writeUTF(c.chunkId);
+            dos.writeBoolean(c.replicas == null);
+            if (c.replicas == null) {
+                known++;
+                continue;
+            }
+            dos.writeInt(c.replicas.size());
+            for (SlaveInfo s : c.replicas) {
+                dos.writeUTF(s.id);
+                dos.writeUTF(s.host);
+                dos.writeInt(s.port);
+            }
+        }
+        dos.flush();
+        System.out.println("[DIR] Allocate: " + userId + "_" + fileName + " (" + count
+                + " chunks, " + known + " déjà stockés)");
+    }
+
+    private void handleCommit(DataInputStream dis, DataOutputStream dos) throws IOException {
+        FileMeta meta = new FileMeta();
+        meta.ownerId = dis.readUTF();
+        meta.fileName = dis.readUTF();
+        meta.totalSize = dis.readLong();
+        meta.chunkSize = dis.readInt();
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            String chunkId = dis.readUTF();
+            String codec = dis.readUTF();
+            int n = dis.readInt();
+            List<String> locs = new ArrayList<>();
+            for (int j = 0; j < n; j++) locs.add(dis.readUTF());
+            meta.chunkIds().add(chunkId);
+            if (!ChunkCodec.NONE.equals(codec)) meta.chunkCodecs().put(chunkId, codec);
+            meta.chunkLocations().put(chunkId, locs);
+        }
+
+        try {
+            commitUpload(meta);
+            dos.writeUTF("OK");
+        } catch (IOException | IllegalArgumentException e) {
+            dos.writeUTF("ERROR " + e.getMessage());
+        }
+        dos.flush();
+    }
+
+    /**
+     * Pré-vérification + placement : pour chaque empreinte, l'id du chunk et
+     * replicas == null si le cluster le possède déjà, sinon les OSD cibles
+     * (réplication : premier = tête de chaîne ; code : OSD du fragment i).
+     *
+     * Faute d'assez d'OSD vivants pour placer k + m fragments distincts,
+     * le fichier retombe en réplication.
+     *
+     * Chaque chunk est réservé pour l'upload owner_nom jusqu'à son COMMIT.
+     */
+    public List<ChunkInfo> allocateChunks(String userId, String fileName, List<String> hashes, ErasureCode ec)
+            throws IOException {
+        expireAllocations();
+        if (ec != null && replication.pickForWrite(ec.totalShards()).size() < ec.totalShards()) {
+            System.out.println("[DIR] Pas assez d'OSD pour " + ec + " → réplication");
+            ec = null;
+        }
+        int width = ec == null ? ReplicationManager.REPLICATION_FACTOR : ec.totalShards();
+        String fileKey = userId + "_" + fileName;
 
         while (true) {
-            int size = dis.readInt();
-            if (size == -1)
-                break;
+            Allocation a = allocations.computeIfAbsent(fileKey, k -> new Allocation());
+            synchronized (a) {
+                if (allocations.get(fileKey) != a) continue;   // commitée ou expirée entre-temps
+                a.expires = System.currentTimeMillis() + ALLOCATION_TTL_MS;
+                List<ChunkInfo> placements = new ArrayList<>();
+                for (String hash : hashes) {
+                    String chunkId = ec == null ? hash : ec.chunkId(hash);
+                    List<String> known = registry.reserve(chunkId);
+                    a.reserved.add(chunkId);
+                    if (known != null) {
+                        a.targets.putIfAbsent(chunkId, List.of());
+                        placements.add(new ChunkInfo(chunkId, null));
+                    } else {
+                        List<SlaveInfo> targets = replication.pickForWrite(width);
+                        List<String> ids = new ArrayList<>();
+                        for (SlaveInfo t : targets) ids.add(t.id);
+                        a.targets.put(chunkId, ids);
+                        placements.add(new ChunkInfo(chunkId, targets));
+                    }
+                }
+                return placements;
+            }
+        }
+    }
 
-            byte[] data = new byte[size];
-            dis.readFully(data);
-            buffer.write(data);
+    /** Libère les réservations des uploads directs abandonnés. */
+    private void expireAllocations() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Allocation> e : allocations.entrySet()) {
+            Allocation a = e.getValue();
+            synchronized (a) {
+                if (a.expires > now || !allocations.remove(e.getKey(), a)) continue;
+                deleteChunks(registry.release(a.reserved));
+            }
+            System.out.println("[DIR] Allocation expirée: " + e.getKey());
+        }
+    }
 
-            if (buffer.size() >= chunkSize) {
-                processChunk(buffer.toByteArray(), userId, meta);
-                buffer.reset();
+    /**
+     * Enregistre un fichier dont les chunks ont été écrits directement sur les OSD.
+     * Un chunk déclaré sans réplique doit être déjà connu du cluster ; les
+     * répliques déclarées sont relues (ChunkVerifier) avant d'être retenues.
+     * Seuls les chunks alloués à cet upload, sur les OSD donnés, sont acceptés.
+     * Un fichier vide n'a rien à allouer : il est publié sans allocation.
+     */
+    public void commitUpload(FileMeta meta) throws IOException {
+        String fileKey = meta.ownerId + "_" + meta.fileName;
+        Allocation a = allocations.remove(fileKey);
+        if (a == null && meta.chunkIds().isEmpty()) a = new Allocation();
+        if (a == null) throw new IOException("Aucune allocation en cours pour " + fileKey);
+        synchronized (a) {
+            try {
+                commitAllocated(meta, a);
+            } finally {
+                // Publié : les références ont pris le relais ; sinon les réservations tombent
+                deleteChunks(registry.release(a.reserved));
             }
         }
+    }
 
-        if (buffer.size() > 0)
-            processChunk(buffer.toByteArray(), userId, meta);
+    private void commitAllocated(FileMeta meta, Allocation a) throws IOException {
+        if (!ChunkSizePolicy.isValid(meta.chunkSize)) {
+            throw new IOException("Taille de chunk invalide: " + meta.chunkSize);
+        }
+        // Tous les chunks sont pleins sauf le dernier : la taille annoncée doit tomber dans le dernier
+        long max = meta.chunkIds().size() * (long) meta.chunkSize;
+        boolean empty = max == 0 && meta.totalSize == 0;
+        if (!empty && (meta.totalSize > max || meta.totalSize <= max - meta.chunkSize)) {
+            throw new IOException("Taille " + meta.totalSize + " incohérente avec " + meta.chunkIds().size()
+                    + " chunks de " + meta.chunkSize);
+        }
+        Set<String> seen = new HashSet<>();
+        List<ChunkVerifier.Pending> checks = new ArrayList<>();
+        for (String chunkId : meta.chunkIds()) {
+            if (!ContentHash.isChunkId(chunkId)) throw new IOException("Id de chunk invalide: " + chunkId);
+            if (!seen.add(chunkId)) continue;   // répété dans le fichier : déjà contrôlé
+            List<String> allowed = a.targets.get(chunkId);
+            if (allowed == null) throw new IOException("Chunk non alloué: " + chunkId);
+            List<String> locs = meta.chunkLocations().get(chunkId);
+            ErasureCode ec = ErasureCode.ofChunk(chunkId);
+            if (ec == null) {
+                locs.removeIf(id -> !allowed.contains(id) || !osds.containsKey(id));
+            } else {
+                // Positionnel : un fragment hors de l'OSD donné ou sur un OSD inconnu est perdu
+                for (int i = 0; i < locs.size(); i++) {
+                    String id = locs.get(i);
+                    boolean given = i < allowed.size() && allowed.get(i).equals(id);
+                    if (!given || !osds.containsKey(id)) locs.set(i, ErasureCode.LOST);
+                }
+                if (storedSlots(locs) == 0) locs.clear();
+            }
+            // Les répliques déclarées ne comptent qu'une fois confirmées par leur OSD : un
+            // chunk déjà connu sous un autre codec garde les siennes, pas de mélange de formes
+            String known = registry.codec(chunkId);
+            if (known != null && !known.equals(meta.codecOf(chunkId))) {
+                locs.clear();
+            } else if (!locs.isEmpty()) {
+                checks.add(verifier.start(chunkId, ec, meta.codecOf(chunkId), locs));
+            }
+        }
 
-        files.put(fileKey, meta);
-        metaStore.save(meta);
+        // Contrôles de tous les chunks lancés ensemble, attendus ici
+        for (ChunkVerifier.Pending check : checks) verifier.finish(check);
+        for (String chunkId : seen) {
+            List<String> locs = meta.chunkLocations().get(chunkId);
+            ErasureCode ec = ErasureCode.ofChunk(chunkId);
+            if (locs.isEmpty()) {
+                if (registry.locations(chunkId) == null) throw new IOException("Chunk inconnu: " + chunkId);
+            } else if (ec != null && (locs.size() != ec.totalShards() || storedSlots(locs) < ec.dataShards)) {
+                throw new IOException("Chunk codé incomplet: " + chunkId);
+            }
+            for (String id : locs) {
+                OSDHealth h = health.get(id);
+                if (h != null) h.chunkCount.incrementAndGet();
+            }
+        }
 
-        System.out.println("[DIR] Upload terminé: " + fileKey);
+        publish(meta);
+        System.out.println("[DIR] Commit: " + meta.ownerId + "_" + meta.fileName
+                + " (" + meta.chunkIds().size() + " chunks)");
     }
 
     public void handleDownload(DataInputStream dis, DataOutputStream dos) throws IOException {
@@ -191,79 +509,132 @@ public void run() {
         String userId = dis.readUTF();
         String fileKey = userId + "_" + fileName;
 
-        FileMeta meta = files.get(fileKey);
+        FileMeta meta = lookupFile(fileName, userId);
 
-        if (meta == null || meta.chunkIds.isEmpty()) {
+        if (meta == null) {
             dos.writeBoolean(false);
             dos.flush();
             System.out.println("[DIR] Download KO - fichier introuvable: " + fileKey);
             return;
         }
 
-        // Reassembler le fichier depuis les OSD
-        ByteArrayOutputStream assembled = new ByteArrayOutputStream();
-        boolean success = true;
+        // Réponse en trames : le premier octet part dès le premier chunk lu
+        dos.writeBoolean(true);
+        dos.writeLong(meta.totalSize);
+        FramedOutputStream out = new FramedOutputStream(dos);
+
+        if (streamFile(meta, out)) {
+            out.finish();
+            System.out.println("[DIR] Download OK: " + fileKey + " (" + meta.totalSize + " bytes)");
+        } else {
+            out.abort();
+            System.out.println("[DIR] Download KO - chunks manquants: " + fileKey);
+        }
+    }
+
+    /**
+     * Retourne le FileMeta si le fichier existe et que chaque chunk est lisible :
+     * au moins une réplique connue, ou k fragments pour un chunk codé.
+     */
+    public FileMeta lookupFile(String fileName, String userId) {
+        FileMeta meta = files.get(userId + "_" + fileName);
+        if (meta == null || meta.chunkIds().isEmpty()) return null;
+        for (String chunkId : meta.chunkIds()) {
+            List<String> locs = meta.chunkLocations().get(chunkId);
+            if (locs == null) return null;
+            ErasureCode ec = ErasureCode.ofChunk(chunkId);
+            int needed = ec == null ? 1 : ec.dataShards;
+            if (storedSlots(locs) < needed) return null;
+        }
+        return meta;
+    }
 
-        for (String chunkId : meta.chunkIds) {
-            List<String> locs = meta.chunkLocations.get(chunkId);
-            if (locs == null || locs.isEmpty()) {
-                success = false;
-                break;
+    /** Nombre d'emplacements renseignés (les fragments perdus valent ""). */
+    private static int storedSlots(List<String> locs) {
+        int n = 0;
+        synchronized (locs) {
+            for (String id : locs) {
+                if (!ErasureCode.LOST.equals(id)) n++;
             }
+        }
+        return n;
+    }
 
-            byte[] chunkData = null;
-            for (String osdId : locs) {
-                SlaveInfo osd = osds.get(osdId);
-                if (osd == null) continue;
-                OSDHealth h = health.get(osdId);
-                if (h != null && !h.isAlive()) continue;
-
-                try {
-                    chunkData = fetchChunkFromOSD(osd, chunkId);
-                    if (chunkData != null) break;
-                } catch (Exception e) {
-                    System.out.println("[DIR] Chunk fetch failed from " + osdId + ": " + e.getMessage());
-                }
-            }
+    /**
+     * Envoie le contenu du fichier chunk par chunk, dans l'ordre. Les chunks sont
+     * lus en parallèle par le ChunkReader (fenêtre bornée, lectures hedgées).
+     *
+     * Le fichier n'est jamais assemblé, mais les chunks de la fenêtre sont gardés
+     * entiers en mémoire : jusqu'à ChunkReader.WINDOW chunks par téléchargement,
+     * plafonnés à READ_AHEAD_BYTES (un chunk au moins, soit 64 Mio au pire).
+     *
+     * @return false si un chunk n'a pu être lu sur aucune réplique
+     * @throws IOException si l'écriture vers le client échoue
+     */
+    public boolean streamFile(FileMeta meta, OutputStream out) throws IOException {
+        List<ChunkReader.Slice> slices = new ArrayList<>();
+        for (String chunkId : meta.chunkIds()) {
+            slices.add(ChunkReader.Slice.whole(chunkId, meta.codecOf(chunkId)));
+        }
+        return streamSlices(meta, slices, out);
+    }
 
-            if (chunkData == null) {
-                success = false;
-                break;
+    /**
+     * Envoie les octets [offset, offset + length) du fichier. Seuls les chunks
+     * qui recouvrent la plage sont lus, et seulement la portion utile de chacun.
+     */
+    public boolean streamRange(FileMeta meta, long offset, long length, OutputStream out) throws IOException {
+        List<ChunkReader.Slice> slices = new ArrayList<>();
+        if (length > 0) {
+            long cs = meta.chunkSize;
+            int first = (int) (offset / cs);
+            int last = (int) ((offset + length - 1) / cs);
+            for (int i = first; i <= last && i < meta.chunkIds().size(); i++) {
+                long chunkStart = i * cs;
+                long from = Math.max(offset, chunkStart) - chunkStart;
+                long to = Math.min(offset + length, chunkStart + cs) - chunkStart;
+                String chunkId = meta.chunkIds().get(i);
+                slices.add(new ChunkReader.Slice(chunkId, meta.codecOf(chunkId), (int) from, (int) (to - from)));
             }
-            assembled.write(chunkData);
         }
+        return streamSlices(meta, slices, out);
+    }
+
+    private boolean streamSlices(FileMeta meta, List<ChunkReader.Slice> slices, OutputStream out)
+            throws IOException {
+        if (!reader.read(slices, meta.chunkLocations(), meta.chunkSize, out::write)) {
+            return false;
+        }
+        out.flush();
+        return true;
+    }
+
+    /**
+     * READ_RANGE : userId, fileName, offset, length → même réponse en trames que DOWNLOAD,
+     * la taille annoncée étant celle de la plage effectivement servie.
+     */
+    private void handleReadRange(DataInputStream dis, DataOutputStream dos) throws IOException {
+        String userId = dis.readUTF();
+        String fileName = dis.readUTF();
+        long offset = dis.readLong();
+        long length = dis.readLong();
 
-        if (!success) {
+        FileMeta meta = lookupFile(fileName, userId);
+        if (meta == null || offset < 0 || offset >= meta.totalSize || length < 0) {
             dos.writeBoolean(false);
             dos.flush();
-            System.out.println("[DIR] Download KO - chunks manquants: " + fileKey);
             return;
         }
+        length = Math.min(length, meta.totalSize - offset);
 
-        byte[] fileData = assembled.toByteArray();
         dos.writeBoolean(true);
-        dos.writeLong(fileData.length);
-        dos.write(fileData);
-        dos.flush();
-        System.out.println("[DIR] Download OK: " + fileKey + " (" + fileData.length + " bytes)");
-    }
-
-    private byte[] fetchChunkFromOSD(SlaveInfo osd, String chunkId) throws Exception {
-        try (Socket socket = new Socket(osd.host, osd.port);
-             DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-             DataInputStream in = new DataInputStream(socket.getInputStream())) {
-
-            out.writeUTF("GET_CHUNK");
-            out.writeUTF(chunkId);
-            out.flush();
-
-            String status = in.readUTF();
-            if (!"OK".equals(status)) return null;
-
-            int size = in.readInt();
-            byte[] data = new byte[size];
-            in.readFully(data);
-            return data;
+        dos.writeLong(length);
+        FramedOutputStream out = new FramedOutputStream(dos);
+        if (streamRange(meta, offset, length, out)) {
+            out.finish();
+        } else {
+            out.abort();
+            System.out.println("[DIR] Read range KO - chunks manquants: " + userId + "_" + fileName);
         }
     }
 
@@ -271,7 +642,12 @@ public void run() {
 
         String osdId = dis.readUTF();
         int port = dis.readInt();
-        OSDHealth h = health.get(osdId);
+        int queueDepth;
+        try {
+            queueDepth = dis.readInt();
+        } catch (EOFException e) {
+            queueDepth = 0; // OSD sans moteur d'I/O : pas de profondeur de file
+        }
         // 1️⃣ Enregistrer OSD si nouveau (utilise l'adresse IP du client)
         String osdHost = socket.getInetAddress().getHostAddress();
         osds.putIfAbsent(osdId, new SlaveInfo(osdId, osdHost, port));
@@ -280,52 +656,14 @@ public void run() {
         health.putIfAbsent(osdId, new OSDHealth(osdId));
 
         // 3️⃣ Marquer beat
-        health.get(osdId).beat();
-    }
-
-    private void processChunk(byte[] chunk, String userId, FileMeta meta) {
-        String chunkId = userId + "_" + UUID.randomUUID();
-
-        List<SlaveInfo> targets = replication.pickForWrite(ReplicationManager.REPLICATION_FACTOR);
-        meta.chunkIds.add(chunkId);
-        meta.chunkLocations.put(chunkId, new ArrayList<>());
-
-        int stored = 0;
-        for (SlaveInfo s : targets) {
-            if (sendChunkSocket(s, chunkId, chunk)) {
-                meta.chunkLocations.get(chunkId).add(s.id);
-                health.get(s.id).chunkCount++;
-                stored++;
-            }
-        }
-        System.out.println("[DIR] Chunk " + chunkId.substring(0, 8) + "... stored on " + stored + " OSD");
-    }
-
-    private boolean sendChunkSocket(SlaveInfo osd, String chunkId, byte[] chunk) {
-        try (Socket socket = new Socket(osd.host, osd.port);
-                DataOutputStream dos = new DataOutputStream(socket.getOutputStream())) {
-
-            dos.writeUTF("STORE_CHUNK");
-            dos.writeUTF(chunkId);
-            dos.writeInt(chunk.length);
-            dos.write(chunk);
-            dos.flush();
-            return true;
-
-        } catch (Exception e) {
-            System.out.println("[DIR] OSD unreachable: " + osd.id);
-            return false;
-        }
+        OSDHealth h = health.get(osdId);
+        h.queueDepth = queueDepth;
+        h.beat();
     }
 
     public void stop() {
         running = false;
-        try {
-            if (serverSocket != null && !serverSocket.isClosed())
-                serverSocket.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (dispatcher != null) dispatcher.stop();
     }
 
     private String buildChunks() {
@@ -338,11 +676,11 @@ public void run() {
         for (FileMeta m : files.values()) {
             sb.append("FILE=").append(m.fileName).append("\n");
 
-            for (String chunk : m.chunkIds) {
+            for (String chunk : m.chunkIds()) {
                 sb.append("  ")
                         .append(chunk.substring(0, 8))
                         .append("... => ")
-                        .append(m.chunkLocations.get(chunk))
+                        .append(m.chunkLocations().get(chunk))
                         .append("\n");
             }
         }
@@ -354,17 +692,16 @@ public void run() {
     String userId = dis.readUTF();
     StringBuilder sb = new StringBuilder();
 
-    for (FileMeta meta : files.values()) {
-        if (meta.ownerId.equals(userId)) {
-            long totalSize = meta.totalSize > 0 ? meta.totalSize : meta.chunkIds.size() * 1_000_000L;
+    // Fichiers du seul propriétaire (cf. OwnerIndex), sans parcourir le cluster
+    for (String fileName : owners.fileNames(userId)) {
+        FileMeta meta = files.get(userId + "_" + fileName);
+        if (meta != null && userId.equals(meta.ownerId)) {   // supprimé ou remplacé depuis
+            long totalSize = OwnerIndex.size(meta);
             String dateUpload = "unknown";
 
-            int chunkCount = meta.chunkIds.size();
+            int chunkCount = meta.chunkCount();
 
-            int maxReplicas = meta.chunkLocations.values().stream()
-                    .mapToInt(List::size)
-                    .max()
-                    .orElse(0);
+            int maxReplicas = meta.maxReplicas();   // -1 : liste des chunks pas encore construite
 
             sb.append(meta.fileName).append("|")
               .append(totalSize).append("|")
@@ -383,52 +720,76 @@ public void run() {
         String fileName = dis.readUTF();
         String fileKey = userId + "_" + fileName;
 
-        FileMeta meta = files.remove(fileKey);
-        if (meta == null) {
+        if (!files.containsKey(fileKey)) {
             dos.writeUTF("NOT_FOUND");
             dos.flush();
             return;
         }
 
-        // Supprimer les chunks sur les OSD
-        for (String chunkId : meta.chunkIds) {
-            List<String> locs = meta.chunkLocations.get(chunkId);
-            if (locs != null) {
-                for (String osdId : locs) {
-                    SlaveInfo osd = osds.get(osdId);
-                    if (osd != null) {
-                        try (Socket socket = new Socket(osd.host, osd.port);
-                             DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
-                            out.writeUTF("DELETE_CHUNK");
-                            out.writeUTF(chunkId);
-                            out.flush();
-                        } catch (Exception e) {
-                            System.err.println("[DIR] Delete chunk error: " + e.getMessage());
-                        }
-                    }
-                }
-            }
-        }
-
+        Map<String, List<String>> orphans = new LinkedHashMap<>();
         try {
-            metaStore.delete(meta.fileName);
+            metaStore.delete(fileKey, () -> {
+                FileMeta meta = files.remove(fileKey);
+                if (meta != null) {
+                    owners.remove(meta);
+                    orphans.putAll(registry.unregister(meta));
+                }
+            });
         } catch (Exception e) {
             System.err.println("[DIR] MetaStore delete error: " + e.getMessage());
         }
 
+        // Supprimer des OSD les chunks qui ne sont plus référencés par aucun fichier
+        deleteChunks(orphans);
+
         dos.writeUTF("OK");
         dos.flush();
         System.out.println("[DIR] Fichier supprimé: " + fileKey);
     }
 
+    /**
+     * Supprime des OSD des chunks orphelins (cf. ChunkRegistry.unregister). Le
+     * chunk reste « en suppression » jusqu'à l'ack de tous ses OSD : un upload
+     * qui voudrait le réécrire attend jusque-là.
+     */
+    private void deleteChunks(Map<String, List<String>> orphans) {
+        for (Map.Entry<String, List<String>> e : orphans.entrySet()) {
+            String chunkId = e.getKey();
+            cache.invalidate(chunkId);
+            // Revérifié sous le verrou de l'index : réservé ou republié depuis, il reste
+            if (registry.isReferenced(chunkId)) {
+                registry.deleted(List.of(chunkId));
+                continue;
+            }
+            boolean coded = ErasureCode.ofChunk(chunkId) != null;
+            List<String> locs = new ArrayList<>(e.getValue());
+            List<CompletableFuture<DataInputStream>> acks = new ArrayList<>();
+            for (int i = 0; i < locs.size(); i++) {
+                SlaveInfo osd = osds.get(locs.get(i));
+                if (osd == null) continue;
+                String objectId = coded ? ErasureCode.fragmentId(chunkId, i) : chunkId;
+                // Sans attendre l'ack : les suppressions partent en vol sur les connexions du pool
+                acks.add(OSDConnectionPool.send(osd, out -> {
+                    out.writeUTF("DELETE_CHUNK");
+                    out.writeUTF(objectId);
+                }).whenComplete((r, ex) -> {
+                    if (ex != null) System.err.println("[DIR] Delete chunk error: " + ex.getMessage());
+                }));
+            }
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0]))
+                    .orTimeout(OSDConnectionPool.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .whenComplete((v, ex) -> registry.deleted(List.of(chunkId)));
+        }
+    }
+
     private void handleListAll(DataOutputStream dos) throws IOException {
         StringBuilder sb = new StringBuilder();
         for (FileMeta meta : files.values()) {
-            long totalSize = meta.totalSize > 0 ? meta.totalSize : meta.chunkIds.size() * 1_000_000L;
+            long totalSize = meta.totalSize > 0 ? meta.totalSize : meta.chunkCount() * (long) meta.chunkSize;
             sb.append(meta.ownerId).append("|")
               .append(meta.fileName).append("|")
               .append(totalSize).append("|")
-              .append(meta.chunkIds.size()).append("\n");
+              .append(meta.chunkCount()).append("\n");
         }
         dos.writeUTF(sb.toString());
         dos.flush();
@@ -448,25 +809,30 @@ public void run() {
             meta.fileName = fileName;
             meta.ownerId = userId;
             meta.totalSize = fileData.length;
+            meta.chunkSize = ChunkSizePolicy.forFileSize(fileData.length);
 
-            int chunkSize = 1_000_000;
+            int chunkSize = meta.chunkSize;
             int offset = 0;
+            UploadPipeline pipeline = new UploadPipeline(replication, registry, health, meta);
 
             System.out.println("[DIR-HTTP] Upload: " + fileKey + " (" + fileData.length + " bytes)");
 
-            // Diviser en chunks et distribuer
-            while (offset < fileData.length) {
-                int size = Math.min(chunkSize, fileData.length - offset);
-                byte[] chunk = new byte[size];
-                System.arraycopy(fileData, offset, chunk, 0, size);
+            try {
+                // Diviser en chunks et distribuer en parallèle
+                while (offset < fileData.length) {
+                    int size = Math.min(chunkSize, fileData.length - offset);
+                    byte[] chunk = new byte[size];
+                    System.arraycopy(fileData, offset, chunk, 0, size);
 
-                processChunk(chunk, userId, meta);
-                offset += size;
+                    pipeline.submit(chunk, size);
+                    offset += size;
+                }
+                pipeline.finish();
+                publish(meta);
+            } finally {
+                deleteChunks(pipeline.release());
             }
 
-            files.put(fileKey, meta);
-            metaStore.save(meta);
-
             System.out.println("[DIR-HTTP] Upload terminé: " + fileKey);
             return true;
         } catch (Exception e) {
@@ -475,75 +841,6 @@ public void run() {
         }
     }
 
-    /**
-     * Gère le download depuis l'API REST HTTP
-     */
-    public byte[] handleDownloadRequest(String fileName, String userId) {
-        try {
-            String fileKey = userId + "_" + fileName;
-            FileMeta meta = files.get(fileKey);
-
-            if (meta == null || meta.chunkIds.isEmpty()) {
-                System.out.println("[DIR-HTTP] Download KO - fichier introuvable: " + fileKey);
-                return null;
-            }
-
-            // Reassembler le fichier depuis les OSD
-            ByteArrayOutputStream assembled = new ByteArrayOutputStream();
-            boolean success = true;
-
-            for (String chunkId : meta.chunkIds) {
-                List<String> locs = meta.chunkLocations.get(chunkId);
-                if (locs == null || locs.isEmpty()) {
-                    success = false;
-                    break;
-                }
-
-                byte[] chunkData = null;
-                // Essayer chaque réplica du chunk
-                for (String osdId : locs) {
-                    SlaveInfo osd = osds.get(osdId);
-                    if (osd == null) continue;
-                    
-                    OSDHealth h = health.get(osdId);
-                    if (h != null && !h.isAlive()) {
-                        System.out.println("[DIR-HTTP] OSD " + osdId + " is DOWN, trying next replica...");
-                        continue;
-                    }
-
-                    try {
-                        chunkData = fetchChunkFromOSD(osd, chunkId);
-                        if (chunkData != null) {
-                            System.out.println("[DIR-HTTP] Chunk fetched from " + osdId);
-                            break;
-                        }
-                    } catch (Exception e) {
-                        System.out.println("[DIR-HTTP] Chunk fetch failed from " + osdId + ": " + e.getMessage());
-                    }
-                }
-
-                if (chunkData == null) {
-                    System.err.println("[DIR-HTTP] All replicas of chunk " + chunkId + " are down!");
-                    success = false;
-                    break;
-                }
-                assembled.write(chunkData);
-            }
-
-            if (!success) {
-                System.out.println("[DIR-HTTP] Download KO - chunks manquants: " + fileKey);
-                return null;
-            }
-
-            byte[] fileData = assembled.toByteArray();
-            System.out.println("[DIR-HTTP] Download OK: " + fileKey + " (" + fileData.length + " bytes)");
-            return fileData;
-        } catch (Exception e) {
-            System.err.println("[DIR-HTTP] Download error: " + e.getMessage());
-            return null;
-        }
-    }
-
     /**
      * Retourne l'état du cluster au format texte
      */
@@ -0,0 +1,70 @@
+package dir;
+
+import common.FileMeta;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Table des fichiers du DIR, triée par clé owner_nom (-Ddir.metaBackend) :
+ *
+ *   memory  tout en mémoire ({@link MemoryFileTable})
+ *   lsm     mémoire tampon et runs triés sur disque, cache des entrées
+ *           chaudes ({@link LsmFileTable}) : le tas ne borne plus le nombre de fichiers
+ *
+ * La persistance passe par le MetaStore dans les deux cas : son journal couvre
+ * chaque modification, son image la table entière (memory) ou le dernier run
+ * écrit (lsm).
+ */
+public interface FileTable {
+
+    static FileTable create(Path baseDir) {
+        String kind = System.getProperty("dir.metaBackend", "memory");
+        return switch (kind) {
+            case "memory" -> new MemoryFileTable();
+            case "lsm" -> new LsmFileTable(baseDir.resolve("lsm"));
+            default -> throw new IllegalArgumentException("Table des fichiers inconnue: " + kind);
+        };
+    }
+
+    FileMeta get(String fileKey);
+
+    /** Crée ou remplace ; rend la version précédente, null si le fichier n'existait pas. */
+    FileMeta put(String fileKey, FileMeta meta);
+
+    /** Supprime ; rend la version supprimée, null si le fichier n'existait pas. */
+    FileMeta remove(String fileKey);
+
+    default boolean containsKey(String fileKey) {
+        return get(fileKey) != null;
+    }
+
+    long size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Fichiers à partir de la clé from (incluse ou non), dans l'ordre des clés. */
+    Iterable<Map.Entry<String, FileMeta>> scan(String from, boolean inclusive);
+
+    /** Tous les fichiers, dans l'ordre des clés. */
+    default Iterable<FileMeta> values() {
+        return () -> new Iterator<>() {
+            private final Iterator<Map.Entry<String, FileMeta>> it = scan("", true).iterator();
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public FileMeta next() {
+                return it.next().getValue();
+            }
+        };
+    }
+
+    String getStats();
+}
@@ -0,0 +1,606 @@
+package dir;
+
+import common.FileMeta;
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Table des fichiers en arbre LSM, pour un espace de noms plus grand que le tas.
+ *
+ *   mémoire tampon  ConcurrentSkipListMap des dernières modifications, suppressions comprises
+ *   runs            fichiers triés immuables (SortedRun), du plus ancien au plus récent
+ *   cache           LRU des entrées lues dans les runs (-Ddir.metaCacheEntries)
+ *
+ * Une lecture cherche dans la mémoire tampon, puis dans les runs du plus
+ * récent au plus ancien ; le filtre de bloom de chaque run évite de lire un
+ * bloc pour une clé qu'il ne contient pas. Seuls la mémoire tampon, le cache,
+ * et les filtres et index des runs restent dans le tas.
+ *
+ * La durabilité est celle du journal du MetaStore : à chaque image, la mémoire
+ * tampon est figée (freeze) puis écrite en un nouveau run (flush), et l'image
+ * retient le numéro de ce run. Un run plus récent que ce numéro (arrêt entre
+ * l'écriture du run et celle de l'image) est supprimé à l'ouverture : le
+ * journal le rejoue.
+ *
+ * Compaction par paliers, en tâche de fond : au-delà de COMPACT_RUNS runs, les
+ * plus récents de tailles voisines sont fusionnés, et les suppressions
+ * disparaissent quand la fusion inclut le plus ancien run. Seuls les runs déjà
+ * couverts par une image sont fusionnés. Une lecture prend une référence sur
+ * les runs qu'elle parcourt (cf. SortedRun) : un run remplacé n'est fermé et
+ * supprimé qu'une fois le dernier parcours terminé, ou abandonné et ramassé
+ * par le GC. À l'ouverture, un run dont un autre couvre tous les numéros est
+ * supprimé.
+ */
+final class LsmFileTable implements FileTable {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final int  CACHE_ENTRIES = Integer.getInteger("dir.metaCacheEntries", 100_000);
+    static final int  COMPACT_RUNS  = Integer.getInteger("dir.lsmCompactRuns", 4);
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "dir-lsm-compact");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Rend les runs d'un parcours abandonné avant la fin
+    private static final Cleaner SCANS = Cleaner.create(r -> {
+        Thread t = new Thread(r, "dir-lsm-scans");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Sérialisation des FileMeta dans les runs, fournie par le MetaStore. */
+    interface Codec {
+        void write(DataOutputStream out, FileMeta meta) throws IOException;
+
+        FileMeta read(DataInputStream in) throws IOException;
+    }
+
+    /** Suppression dans la mémoire tampon, comparée par identité. */
+    private static final Object DELETED = new Object();
+
+    /** État lu sans verrou et remplacé en entier. */
+    private static final class State {
+        final ConcurrentSkipListMap<String, Object> active;
+        final ConcurrentSkipListMap<String, Object> frozen;   // en cours d'écriture, null sinon
+        final List<SortedRun> runs;                          // du plus ancien au plus récent
+
+        State(ConcurrentSkipListMap<String, Object> active, ConcurrentSkipListMap<String, Object> frozen,
+              List<SortedRun> runs) {
+            this.active = active;
+            this.frozen = frozen;
+            this.runs = runs;
+        }
+    }
+
+    /** Mémoire tampon figée par freeze(), à écrire par flush(). */
+    static final class Frozen {
+        private final ConcurrentSkipListMap<String, Object> memtable;
+        final long files;   // nombre de fichiers au moment du gel
+
+        Frozen(ConcurrentSkipListMap<String, Object> memtable, long files) {
+            this.memtable = memtable;
+            this.files = files;
+        }
+    }
+
+    private final Path dir;
+    private volatile State state = new State(new ConcurrentSkipListMap<>(), null, List.of());
+    private volatile Codec codec;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private long lastSeq;              // dernier run écrit
+    private volatile long durableSeq;  // dernier run couvert par une image
+
+    private final LinkedHashMap<String, FileMeta> hot = new LinkedHashMap<>(16, 0.75f, true);
+    /** Lectures en cours, par clé : une modification de la clé retire la marque, cf. get(). */
+    private final Map<String, Object> reading = new HashMap<>();   // protégé par hot
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicLong gets        = new AtomicLong();
+    private final AtomicLong cacheHits   = new AtomicLong();
+    private final AtomicLong runReads    = new AtomicLong();
+    private final AtomicLong bloomSkips  = new AtomicLong();
+    private final AtomicLong flushes     = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    LsmFileTable(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Ouvre les runs jusqu'au numéro runSeq retenu par l'image ; files est le
+     * nombre de fichiers qu'ils contiennent.
+     */
+    void open(long runSeq, long files, Codec codec) throws IOException {
+        this.codec = codec;
+        Files.createDirectories(dir);
+
+        List<long[]> found = new ArrayList<>();   // {minSeq, maxSeq}
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(p);
+                } else if (name.startsWith("run-") && name.endsWith(".sst")) {
+                    String[] seqs = name.substring("run-".length(), name.length() - ".sst".length()).split("-");
+                    found.add(new long[]{Long.parseLong(seqs[0]), Long.parseLong(seqs[1])});
+                }
+            }
+        }
+        // Plus large d'abord à minSeq égal : un run couvert par le précédent gardé est en trop
+        found.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]));
+
+        List<SortedRun> runs = new ArrayList<>();
+        long covered = 0;
+        for (long[] seqs : found) {
+            Path p = dir.resolve(SortedRun.name(seqs[0], seqs[1]));
+            if (seqs[1] > runSeq || seqs[1] <= covered) {
+                Files.deleteIfExists(p);
+                continue;
+            }
+            runs.add(SortedRun.open(p));
+            covered = seqs[1];
+        }
+
+        synchronized (this) {
+            lastSeq = runSeq;
+            durableSeq = runSeq;
+            count.addAndGet(files);
+            state = new State(state.active, state.frozen, List.copyOf(runs));
+        }
+        System.out.println("[LSM] " + runs.size() + " runs ouverts, " + files + " fichiers");
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  LECTURE
+    // ════════════════════════════════════════════════════════════════════════
+
+    @Override
+    public FileMeta get(String fileKey) {
+        gets.incrementAndGet();
+        Object mark;
+        synchronized (hot) {
+            // posée avant la mémoire tampon : une écriture concurrente de la clé la retire
+            mark = reading.computeIfAbsent(fileKey, k -> new Object());
+        }
+        try {
+            State s = state;
+            Object v = s.active.get(fileKey);
+            if (v == null && s.frozen != null) v = s.frozen.get(fileKey);
+            if (v != null) return v == DELETED ? null : (FileMeta) v;
+
+            synchronized (hot) {
+                FileMeta meta = hot.get(fileKey);
+                if (meta != null) {
+                    cacheHits.incrementAndGet();
+                    return meta;
+                }
+            }
+
+            s = acquire();
+            FileMeta meta;
+            try {
+                meta = readRuns(s, fileKey);
+            } finally {
+                release(s.runs);
+            }
+            if (meta != null) {
+                synchronized (hot) {
+                    if (reading.get(fileKey) == mark) {
+                        hot.put(fileKey, meta);
+                        if (hot.size() > CACHE_ENTRIES) {
+                            Iterator<FileMeta> it = hot.values().iterator();
+                            it.next();
+                            it.remove();
+                        }
+                    }
+                }
+            }
+            return meta;
+        } finally {
+            synchronized (hot) {
+                reading.remove(fileKey, mark);
+            }
+        }
+    }
+
+    private FileMeta readRuns(State s, String fileKey) {
+        try {
+            for (int i = s.runs.size() - 1; i >= 0; i--) {
+                SortedRun run = s.runs.get(i);
+                if (!run.mightContain(fileKey)) {
+                    bloomSkips.incrementAndGet();
+                    continue;
+                }
+                runReads.incrementAndGet();
+                byte[] value = run.get(fileKey);
+                if (value == null) continue;
+                return value == SortedRun.DELETED ? null : decode(value);
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, FileMeta>> scan(String from, boolean inclusive) {
+        return () -> {
+            State s = acquire();
+            Runnable done = new Runnable() {
+                private final AtomicBoolean released = new AtomicBoolean();
+
+                @Override
+                public void run() {
+                    if (released.compareAndSet(false, true)) release(s.runs);
+                }
+            };
+            Iterator<Map.Entry<String, Object>> merged;
+            try {
+                merged = merge(s, from, inclusive);
+            } catch (RuntimeException e) {
+                done.run();
+                throw e;
+            }
+            Iterator<Map.Entry<String, FileMeta>> it = new Iterator<>() {
+                private final Cleaner.Cleanable cleanable = SCANS.register(this, done);
+                private Map.Entry<String, FileMeta> next = advance();
+
+                private Map.Entry<String, FileMeta> advance() {
+                    try {
+                        Map.Entry<String, FileMeta> e = read();
+                        if (e == null) cleanable.clean();
+                        return e;
+                    } catch (RuntimeException e) {
+                        cleanable.clean();
+                        throw e;
+                    }
+                }
+
+                private Map.Entry<String, FileMeta> read() {
+                    while (merged.hasNext()) {
+                        Map.Entry<String, Object> e = merged.next();
+                        Object v = e.getValue();
+                        if (v == DELETED || v == SortedRun.DELETED) continue;
+                        FileMeta meta;
+                        try {
+                            meta = v instanceof FileMeta m ? m : decode((byte[]) v);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                        return new AbstractMap.SimpleImmutableEntry<>(e.getKey(), meta);
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<String, FileMeta> next() {
+                    if (next == null) throw new NoSuchElementException();
+                    Map.Entry<String, FileMeta> e = next;
+                    next = advance();
+                    return e;
+                }
+            };
+            return it;
+        };
+    }
+
+    /** État courant, ses runs pris pour une lecture ; à rendre par release(s.runs). */
+    private State acquire() {
+        while (true) {
+            State s = state;
+            int n = 0;
+            while (n < s.runs.size() && s.runs.get(n).acquire()) n++;
+            if (n == s.runs.size()) return s;
+            release(s.runs.subList(0, n));   // un run vient d'être retiré : l'état a changé
+        }
+    }
+
+    private static void release(List<SortedRun> runs) {
+        for (SortedRun r : runs) r.release();
+    }
+
+    /**
+     * Fusion des sources de l'état, de la plus récente à la plus ancienne : pour
+     * chaque clé, la valeur de la plus récente (suppressions comprises).
+     */
+    private static Iterator<Map.Entry<String, Object>> merge(State s, String from, boolean inclusive) {
+        List<Iterator<? extends Map.Entry<String, ?>>> sources = new ArrayList<>();
+        sources.add(s.active.tailMap(from, inclusive).entrySet().iterator());
+        if (s.frozen != null) sources.add(s.frozen.tailMap(from, inclusive).entrySet().iterator());
+        for (int i = s.runs.size() - 1; i >= 0; i--) sources.add(s.runs.get(i).iterator(from, inclusive));
+        return merge(sources);
+    }
+
+    /** Fusion de sources triées ; à clé égale, la première source l'emporte. */
+    private static Iterator<Map.Entry<String, Object>> merge(List<Iterator<? extends Map.Entry<String, ?>>> sources) {
+        final class Head {
+            final int rank;
+            final Iterator<? extends Map.Entry<String, ?>> it;
+            Map.Entry<String, ?> entry;
+
+            Head(int rank, Iterator<? extends Map.Entry<String, ?>> it) {
+                this.rank = rank;
+                this.it = it;
+            }
+
+            boolean advance() {
+                entry = it.hasNext() ? it.next() : null;
+                return entry != null;
+            }
+        }
+
+        PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> {
+            int c = a.entry.getKey().compareTo(b.entry.getKey());
+            return c != 0 ? c : Integer.compare(a.rank, b.rank);
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            Head h = new Head(i, sources.get(i));
+            if (h.advance()) heads.add(h);
+        }
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<String, Object> next() {
+                Head first = heads.poll();
+                if (first == null) throw new NoSuchElementException();
+                Map.Entry<String, Object> e = new AbstractMap.SimpleImmutableEntry<>(
+                        first.entry.getKey(), first.entry.getValue());
+                if (first.advance()) heads.add(first);
+                // Versions plus anciennes de la même clé
+                while (!heads.isEmpty() && heads.peek().entry.getKey().equals(e.getKey())) {
+                    Head older = heads.poll();
+                    if (older.advance()) heads.add(older);
+                }
+                return e;
+            }
+        };
+    }
+
+    @Override
+    public long size() {
+        return count.get();
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  ÉCRITURE
+    //    Les modifications sont sérialisées entre elles et avec freeze() : la
+    //    version précédente rendue est exacte (comptage des références).
+    // ════════════════════════════════════════════════════════════════════════
+
+    @Override
+    public synchronized FileMeta put(String fileKey, FileMeta meta) {
+        FileMeta previous = get(fileKey);
+        state.active.put(fileKey, meta);
+        invalidate(fileKey);
+        if (previous == null) count.incrementAndGet();
+        return previous;
+    }
+
+    @Override
+    public synchronized FileMeta remove(String fileKey) {
+        FileMeta previous = get(fileKey);
+        if (previous == null) return null;
+        state.active.put(fileKey, DELETED);
+        invalidate(fileKey);
+        count.decrementAndGet();
+        return previous;
+    }
+
+    private void invalidate(String fileKey) {
+        synchronized (hot) {
+            reading.remove(fileKey);
+            hot.remove(fileKey);
+        }
+    }
+
+    /**
+     * Fige la mémoire tampon ; les modifications suivantes vont dans une
+     * nouvelle. Une mémoire figée dont l'écriture a échoué est reprise avec.
+     */
+    synchronized Frozen freeze() {
+        State s = state;
+        ConcurrentSkipListMap<String, Object> memtable = s.active;
+        if (s.frozen != null) {
+            memtable = new ConcurrentSkipListMap<>(s.frozen);
+            memtable.putAll(s.active);
+        }
+        state = new State(new ConcurrentSkipListMap<>(), memtable, s.runs);
+        return new Frozen(memtable, count.get());
+    }
+
+    /** Écrit la mémoire tampon figée en un nouveau run ; rend son numéro, à retenir dans l'image. */
+    long flush(Frozen frozen) throws IOException {
+        long seq;
+        synchronized (this) {
+            seq = ++lastSeq;
+        }
+        SortedRun run = null;
+        if (!frozen.memtable.isEmpty()) {
+            Iterator<Map.Entry<String, Object>> entries = frozen.memtable.entrySet().iterator();
+            run = SortedRun.write(dir, seq, seq, frozen.memtable.size(), encoded(entries, true));
+        }
+        synchronized (this) {
+            State s = state;
+            List<SortedRun> runs = new ArrayList<>(s.runs);
+            if (run != null) runs.add(run);
+            state = new State(s.active, null, List.copyOf(runs));
+        }
+        flushes.incrementAndGet();
+        return seq;
+    }
+
+    /** Le run seq et les précédents sont couverts par une image : ils peuvent être compactés. */
+    void committed(long seq) {
+        durableSeq = seq;
+        maybeCompact();
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  COMPACTION
+    // ════════════════════════════════════════════════════════════════════════
+
+    private void maybeCompact() {
+        if (durableRuns(state.runs) <= COMPACT_RUNS || !compacting.compareAndSet(false, true)) return;
+        COMPACTOR.execute(() -> {
+            try {
+                compact();
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("[LSM] Compaction impossible: " + e.getMessage());
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    /** Nombre de runs couverts par une image (les plus anciens). */
+    private int durableRuns(List<SortedRun> runs) {
+        int n = 0;
+        while (n < runs.size() && runs.get(n).maxSeq <= durableSeq) n++;
+        return n;
+    }
+
+    private void compact() throws IOException {
+        List<SortedRun> runs = state.runs;
+        int end = durableRuns(runs);
+        if (end < 2) return;
+
+        // Les plus récents d'abord ; un run plus ancien n'entre que s'il pèse au plus le double des autres
+        int from = end - 2;
+        long total = runs.get(from).bytes + runs.get(from + 1).bytes;
+        while (from > 0 && runs.get(from - 1).bytes <= 2 * total) {
+            from--;
+            total += runs.get(from).bytes;
+        }
+        List<SortedRun> inputs = List.copyOf(runs.subList(from, end));
+
+        List<Iterator<? extends Map.Entry<String, ?>>> sources = new ArrayList<>();
+        long expected = 0;
+        for (int i = inputs.size() - 1; i >= 0; i--) {
+            sources.add(inputs.get(i).iterator("", true));
+            expected += inputs.get(i).entries;
+        }
+        // Rien de plus ancien que le premier run : ses suppressions n'ont plus rien à masquer
+        boolean keepDeleted = from > 0;
+        SortedRun out = SortedRun.write(dir, inputs.get(0).minSeq, inputs.get(inputs.size() - 1).maxSeq,
+                expected, encoded(merge(sources), keepDeleted));
+
+        synchronized (this) {
+            State s = state;
+            List<SortedRun> now = new ArrayList<>(s.runs);
+            int at = now.indexOf(inputs.get(0));
+            now.removeAll(inputs);
+            now.add(at, out);
+            state = new State(s.active, s.frozen, List.copyOf(now));
+        }
+        for (SortedRun r : inputs) r.retire();
+        compactions.incrementAndGet();
+        System.out.println("[LSM] Compaction: " + inputs.size() + " runs → " + out.path.getFileName()
+                + " (" + out.entries + " entrées)");
+        maybeCompact();
+    }
+
+    // ─── helpers ─────────────────────────────────────────────────────────────
+
+    /** Entrées au format des runs : FileMeta encodés, suppressions DELETED (ou omises). */
+    private Iterator<Map.Entry<String, byte[]>> encoded(Iterator<Map.Entry<String, Object>> entries,
+                                                        boolean keepDeleted) {
+        return new Iterator<>() {
+            private Map.Entry<String, byte[]> next = advance();
+
+            private Map.Entry<String, byte[]> advance() {
+                while (entries.hasNext()) {
+                    Map.Entry<String, Object> e = entries.next();
+                    Object v = e.getValue();
+                    byte[] bytes;
+                    if (v == DELETED || v == SortedRun.DELETED) {
+                        if (!keepDeleted) continue;
+                        bytes = SortedRun.DELETED;
+                    } else if (v instanceof FileMeta meta) {
+                        bytes = encode(meta);
+                    } else {
+                        bytes = (byte[]) v;
+                    }
+                    return new AbstractMap.SimpleImmutableEntry<>(e.getKey(), bytes);
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, byte[]> next() {
+                if (next == null) throw new NoSuchElementException();
+                Map.Entry<String, byte[]> e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+
+    private byte[] encode(FileMeta meta) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            codec.write(new DataOutputStream(bytes), meta);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private FileMeta decode(byte[] value) throws IOException {
+        return codec.read(new DataInputStream(new ByteArrayInputStream(value)));
+    }
+
+    /** Ferme les runs (lecture ponctuelle, cf. MetaStore). */
+    void close() throws IOException {
+        for (SortedRun run : state.runs) run.close();
+    }
+
+    @Override
+    public String getStats() {
+        State s = state;
+        long runBytes = 0;
+        long runEntries = 0;
+        for (SortedRun r : s.runs) {
+            runBytes += r.bytes;
+            runEntries += r.entries;
+        }
+        int cached;
+        synchronized (hot) {
+            cached = hot.size();
+        }
+        long g = gets.get();
+        return "=== File Table ===\n"
+                + "Backend     : lsm (" + dir + ")\n"
+                + "Files       : " + count.get() + "\n"
+                + "Memtable    : " + s.active.size() + " entries"
+                + (s.frozen != null ? " (+" + s.frozen.size() + " flushing)" : "") + "\n"
+                + "Runs        : " + s.runs.size() + ", " + runEntries + " entries, " + runBytes + " bytes\n"
+                + "Cache       : " + cached + " / " + CACHE_ENTRIES + ", hits " + cacheHits.get() + " / " + g
+                + (g > 0 ? String.format(" (%.1f%%)", 100.0 * cacheHits.get() / g) : "") + "\n"
+                + "Run reads   : " + runReads.get() + " (" + bloomSkips.get() + " skipped by bloom)\n"
+                + "Flushes     : " + flushes.get() + ", compactions " + compactions.get() + "\n";
+    }
+}
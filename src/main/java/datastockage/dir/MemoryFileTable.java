@@ -0,0 +1,59 @@
+package dir;
+
+import common.FileMeta;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/** Table des fichiers entièrement en mémoire, triée par clé. */
+final class MemoryFileTable implements FileTable {
+
+    private final ConcurrentSkipListMap<String, FileMeta> files = new ConcurrentSkipListMap<>();
+
+    @Override
+    public FileMeta get(String fileKey) {
+        return files.get(fileKey);
+    }
+
+    @Override
+    public FileMeta put(String fileKey, FileMeta meta) {
+        return files.put(fileKey, meta);
+    }
+
+    @Override
+    public FileMeta remove(String fileKey) {
+        return files.remove(fileKey);
+    }
+
+    @Override
+    public boolean containsKey(String fileKey) {
+        return files.containsKey(fileKey);
+    }
+
+    @Override
+    public long size() {
+        return files.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, FileMeta>> scan(String from, boolean inclusive) {
+        return files.tailMap(from, inclusive).entrySet();
+    }
+
+    @Override
+    public Iterable<FileMeta> values() {
+        return files.values();
+    }
+
+    @Override
+    public String getStats() {
+        return "=== File Table ===\n"
+                + "Backend     : memory\n"
+                + "Files       : " + files.size() + "\n";
+    }
+}
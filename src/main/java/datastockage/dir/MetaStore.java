@@ -3,26 +3,115 @@ package dir;
 import common.FileMeta;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
 
 /**
- * Gère la persistance des métadonnées de fichiers sur disque.
+ * Gère la persistance des métadonnées de fichiers sur disque : un journal de
+ * modifications en ajout seul, et une image compacte périodique.
  *
  * Structure sur disque :
  *   dir-meta/
- *     fichier1.txt.json
- *     image.png.json
- *     ...
+ *     snapshot.dat            index des chunks, tous les fichiers, et le premier journal à rejouer
+ *     journal-000007.log      modifications postérieures à l'image
+ *     journal-000008.log
  *
- * Chaque fichier .json contient le FileMeta sérialisé.
- * Atomic write : on écrit dans un fichier .tmp puis on renomme
- * pour éviter la corruption en cas de crash.
+ * Un enregistrement du journal : [int len][byte type][corps][int crc32]
+ *
+ *   PUT_FILE     FileMeta complet (création ou écrasement d'un fichier)
+ *   DELETE_FILE  clé owner_nom
+ *   ADD_REPLICA  chunkId, OSD : nouvelle réplique (réparation)
+ *   SET_SLOT     chunkId, emplacement, OSD : fragment codé replacé (réparation)
+ *
+ * Les répliques d'un chunk sont partagées par tous les fichiers qui le
+ * référencent (ChunkRegistry) : ADD_REPLICA et SET_SLOT portent sur le chunk,
+ * et le rejeu les applique directement à l'index.
+ *
+ * Chaque écriture attend d'être sur le disque. Un thread unique regroupe les
+ * enregistrements en attente : une seule écriture et un seul fsync couvrent
+ * toutes les modifications arrivées pendant le fsync précédent.
+ *
+ * Si l'écriture d'un lot échoue, le journal est tronqué à la fin du dernier lot
+ * écrit et le MetaStore passe en échec : ses modifications, déjà appliquées en
+ * mémoire, ne sont dans aucun journal, donc plus aucune modification ni image
+ * n'est acceptée jusqu'au redémarrage, qui repart de ce qui a été acquitté.
+ *
+ * Quand le journal dépasse SNAPSHOT_BYTES, on bascule sur un nouveau journal,
+ * on écrit l'image (tmp → rename), puis on supprime les journaux qu'elle
+ * couvre : le rejeu au démarrage reste court. Un enregistrement tronqué par un
+ * arrêt brutal (crc faux) termine le rejeu de son journal.
+ *
+ * L'image est faite pour démarrer vite : l'index des chunks (références,
+ * codec, répliques) puis les fichiers, par sections de SECTION_ENTRIES
+ * entrées décodées en parallèle (-Ddir.loadThreads). Un fichier n'y garde que
+ * ses ids de chunks, bruts : sa liste de chunks n'est construite qu'au premier
+ * accès (FileMeta.Loader), et ses références sont déjà dans l'index. Le
+ * chargement affiche sa progression chaque seconde.
+ *
+ * Avec la table des fichiers sur disque (LsmFileTable, -Ddir.metaBackend=lsm),
+ * l'image ne contient plus les fichiers : la mémoire tampon de la table est
+ * écrite en un nouveau run au moment de la bascule, et l'image retient le
+ * numéro de ce run (section RUNS). Le journal rejoue ce qui a suivi.
+ *
+ * Les anciens formats (image "MSNP", fichiers .json un par fichier) sont lus
+ * si besoin ; une image au format courant est écrite aussitôt après. De même
+ * quand la table change de genre entre deux démarrages.
  */
 public class MetaStore {
 
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final long SNAPSHOT_BYTES  = Long.getLong("dir.metaSnapshotBytes", 64L << 20);
+    static final int  BATCH_MAX       = 1024;
+    static final int  SECTION_ENTRIES = 4096;
+    static final int  LOAD_THREADS    = Integer.getInteger("dir.loadThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final int  SNAPSHOT_MAGIC = 0x4D534E32;   // "MSN2"
+    private static final int  SNAPSHOT_V1    = 0x4D534E50;   // "MSNP" : FileMeta complets
+    private static final byte SECTION_END    = 0;
+    private static final byte SECTION_CHUNKS = 1;
+    private static final byte SECTION_FILES  = 2;
+    private static final byte SECTION_RUNS   = 3;
+    private static final byte PUT_FILE       = 1;
+    private static final byte DELETE_FILE    = 2;
+    private static final byte ADD_REPLICA    = 3;
+    private static final byte SET_SLOT       = 4;
+
     private final Path baseDir;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    // Modifications en lecture, image en écriture : l'image voit l'index et les
+    // fichiers dans l'état exact du journal au moment de la bascule
+    private final ReentrantReadWriteLock imageLock = new ReentrantReadWriteLock();
+    private FileTable files;
+    private LsmFileTable lsm;         // files quand la table est sur disque, null sinon
+    private boolean runsOpened;
+    private final FileCodec fileCodec = new FileCodec();
+    private ChunkRegistry registry;
+    private FileChannel journal;      // écrit par le seul thread du journal
+    private long journalNumber;
+    private long journalBytes;
+    private boolean convert;          // ancien format lu : écrire une image au démarrage
+    private volatile IOException failure;   // écriture du journal échouée, cf. commit()
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicLong records      = new AtomicLong();
+    private final AtomicLong syncs        = new AtomicLong();
+    private final AtomicLong snapshots    = new AtomicLong();
+    private final AtomicLong loadedFiles  = new AtomicLong();
+    private final AtomicLong loadedChunks = new AtomicLong();
+    private final AtomicLong lazyFiles    = new AtomicLong();
+    private final AtomicLong builtFiles   = new AtomicLong();
+    private volatile long expectedFiles;
+    private volatile long expectedChunks;
+    private volatile long loadMillis = -1;
 
     public MetaStore(String dirPath) {
         this.baseDir = Paths.get(dirPath);
@@ -34,32 +123,640 @@ public class MetaStore {
         }
     }
 
-    // ─── Sauvegarde un FileMeta sur disque ────────────────────────────────────
+    /** Enregistrement en attente d'écriture ; rotate = basculer sur un nouveau journal. */
+    private static class Pending {
+        final byte[] record;
+        final boolean rotate;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
 
-    public void save(FileMeta meta) throws IOException {
-        String json = meta.toJson();
-        Path target = metaPath(meta.fileName);
-        Path tmp    = metaPath(meta.fileName + ".tmp");
+        Pending(byte[] record, boolean rotate) {
+            this.record = record;
+            this.rotate = rotate;
+        }
+    }
+
+    // ─── Modifications ───────────────────────────────────────────────────────
 
-        // écriture atomique : tmp → rename
-        Files.writeString(tmp, json);
-        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    /**
+     * Fichier créé ou écrasé. apply fait la modification en mémoire (index et
+     * table des fichiers) : elle et l'enregistrement passent ensemble, jamais
+     * à cheval sur une image.
+     */
+    public void save(FileMeta meta, Runnable apply) throws IOException {
+        append(PUT_FILE, out -> writeMeta(out, meta), apply);
     }
 
-    // ─── Supprime le fichier .json d'un FileMeta ─────────────────────────────
+    /** Fichier supprimé ; apply comme pour save(). */
+    public void delete(String fileKey, Runnable apply) throws IOException {
+        append(DELETE_FILE, out -> out.writeUTF(fileKey), apply);
+    }
+
+    /** Nouvelle réplique d'un chunk, vue par tous les fichiers qui le référencent. */
+    public void replicaAdded(String chunkId, String osdId) throws IOException {
+        append(ADD_REPLICA, out -> {
+            out.writeUTF(chunkId);
+            out.writeUTF(osdId);
+        }, null);
+    }
 
-    public void delete(String fileName) throws IOException {
-        Files.deleteIfExists(metaPath(fileName));
+    /** Fragment d'un chunk codé placé sur un nouvel OSD. */
+    public void slotPlaced(String chunkId, int slot, String osdId) throws IOException {
+        append(SET_SLOT, out -> {
+            out.writeUTF(chunkId);
+            out.writeInt(slot);
+            out.writeUTF(osdId);
+        }, null);
     }
 
-    // ─── Charge tous les FileMeta depuis le disque ───────────────────────────
-    //     Appelé une seule fois au démarrage du DirServer
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Applique la modification, ajoute son enregistrement au journal et attend
+     * qu'il soit sur le disque. Les répliques (apply null) n'ont pas besoin du
+     * verrou : les rejouer sur une image qui les contient déjà ne change rien.
+     */
+    private void append(byte type, Body body, Runnable apply) throws IOException {
+        checkHealthy();
+        Pending p;
+        if (apply == null) {
+            p = new Pending(encode(type, body), false);
+            queue.add(p);
+        } else {
+            imageLock.readLock().lock();
+            try {
+                checkHealthy();
+                apply.run();
+                p = new Pending(encode(type, body), false);
+                queue.add(p);
+            } finally {
+                imageLock.readLock().unlock();
+            }
+        }
+        await(p.done);
+    }
 
-    public Map<String, FileMeta> loadAll() throws IOException {
-        Map<String, FileMeta> result = new ConcurrentHashMap<>();
+    private void checkHealthy() throws IOException {
+        IOException e = failure;
+        if (e != null) throw new IOException("Journal des métadonnées en échec: " + e.getMessage(), e);
+    }
+
+    private static byte[] encode(byte type, Body body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(type);
+        body.write(out);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), Integer.BYTES, bytes.size() - Integer.BYTES);
+        out.writeInt((int) crc.getValue());
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(record.length - 2 * Integer.BYTES);
+        return record;
+    }
+
+    private static void await(CompletableFuture<Void> f) throws IOException {
+        try {
+            f.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    // ─── Thread du journal : écritures groupées ──────────────────────────────
+
+    private void journalLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_MAX - 1);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            // Les enregistrements avant une bascule vont dans l'ancien journal
+            int from = 0;
+            for (int i = 0; i <= batch.size(); i++) {
+                if (i < batch.size() && !batch.get(i).rotate) continue;
+                commit(batch.subList(from, i));
+                if (i < batch.size()) {
+                    Pending rotate = batch.get(i);
+                    try {
+                        openJournal(journalNumber + 1);
+                        rotate.done.complete(null);
+                    } catch (IOException e) {
+                        rotate.done.completeExceptionally(e);
+                    }
+                }
+                from = i + 1;
+            }
+            batch.clear();
+
+            if (journalBytes > SNAPSHOT_BYTES && snapshotting.compareAndSet(false, true)) {
+                Thread t = new Thread(this::snapshotQuietly, "dir-meta-snapshot");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    /** Une écriture et un fsync pour tout le lot. */
+    private void commit(List<Pending> batch) {
+        if (batch.isEmpty()) return;
+        if (failure != null) {
+            for (Pending p : batch) p.done.completeExceptionally(failure);
+            return;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long total = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            buffers[i] = ByteBuffer.wrap(batch.get(i).record);
+            total += batch.get(i).record.length;
+        }
+        try {
+            long written = 0;
+            while (written < total) written += journal.write(buffers);
+            journal.force(false);
+            journalBytes += total;
+            syncs.incrementAndGet();
+            records.addAndGet(batch.size());
+            for (Pending p : batch) p.done.complete(null);
+        } catch (IOException e) {
+            System.err.println("[MetaStore] Écriture du journal impossible, plus aucune modification acceptée: "
+                    + e.getMessage());
+            failure = e;
+            // Lot écrit en partie : le retirer, pour que le rejeu ne s'arrête pas dessus
+            try {
+                journal.truncate(journalBytes);
+                journal.force(false);
+            } catch (IOException t) {
+                System.err.println("[MetaStore] Troncature du journal impossible: " + t.getMessage());
+            }
+            for (Pending p : batch) p.done.completeExceptionally(e);
+        }
+    }
+
+    private void openJournal(long number) throws IOException {
+        FileChannel ch = FileChannel.open(journalPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (journal != null) journal.close();
+        journal = ch;
+        journalNumber = number;
+        journalBytes = ch.size();
+        syncDirectory();
+    }
+
+    // ─── Image compacte ──────────────────────────────────────────────────────
+
+    /** Démarre le journal. Appelé une fois, après load(). */
+    void start() throws IOException {
+        openJournal(journalNumber + 1);   // les journaux rejoués ne reçoivent plus rien
+
+        Thread t = new Thread(this::journalLoop, "dir-meta-journal");
+        t.setDaemon(true);
+        t.start();
+
+        if (convert) snapshot();
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            System.err.println("[MetaStore] Image impossible: " + e.getMessage());
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+
+    /**
+     * Bascule sur un nouveau journal, écrit l'image, puis supprime les journaux
+     * antérieurs. L'index et la table des fichiers sont copiés au moment de la
+     * bascule, sans modification en cours : tout ce qui suit est dans le
+     * nouveau journal.
+     */
+    void snapshot() throws IOException {
+        checkHealthy();   // l'image contiendrait des modifications refusées
+        Pending rotate = new Pending(null, true);
+        List<ChunkRegistry.ChunkState> chunks;
+        List<FileMeta> all = List.of();
+        LsmFileTable.Frozen frozen = null;
+        imageLock.writeLock().lock();
+        try {
+            queue.add(rotate);
+            chunks = registry.dump();
+            if (lsm != null) {
+                frozen = lsm.freeze();
+            } else {
+                all = new ArrayList<>();
+                for (FileMeta meta : files.values()) all.add(meta);
+            }
+        } finally {
+            imageLock.writeLock().unlock();
+        }
+        await(rotate.done);
+        long firstJournal = journalNumber;
+        long runSeq = frozen != null ? lsm.flush(frozen) : 0;
+        long fileCount = frozen != null ? frozen.files : all.size();
+
+        Path tmp = baseDir.resolve("snapshot.dat.tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(firstJournal);
+            out.writeLong(chunks.size());
+            out.writeLong(fileCount);
+
+            Section section;
+            if (frozen != null) {
+                section = new Section(out, SECTION_RUNS);
+                DataOutputStream e = section.next();
+                e.writeLong(runSeq);
+                e.writeLong(fileCount);
+                section.flush();
+            }
+
+            section = new Section(out, SECTION_CHUNKS);
+            for (ChunkRegistry.ChunkState s : chunks) {
+                DataOutputStream e = section.next();
+                e.writeUTF(s.chunkId);
+                e.writeInt(s.refs);
+                e.writeUTF(s.codec);
+                e.writeInt(s.locations.size());
+                for (String id : s.locations) e.writeUTF(id);
+            }
+            section.flush();
+
+            section = new Section(out, SECTION_FILES);
+            for (FileMeta meta : all) fileCodec.write(section.next(), meta);
+            section.flush();
+
+            out.writeByte(SECTION_END);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, baseDir.resolve("snapshot.dat"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        for (long n : journalNumbers()) {
+            if (n < firstJournal) Files.deleteIfExists(journalPath(n));
+        }
+        if (lsm != null) lsm.committed(runSeq);
+        snapshots.incrementAndGet();
+        System.out.println("[MetaStore] Image écrite: " + fileCount + " fichiers, "
+                + chunks.size() + " chunks, journal " + firstJournal);
+    }
+
+    /** Regroupe les entrées de l'image par sections de SECTION_ENTRIES : [type][nombre][longueur][entrées]. */
+    private static final class Section {
+        private final DataOutputStream out;
+        private final byte kind;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        private final DataOutputStream entries = new DataOutputStream(bytes);
+        private int count;
+
+        Section(DataOutputStream out, byte kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        /** Flux où écrire l'entrée suivante. */
+        DataOutputStream next() throws IOException {
+            if (count == SECTION_ENTRIES) flush();
+            count++;
+            return entries;
+        }
+
+        void flush() throws IOException {
+            if (count == 0) return;
+            out.writeByte(kind);
+            out.writeInt(count);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            bytes.reset();
+            count = 0;
+        }
+    }
+
+    private static byte[] pack(List<String> chunkIds) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunkIds.size() * 40);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String chunkId : chunkIds) out.writeUTF(chunkId);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Un fichier dans l'image ou dans un run : en-tête et ids de chunks bruts,
+     * relu sans construire sa liste de chunks (PackedChunks).
+     */
+    private final class FileCodec implements LsmFileTable.Codec {
+        @Override
+        public void write(DataOutputStream out, FileMeta meta) throws IOException {
+            // Fichier pas encore ouvert depuis sa lecture : ses ids bruts resservent tels quels
+            int count;
+            byte[] packed;
+            if (meta.pendingLoader() instanceof PackedChunks p) {
+                count = p.count;
+                packed = p.packed;
+            } else {
+                List<String> ids = meta.chunkIds();
+                count = ids.size();
+                packed = pack(ids);
+            }
+            out.writeUTF(meta.fileName);
+            out.writeUTF(meta.ownerId);
+            out.writeLong(meta.totalSize);
+            out.writeInt(meta.chunkSize);
+            out.writeInt(count);
+            out.writeInt(packed.length);
+            out.write(packed);
+        }
+
+        @Override
+        public FileMeta read(DataInputStream in) throws IOException {
+            FileMeta meta = new FileMeta();
+            meta.fileName = in.readUTF();
+            meta.ownerId = in.readUTF();
+            meta.totalSize = in.readLong();
+            meta.chunkSize = in.readInt();
+            int chunks = in.readInt();
+            byte[] packed = new byte[in.readInt()];
+            in.readFully(packed);
+            meta.defer(chunks, new PackedChunks(chunks, packed));
+            lazyFiles.incrementAndGet();
+            return meta;
+        }
+    }
 
-        if (!Files.exists(baseDir)) return result;
+    /** Ids des chunks d'un fichier tels que lus dans l'image, décodés au premier accès. */
+    private final class PackedChunks implements FileMeta.Loader {
+        final int count;
+        final byte[] packed;
 
+        PackedChunks(int count, byte[] packed) {
+            this.count = count;
+            this.packed = packed;
+        }
+
+        @Override
+        public void load(FileMeta meta) {
+            List<String> chunkIds = new ArrayList<>(count);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(packed));
+            try {
+                for (int i = 0; i < count; i++) chunkIds.add(in.readUTF());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            registry.attach(meta, chunkIds);
+            builtFiles.incrementAndGet();
+        }
+    }
+
+    // ─── Chargement au démarrage du DirServer ────────────────────────────────
+
+    /**
+     * Remplit files et registry depuis l'image et les journaux. Les sections de
+     * l'image sont décodées en parallèle ; les listes de chunks des fichiers
+     * restent à construire (au premier accès).
+     */
+    void load(FileTable files, ChunkRegistry registry) throws IOException {
+        this.files = files;
+        this.lsm = files instanceof LsmFileTable t ? t : null;
+        this.registry = registry;
+        long start = System.nanoTime();
+
+        Thread reporter = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(1000);
+                    System.out.println("[MetaStore] Chargement: " + progress());
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "dir-meta-progress");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        try {
+            long firstJournal = 0;
+            Path snapshot = baseDir.resolve("snapshot.dat");
+            if (Files.exists(snapshot)) {
+                firstJournal = loadSnapshot(snapshot);
+            } else {
+                loadLegacy();
+            }
+            // Image sans runs : ceux qui resteraient sur le disque sont périmés
+            if (lsm != null && !runsOpened) lsm.open(0, 0, fileCodec);
+
+            long replayed = 0;
+            for (long n : journalNumbers()) {
+                journalNumber = Math.max(journalNumber, n);
+                if (n >= firstJournal) replayed += replayJournal(journalPath(n));
+            }
+
+            loadMillis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("[MetaStore] Total files loaded: " + files.size() + " en " + loadMillis
+                    + " ms (" + replayed + " modifications rejouées)");
+        } finally {
+            reporter.interrupt();
+        }
+    }
+
+    private String progress() {
+        return loadedFiles.get() + " / " + expectedFiles + " fichiers, "
+                + loadedChunks.get() + " / " + expectedChunks + " chunks";
+    }
+
+    /** Lit l'image ; rend le premier journal à rejouer. */
+    private long loadSnapshot(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(path), 1 << 20))) {
+            int magic = in.readInt();
+            if (magic == SNAPSHOT_V1) return loadSnapshotV1(in, path);
+            if (magic != SNAPSHOT_MAGIC) throw new IOException("Image invalide: " + path);
+            long firstJournal = in.readLong();
+            expectedChunks = in.readLong();
+            expectedFiles = in.readLong();
+
+            // Lecture séquentielle des sections, décodage en parallèle
+            ForkJoinPool pool = new ForkJoinPool(LOAD_THREADS);
+            try {
+                List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+                while (true) {
+                    byte kind = in.readByte();
+                    if (kind == SECTION_END) break;
+                    int count = in.readInt();
+                    byte[] section = new byte[in.readInt()];
+                    in.readFully(section);
+                    if (kind == SECTION_RUNS) {
+                        openRuns(section);   // en premier dans l'image, avant les autres sections
+                        continue;
+                    }
+                    tasks.add(pool.submit(() -> {
+                        decodeSection(kind, count, section);
+                        return null;
+                    }));
+                }
+                if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Image tronquée: " + path);
+                for (ForkJoinTask<Void> t : tasks) t.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Chargement interrompu", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } finally {
+                pool.shutdownNow();
+            }
+            return firstJournal;
+        }
+    }
+
+    private void decodeSection(byte kind, int count, byte[] section) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(section));
+        switch (kind) {
+            case SECTION_CHUNKS -> {
+                List<ChunkRegistry.ChunkState> states = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String chunkId = in.readUTF();
+                    int refs = in.readInt();
+                    String codec = in.readUTF();
+                    int n = in.readInt();
+                    List<String> locs = new ArrayList<>(n);
+                    for (int j = 0; j < n; j++) locs.add(in.readUTF());
+                    states.add(new ChunkRegistry.ChunkState(chunkId, refs, codec, locs));
+                }
+                registry.load(states);
+                loadedChunks.addAndGet(count);
+            }
+            case SECTION_FILES -> {
+                for (int i = 0; i < count; i++) {
+                    FileMeta meta = fileCodec.read(in);
+                    files.put(meta.ownerId + "_" + meta.fileName, meta);
+                }
+                loadedFiles.addAndGet(count);
+                // Table sur disque : ces fichiers passent dans un run à la première image
+                if (lsm != null) convert = true;
+            }
+            default -> throw new IOException("Section inconnue: " + kind);
+        }
+    }
+
+    /**
+     * Section RUNS : numéro du dernier run et nombre de fichiers de la table
+     * sur disque. Table en mémoire : les runs sont relus une fois dans la table.
+     */
+    private void openRuns(byte[] section) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(section));
+        long runSeq = in.readLong();
+        long runFiles = in.readLong();
+        if (lsm != null) {
+            lsm.open(runSeq, runFiles, fileCodec);
+            runsOpened = true;
+            loadedFiles.addAndGet(runFiles);
+            return;
+        }
+
+        LsmFileTable runs = new LsmFileTable(baseDir.resolve("lsm"));
+        runs.open(runSeq, runFiles, fileCodec);
+        try {
+            for (Map.Entry<String, FileMeta> e : runs.scan("", true)) {
+                files.put(e.getKey(), e.getValue());
+                loadedFiles.incrementAndGet();
+            }
+        } finally {
+            runs.close();
+        }
+        convert = true;
+    }
+
+    /** Image de l'ancien format : FileMeta complets, à la suite. */
+    private long loadSnapshotV1(DataInputStream in, Path path) throws IOException {
+        long firstJournal = in.readLong();
+        int n = in.readInt();
+        expectedFiles = n;
+        for (int i = 0; i < n; i++) {
+            put(readMeta(in));
+            loadedFiles.incrementAndGet();
+        }
+        if (in.readInt() != SNAPSHOT_V1) throw new IOException("Image tronquée: " + path);
+        convert = true;
+        return firstJournal;
+    }
+
+    /** Fichier lu en entier (journal, ancien format) : références comptées dans l'index. */
+    private void put(FileMeta meta) {
+        registry.register(meta);
+        FileMeta previous = files.put(meta.ownerId + "_" + meta.fileName, meta);
+        if (previous != null) forget(previous);
+    }
+
+    /** Retire les références d'une ancienne version : au rejeu, ses orphelins ont déjà été traités. */
+    private void forget(FileMeta meta) {
+        registry.deleted(registry.unregister(meta).keySet());
+    }
+
+    /** Rejoue un journal ; s'arrête au premier enregistrement incomplet. */
+    private long replayJournal(Path path) throws IOException {
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(path), 64 * 1024))) {
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] body = new byte[len];
+                int crcValue;
+                try {
+                    in.readFully(body);
+                    crcValue = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != crcValue) {
+                    System.err.println("[MetaStore] Fin de journal tronquée: " + path.getFileName());
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(body)));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case PUT_FILE -> put(readMeta(in));
+            case DELETE_FILE -> {
+                FileMeta old = files.remove(in.readUTF());
+                if (old != null) forget(old);
+            }
+            case ADD_REPLICA -> {
+                String chunkId = in.readUTF();
+                registry.addReplica(chunkId, in.readUTF());
+            }
+            case SET_SLOT -> {
+                String chunkId = in.readUTF();
+                int slot = in.readInt();
+                registry.setSlot(chunkId, slot, in.readUTF());
+            }
+            default -> throw new IOException("Enregistrement inconnu: " + type);
+        }
+    }
+
+    /** Anciens fichiers .json, un par FileMeta. */
+    private void loadLegacy() throws IOException {
         try (DirectoryStream<Path> stream =
                      Files.newDirectoryStream(baseDir, "*.json")) {
 
@@ -69,10 +766,9 @@ public class MetaStore {
                     FileMeta meta = FileMeta.fromJson(json);
 
                     if (meta.fileName != null && !meta.fileName.isBlank()) {
-                        String key = meta.ownerId + "_" + meta.fileName;
-                        result.put(key, meta);
-                        System.out.println("[MetaStore] Loaded: " + key
-                                + " (" + meta.chunkIds.size() + " chunks)");
+                        put(meta);
+                        loadedFiles.incrementAndGet();
+                        convert = true;
                     }
 
                 } catch (Exception e) {
@@ -81,16 +777,95 @@ public class MetaStore {
                 }
             }
         }
+    }
+
+    // ─── Format binaire d'un FileMeta ────────────────────────────────────────
+
+    private static void writeMeta(DataOutputStream out, FileMeta meta) throws IOException {
+        out.writeUTF(meta.fileName);
+        out.writeUTF(meta.ownerId);
+        out.writeLong(meta.totalSize);
+        out.writeInt(meta.chunkSize);
+        out.writeInt(meta.chunkIds().size());
+        for (String chunkId : meta.chunkIds()) out.writeUTF(chunkId);
+
+        Map<String, List<String>> locations = new LinkedHashMap<>(meta.chunkLocations());
+        out.writeInt(locations.size());
+        for (Map.Entry<String, List<String>> e : locations.entrySet()) {
+            List<String> locs;
+            synchronized (e.getValue()) {
+                locs = new ArrayList<>(e.getValue());
+            }
+            out.writeUTF(e.getKey());
+            out.writeInt(locs.size());
+            for (String id : locs) out.writeUTF(id);
+        }
+
+        Map<String, String> codecs = meta.chunkCodecs();
+        out.writeInt(codecs.size());
+        for (Map.Entry<String, String> e : codecs.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+    }
+
+    private static FileMeta readMeta(DataInputStream in) throws IOException {
+        FileMeta meta = new FileMeta();
+        meta.fileName = in.readUTF();
+        meta.ownerId = in.readUTF();
+        meta.totalSize = in.readLong();
+        meta.chunkSize = in.readInt();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) meta.chunkIds().add(in.readUTF());
+
+        int nLocations = in.readInt();
+        for (int i = 0; i < nLocations; i++) {
+            String chunkId = in.readUTF();
+            int m = in.readInt();
+            List<String> locs = new ArrayList<>(m);
+            for (int j = 0; j < m; j++) locs.add(in.readUTF());
+            meta.chunkLocations().put(chunkId, locs);
+        }
 
-        System.out.println("[MetaStore] Total files loaded: " + result.size());
-        return result;
+        int nCodecs = in.readInt();
+        for (int i = 0; i < nCodecs; i++) meta.chunkCodecs().put(in.readUTF(), in.readUTF());
+        return meta;
     }
 
-    // ─── helper ──────────────────────────────────────────────────────────────
+    // ─── helpers ─────────────────────────────────────────────────────────────
+
+    private Path journalPath(long number) {
+        return baseDir.resolve(String.format("journal-%06d.log", number));
+    }
+
+    private List<Long> journalNumbers() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(baseDir, "journal-*.log")) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length())));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private void syncDirectory() {
+        try (FileChannel d = FileChannel.open(baseDir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException ignored) {
+        }
+    }
 
-    private Path metaPath(String fileName) {
-        // Sanitize : évite les path traversal (ex: "../../etc/passwd")
-        String safe = fileName.replaceAll("[^a-zA-Z0-9._\\-]", "_");
-        return baseDir.resolve(safe + ".json");
+    public String getStats() {
+        long s = syncs.get();
+        return "=== Metadata ===\n"
+                + "Journal     : " + journalPath(journalNumber).getFileName() + ", " + journalBytes + " bytes\n"
+                + "Records     : " + records.get() + " in " + s + " fsync"
+                + (s > 0 ? String.format(" (%.1f/fsync)", (double) records.get() / s) : "") + "\n"
+                + "Snapshots   : " + snapshots.get() + "\n"
+                + (failure != null ? "FAILED      : " + failure.getMessage() + "\n" : "")
+                + "Startup     : " + (loadMillis < 0 ? "loading, " + progress() : loadMillis + " ms") + "\n"
+                + "Chunk lists : " + builtFiles.get() + " / " + lazyFiles.get() + " built on first access\n";
     }
 }
@@ -1,5 +1,7 @@
 package dir;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Représente l'état de santé d'un OSD à un instant T.
  */
@@ -11,7 +13,8 @@ public class OSDHealth {
     public volatile Status status = Status.DOWN; // DOWN jusqu'au premier heartbeat
     public volatile long   lastHeartbeat = -1L;  // -1 = jamais reçu
     public volatile int    missedBeats   = 0;
-    public volatile int    chunkCount    = 0;
+    public final AtomicInteger chunkCount = new AtomicInteger();   // incrémenté par les envois parallèles
+    public volatile int    queueDepth    = 0;  // opérations en file sur l'OSD (dernier heartbeat)
 
     static final long SUSPECT_AFTER_MS = 8_000L;
     static final long DOWN_AFTER_MS    = 15_000L;
@@ -0,0 +1,50 @@
+package dir;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table des identifiants d'OSD du cluster ("osd-9001" → 0, …) : une réplique
+ * tient en un int, la chaîne n'existe qu'une fois pour tout le DIR. Les numéros
+ * ne sont jamais réattribués ; ils ne sortent pas du processus (l'image et le
+ * journal gardent les chaînes).
+ */
+final class OsdIds {
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[0];
+
+    private OsdIds() {
+    }
+
+    /** Numéro de l'OSD, attribué au premier usage. */
+    static int intern(String osdId) {
+        Integer id = ids.get(osdId);
+        return id != null ? id : register(osdId);
+    }
+
+    /** Numéro de l'OSD, -1 s'il n'a jamais été vu. */
+    static int find(String osdId) {
+        Integer id = ids.get(osdId);
+        return id != null ? id : -1;
+    }
+
+    static String name(int id) {
+        return names[id];
+    }
+
+    static int size() {
+        return names.length;
+    }
+
+    private static synchronized int register(String osdId) {
+        Integer id = ids.get(osdId);
+        if (id != null) return id;
+        String[] grown = Arrays.copyOf(names, names.length + 1);
+        grown[names.length] = osdId;
+        names = grown;             // publié avant le numéro : name() voit toujours la chaîne
+        ids.put(osdId, names.length - 1);
+        return names.length - 1;
+    }
+}
@@ -0,0 +1,156 @@
+package dir;
+
+import common.FileMeta;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index propriétaire → fichiers, avec le nombre de fichiers et d'octets de
+ * chaque propriétaire tenus à jour à chaque publication et suppression.
+ *
+ * Les clés de la table des fichiers sont "owner_nom" : un parcours de préfixe
+ * mêle "a" et "a_b", et un total par propriétaire demandait de parcourir tout
+ * le cluster. Ici la liste d'un propriétaire ne coûte que ses fichiers, son
+ * usage une lecture.
+ *
+ * Un propriétaire n'est chargé qu'au premier accès, par un parcours du préfixe
+ * "owner_" de la table (ses fichiers et ceux des propriétaires "owner_x"), et
+ * au plus MAX_OWNERS restent chargés, le moins récemment utilisé étant déchargé
+ * le premier : rien n'est relu au démarrage, et le tas ne garde que les
+ * propriétaires actifs. Les callbacks de MetaStore.save /
+ * delete, appelés après la modification de la table, ne tiennent à jour que
+ * les propriétaires chargés ; un propriétaire déchargé sera relu de la table.
+ */
+final class OwnerIndex {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final int MAX_OWNERS = Integer.getInteger("dir.ownerIndexOwners", 10_000);
+
+    /** Totaux d'un propriétaire, remplacés d'un bloc à chaque modification. */
+    static final class Usage {
+        static final Usage EMPTY = new Usage(0, 0);
+
+        final long files;
+        final long bytes;
+
+        Usage(long files, long bytes) {
+            this.files = files;
+            this.bytes = bytes;
+        }
+    }
+
+    /** Fichiers d'un propriétaire chargé, avec la taille comptée pour chacun ; modifié sous son verrou. */
+    private static final class Owner {
+        final ConcurrentSkipListMap<String, Long> names = new ConcurrentSkipListMap<>();
+        volatile Usage usage = Usage.EMPTY;
+        boolean loaded;
+
+        void add(String fileName, long size) {
+            Long counted = names.put(fileName, size);
+            Usage u = usage;
+            usage = counted == null
+                    ? new Usage(u.files + 1, u.bytes + size)
+                    : new Usage(u.files, u.bytes + size - counted);
+        }
+
+        void remove(String fileName) {
+            Long counted = names.remove(fileName);
+            if (counted == null) return;
+            Usage u = usage;
+            usage = new Usage(u.files - 1, u.bytes - counted);
+        }
+    }
+
+    private final FileTable files;
+    /** Propriétaires par ordre d'accès ; protégé par son verrou. */
+    private final LinkedHashMap<String, Owner> owners = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Owner> eldest) {
+            return size() > MAX_OWNERS;
+        }
+    };
+
+    OwnerIndex(FileTable files) {
+        this.files = files;
+    }
+
+    /**
+     * Publication de meta, en remplacement de previous (même clé) s'il existait.
+     * previous peut appartenir à un autre propriétaire : "a_b" + "c" et "a" + "b_c"
+     * partagent la clé "a_b_c".
+     */
+    void put(FileMeta meta, FileMeta previous) {
+        if (previous != null && !previous.ownerId.equals(meta.ownerId)) remove(previous);
+        Owner owner = loaded(meta.ownerId);
+        if (owner == null) return;
+        synchronized (owner) {
+            if (owner.loaded) owner.add(meta.fileName, size(meta));
+        }
+    }
+
+    void remove(FileMeta meta) {
+        Owner owner = loaded(meta.ownerId);
+        if (owner == null) return;
+        synchronized (owner) {
+            if (owner.loaded) owner.remove(meta.fileName);
+        }
+    }
+
+    /**
+     * Noms des fichiers du propriétaire, triés ; vue suivant les modifications.
+     * La table reste la référence : un nom listé peut désigner le fichier d'un
+     * autre propriétaire publié depuis sous la même clé (cf. put).
+     */
+    NavigableSet<String> fileNames(String ownerId) {
+        return load(ownerId).names.navigableKeySet();
+    }
+
+    Usage usage(String ownerId) {
+        return load(ownerId).usage;
+    }
+
+    /** Propriétaire s'il est en mémoire, null sinon. */
+    private Owner loaded(String ownerId) {
+        synchronized (owners) {
+            return owners.get(ownerId);
+        }
+    }
+
+    /** Propriétaire, chargé depuis la table au premier accès ; décharge le moins récemment utilisé au-delà de MAX_OWNERS. */
+    private Owner load(String ownerId) {
+        Owner owner;
+        synchronized (owners) {
+            owner = owners.computeIfAbsent(ownerId, id -> new Owner());
+        }
+        synchronized (owner) {
+            if (!owner.loaded) {
+                String prefix = ownerId + "_";
+                for (Map.Entry<String, FileMeta> e : files.scan(prefix, true)) {
+                    if (!e.getKey().startsWith(prefix)) break;
+                    FileMeta meta = e.getValue();
+                    if (ownerId.equals(meta.ownerId)) owner.add(meta.fileName, size(meta));
+                }
+                owner.loaded = true;
+            }
+        }
+        return owner;
+    }
+
+    static long size(FileMeta meta) {
+        return meta.totalSize > 0 ? meta.totalSize : meta.chunkCount() * (long) meta.chunkSize;
+    }
+
+    String getStats() {
+        long files = 0;
+        int loaded;
+        synchronized (owners) {
+            for (Owner owner : owners.values()) files += owner.usage.files;
+            loaded = owners.size();
+        }
+        return "=== Owners ===\n"
+                + "Owners      : " + loaded + " loaded (max " + MAX_OWNERS + "), " + files + " files indexed\n";
+    }
+}
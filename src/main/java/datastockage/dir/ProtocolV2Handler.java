@@ -0,0 +1,187 @@
+package dir;
+
+import common.DirProtocol;
+import common.DirProtocol.ChunkEntry;
+import common.DirProtocol.FileEntry;
+import common.DirProtocol.Frame;
+import common.DirProtocol.FrameWriter;
+import common.DirProtocol.OsdEntry;
+import common.DirProtocol.UsageEntry;
+import common.FileMeta;
+import common.SlaveInfo;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.function.Supplier;
+
+/**
+ * Côté serveur du protocole v2 (voir {@link DirProtocol}) : sert les requêtes
+ * d'une connexion négociée jusqu'à sa fermeture.
+ *
+ * Les listes parcourent la table des fichiers triée à partir du curseur et
+ * écrivent chaque enregistrement dès qu'il est lu : rien n'est accumulé, quelle
+ * que soit la taille de l'espace de noms. La liste d'un propriétaire et son
+ * usage passent par l'index des propriétaires : ils ne coûtent que ses fichiers.
+ */
+class ProtocolV2Handler {
+
+    private final FileTable files;
+    private final OwnerIndex owners;
+    private final Map<String, SlaveInfo>         osds;
+    private final Map<String, OSDHealth>         health;
+    private final Supplier<String>               stats;
+
+    ProtocolV2Handler(FileTable files,
+                      OwnerIndex owners,
+                      Map<String, SlaveInfo>         osds,
+                      Map<String, OSDHealth>         health,
+                      Supplier<String>               stats) {
+        this.files  = files;
+        this.owners = owners;
+        this.osds   = osds;
+        this.health = health;
+        this.stats  = stats;
+    }
+
+    void serve(DataInputStream dis, DataOutputStream dos) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(dis, 64 * 1024));
+        FrameWriter out = new FrameWriter(new DataOutputStream(new BufferedOutputStream(dos, 64 * 1024)));
+
+        while (true) {
+            Frame request;
+            try {
+                request = DirProtocol.readFrame(in);
+            } catch (EOFException e) {
+                return; // le client a fermé la connexion
+            } catch (SocketTimeoutException e) {
+                return; // inactive depuis SESSION_IDLE_MS : le thread est rendu
+            }
+            try {
+                switch (request.type) {
+                    case DirProtocol.OP_LIST_FILES -> {
+                        String ownerId = DirProtocol.readString(request.body);
+                        listFiles(out, ownerId, DirProtocol.readString(request.body), request.body.readInt());
+                    }
+                    case DirProtocol.OP_LIST_ALL ->
+                            listAll(out, DirProtocol.readString(request.body), request.body.readInt());
+                    case DirProtocol.OP_USAGE -> usage(out, DirProtocol.readString(request.body));
+                    case DirProtocol.OP_CHUNKS ->
+                            listChunks(out, DirProtocol.readString(request.body), request.body.readInt());
+                    case DirProtocol.OP_CLUSTER -> listOsds(out);
+                    case DirProtocol.OP_STATS -> {
+                        String text = stats.get();
+                        out.write(DirProtocol.REC_TEXT, b -> DirProtocol.writeString(b, text));
+                        out.end("");
+                    }
+                    default -> out.error("Requête inconnue: " + request.type);
+                }
+            } catch (EOFException e) {
+                out.error("Requête tronquée");
+            }
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  LISTES PAGINÉES
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Fichiers d'un propriétaire après le curseur (clé owner_nom du dernier envoyé). */
+    private void listFiles(FrameWriter out, String ownerId, String cursor, int limit) throws IOException {
+        String prefix = ownerId + "_";
+        NavigableSet<String> names = owners.fileNames(ownerId);
+        if (cursor.startsWith(prefix)) names = names.tailSet(cursor.substring(prefix.length()), false);
+        int page = pageSize(limit);
+        int sent = 0;
+        String last = "";
+
+        for (String fileName : names) {
+            String fileKey = prefix + fileName;
+            FileMeta meta = files.get(fileKey);
+            if (meta == null || !ownerId.equals(meta.ownerId)) continue;   // supprimé ou remplacé depuis
+            if (sent == page) {
+                out.end(last);
+                return;
+            }
+            out.write(DirProtocol.REC_FILE, toEntry(fileKey, meta)::write);
+            last = fileKey;
+            sent++;
+        }
+        out.end("");
+    }
+
+    /** Fichiers de tous les propriétaires après le curseur, triés par clé. */
+    private void listAll(FrameWriter out, String cursor, int limit) throws IOException {
+        int page = pageSize(limit);
+        int sent = 0;
+        String last = "";
+
+        for (Map.Entry<String, FileMeta> e : range(cursor)) {
+            FileMeta meta = e.getValue();
+            if (sent == page) {
+                out.end(last);
+                return;
+            }
+            out.write(DirProtocol.REC_FILE, toEntry(e.getKey(), meta)::write);
+            last = e.getKey();
+            sent++;
+        }
+        out.end("");
+    }
+
+    /** Chunks des fichiers après le curseur ; limit compte les fichiers. */
+    private void listChunks(FrameWriter out, String cursor, int limit) throws IOException {
+        int page = pageSize(limit);
+        int sent = 0;
+        String last = "";
+
+        for (Map.Entry<String, FileMeta> e : range(cursor)) {
+            if (sent == page) {
+                out.end(last);
+                return;
+            }
+            FileMeta meta = e.getValue();
+            for (String chunkId : meta.chunkIds()) {
+                List<String> locs = meta.chunkLocations().getOrDefault(chunkId, List.of());
+                ChunkEntry entry = new ChunkEntry(meta.fileName, chunkId, List.copyOf(locs));
+                out.write(DirProtocol.REC_CHUNK, entry::write);
+            }
+            last = e.getKey();
+            sent++;
+        }
+        out.end("");
+    }
+
+    private void listOsds(FrameWriter out) throws IOException {
+        for (SlaveInfo osd : osds.values()) {
+            OSDHealth h = health.get(osd.id);
+            OsdEntry entry = new OsdEntry(osd.id, h != null ? h.status.toString() : "UNKNOWN",
+                    osd.host, osd.port, h != null ? h.chunkCount.get() : 0, h != null ? h.queueDepth : 0);
+            out.write(DirProtocol.REC_OSD, entry::write);
+        }
+        out.end("");
+    }
+
+    /** Nombre de fichiers et octets d'un propriétaire, tenus à jour par l'index. */
+    private void usage(FrameWriter out, String ownerId) throws IOException {
+        OwnerIndex.Usage u = owners.usage(ownerId);
+        out.write(DirProtocol.REC_USAGE, new UsageEntry(ownerId, u.files, u.bytes)::write);
+        out.end("");
+    }
+
+    private Iterable<Map.Entry<String, FileMeta>> range(String cursor) {
+        return cursor.isEmpty() ? files.scan("", true) : files.scan(cursor, false);
+    }
+
+    private static int pageSize(int limit) {
+        return limit <= 0 ? DirProtocol.DEFAULT_PAGE : Math.min(limit, DirProtocol.MAX_PAGE);
+    }
+
+    static FileEntry toEntry(String fileKey, FileMeta meta) {
+        long totalSize = OwnerIndex.size(meta);
+        return new FileEntry(fileKey, meta.ownerId, meta.fileName, totalSize,
+                meta.chunkCount(), meta.chunkSize, meta.maxReplicas());
+    }
+}
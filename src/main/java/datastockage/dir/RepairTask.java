@@ -5,15 +5,12 @@ package dir;
  */
 public class RepairTask {
 
-    public final String   fileName;
     public final String   chunkId;
     public final int      currentReplicas;
     public final int      targetReplicas;
     public final long     createdAt;
 
-    public RepairTask(String fileName, String chunkId,
-                      int currentReplicas, int targetReplicas) {
-        this.fileName        = fileName;
+    public RepairTask(String chunkId, int currentReplicas, int targetReplicas) {
         this.chunkId         = chunkId;
         this.currentReplicas = currentReplicas;
         this.targetReplicas  = targetReplicas;
@@ -0,0 +1,111 @@
+package dir;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Liste des répliques d'un chunk, partagée par tous les fichiers qui le
+ * référencent : numéros d'OSD (OsdIds) dans un int[], quatre octets par
+ * réplique au lieu d'une chaîne par fichier et par chunk.
+ *
+ * Même contrat que Collections.synchronizedList : chaque appel est atomique,
+ * un parcours se fait sous synchronized (liste).
+ */
+final class ReplicaSet extends AbstractList<String> implements RandomAccess {
+
+    private int[] osds;
+    private int size;
+
+    ReplicaSet(Collection<String> initial) {
+        osds = new int[Math.max(initial.size(), 1)];
+        for (String id : initial) osds[size++] = OsdIds.intern(id);
+    }
+
+    @Override
+    public synchronized String get(int index) {
+        Objects.checkIndex(index, size);
+        return OsdIds.name(osds[index]);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized String set(int index, String osdId) {
+        Objects.checkIndex(index, size);
+        String old = OsdIds.name(osds[index]);
+        osds[index] = OsdIds.intern(osdId);
+        return old;
+    }
+
+    @Override
+    public synchronized void add(int index, String osdId) {
+        Objects.checkIndex(index, size + 1);
+        if (size == osds.length) osds = Arrays.copyOf(osds, size + 2);
+        System.arraycopy(osds, index, osds, index + 1, size - index);
+        osds[index] = OsdIds.intern(osdId);
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public synchronized String remove(int index) {
+        Objects.checkIndex(index, size);
+        String old = OsdIds.name(osds[index]);
+        System.arraycopy(osds, index + 1, osds, index, size - index - 1);
+        size--;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public synchronized int indexOf(Object o) {
+        int id = o instanceof String s ? OsdIds.find(s) : -1;
+        if (id < 0) return -1;
+        for (int i = 0; i < size; i++) {
+            if (osds[i] == id) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public synchronized boolean remove(Object o) {
+        int i = indexOf(o);
+        if (i < 0) return false;
+        remove(i);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeIf(Predicate<? super String> filter) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!filter.test(OsdIds.name(osds[i]))) osds[kept++] = osds[i];
+        }
+        boolean removed = kept != size;
+        if (removed) {
+            size = kept;
+            modCount++;
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void replaceAll(UnaryOperator<String> operator) {
+        for (int i = 0; i < size; i++) osds[i] = OsdIds.intern(operator.apply(OsdIds.name(osds[i])));
+    }
+
+    @Override
+    public synchronized void clear() {
+        size = 0;
+        modCount++;
+    }
+}
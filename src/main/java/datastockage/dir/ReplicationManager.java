@@ -1,12 +1,10 @@
 package dir;
 
-import common.FileMeta;
+import common.ErasureCode;
+import common.OSDClient;
 import common.SlaveInfo;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
@@ -23,17 +21,23 @@ import java.util.stream.Collectors;
  *   - 2 OSD DOWN  → chunk toujours lisible (1 copie restante)
  *   - 3 OSD DOWN  → chunk perdu (cas extrême)
  *   + auto-réparation dès qu'un OSD revient UP
+ *
+ * Chunks codés k+m (ErasureCode) : chaque fragment perdu est recalculé à partir
+ * de k fragments survivants et réécrit sur un OSD qui ne porte aucun autre
+ * fragment du chunk (pas de copie de répliques entières).
  */
 public class ReplicationManager {
 
     // ── Configuration ────────────────────────────────────────────────────────
     public static final int REPLICATION_FACTOR = 3;   // copies par chunk
+    // true : le DIR n'envoie chaque chunk qu'au premier OSD, qui relaie aux suivants
+    public static final boolean CHAIN_REPLICATION = true;
 
     // ── État partagé (injecté depuis DirServer) ───────────────────────────────
     private final Map<String, SlaveInfo>  osds;
     private final Map<String, OSDHealth>  health;
-    private final Map<String, FileMeta>   files;
     private final MetaStore               metaStore;
+    private final ChunkRegistry           registry;
 
     // ── File de réparation ───────────────────────────────────────────────────
     private final BlockingQueue<RepairTask> repairQueue = new LinkedBlockingQueue<>();
@@ -44,12 +48,12 @@ public class ReplicationManager {
 
     public ReplicationManager(Map<String, SlaveInfo> osds,
                               Map<String, OSDHealth>  health,
-                              Map<String, FileMeta>   files,
-                              MetaStore               metaStore) {
+                              MetaStore               metaStore,
+                              ChunkRegistry           registry) {
         this.osds      = osds;
         this.health    = health;
-        this.files     = files;
         this.metaStore = metaStore;
+        this.registry  = registry;
     }
 
     // ════════════════════════════════════════════════════════════════════════
@@ -111,23 +115,23 @@ public class ReplicationManager {
     /**
      * Pour un OSD tombé, trouve tous les chunks qui y étaient stockés
      * et les ajoute à la file de réparation.
+     *
+     * Le parcours se fait sur l'index des chunks (une entrée par chunk, même
+     * partagé par plusieurs fichiers) : il n'oblige pas à construire la liste
+     * des chunks de chaque fichier.
      */
     private void scheduleRepairForOSD(String deadOsdId) {
-        for (FileMeta meta : files.values()) {
-            for (String chunkId : meta.chunkIds) {
-                List<String> locs = meta.chunkLocations.get(chunkId);
-                if (locs != null && locs.contains(deadOsdId)) {
-                    int alive = countAliveReplicas(locs);
-                    if (alive < REPLICATION_FACTOR) {
-                        RepairTask task = new RepairTask(
-                                meta.fileName, chunkId,
-                                alive, REPLICATION_FACTOR);
-                        repairQueue.offer(task);
-                        System.out.println("[HealthChecker] Queued repair: " + task);
-                    }
+        registry.forEachChunk((chunkId, locs) -> {
+            if (locs.contains(deadOsdId)) {
+                int alive = countAliveReplicas(locs);
+                int target = targetCopies(chunkId);
+                if (alive < target) {
+                    RepairTask task = new RepairTask(chunkId, alive, target);
+                    repairQueue.offer(task);
+                    System.out.println("[HealthChecker] Queued repair: " + task);
                 }
             }
-        }
+        });
     }
 
     // ════════════════════════════════════════════════════════════════════════
@@ -163,27 +167,26 @@ public class ReplicationManager {
      * Scan tous les chunks et enfile ceux qui sont sous-répliqués.
      */
     void fullRepairScan() {
-        int queued = 0;
-        for (FileMeta meta : files.values()) {
-            for (String chunkId : meta.chunkIds) {
-                List<String> locs = meta.chunkLocations.get(chunkId);
-                if (locs == null) continue;
-
-                // Nettoyer les entrées d'OSD qui n'existent plus
+        int[] queued = {0};
+        registry.forEachChunk((chunkId, locs) -> {
+            // Nettoyer les entrées d'OSD qui n'existent plus
+            // (fragments : l'emplacement est conservé et marqué perdu)
+            if (ErasureCode.ofChunk(chunkId) == null) {
                 locs.removeIf(id -> !osds.containsKey(id));
+            } else {
+                locs.replaceAll(id -> osds.containsKey(id) ? id : ErasureCode.LOST);
+            }
 
-                int alive = countAliveReplicas(locs);
-                if (alive < REPLICATION_FACTOR) {
-                    RepairTask task = new RepairTask(
-                            meta.fileName, chunkId,
-                            alive, REPLICATION_FACTOR);
-                    repairQueue.offer(task);
-                    queued++;
-                }
+            int alive = countAliveReplicas(locs);
+            int target = targetCopies(chunkId);
+            if (alive < target) {
+                repairQueue.offer(new RepairTask(chunkId, alive, target));
+                queued[0]++;
             }
-        }
-        if (queued > 0)
-            System.out.println("[RepairScanner] " + queued + " chunk(s) queued for repair");
+        });
+        int queuedCount = queued[0];
+        if (queuedCount > 0)
+            System.out.println("[RepairScanner] " + queuedCount + " chunk(s) queued for repair");
     }
 
     /**
@@ -191,12 +194,16 @@ public class ReplicationManager {
      * copie le chunk depuis un OSD vivant vers de nouveaux OSD.
      */
     private void executeRepair(RepairTask task) {
-        FileMeta meta = files.get(task.fileName);
-        if (meta == null) return;
-
-        List<String> locs = meta.chunkLocations.get(task.chunkId);
+        // Chunk supprimé entre-temps (plus aucune référence) : rien à réparer
+        List<String> locs = registry.replicas(task.chunkId);
         if (locs == null) return;
 
+        ErasureCode ec = ErasureCode.ofChunk(task.chunkId);
+        if (ec != null) {
+            repairFragments(task.chunkId, ec, locs);
+            return;
+        }
+
         // Trouver une source vivante
         SlaveInfo source = findAliveSource(locs);
         if (source == null) {
@@ -229,28 +236,101 @@ public class ReplicationManager {
         }
 
         // Envoyer vers les nouvelles cibles
-        boolean anySuccess = false;
-        for (SlaveInfo target : targets) {
-            if (sendChunk(target, task.chunkId, chunkData)) {
-                synchronized (locs) {
-                    if (!locs.contains(target.id)) locs.add(target.id);
+        List<SlaveInfo> stored = new ArrayList<>();
+        if (CHAIN_REPLICATION) {
+            List<String> ids = OSDClient.storeChain(targets, task.chunkId, chunkData, 0, chunkData.length);
+            for (SlaveInfo target : targets) {
+                if (ids.contains(target.id)) {
+                    health.get(target.id).chunkCount.incrementAndGet();
+                    stored.add(target);
                 }
-                anySuccess = true;
-                totalRepairs++;
-                System.out.println("[RepairEngine] ✅ Re-replicated chunk "
-                        + task.chunkId + " → " + target.id
-                        + " (" + countAliveReplicas(locs) + "/"
-                        + REPLICATION_FACTOR + " replicas)");
+            }
+        } else {
+            for (SlaveInfo target : targets) {
+                if (sendChunk(target, task.chunkId, chunkData)) stored.add(target);
             }
         }
 
-        // Persister les nouvelles locations si réparation réussie
-        if (anySuccess) {
+        for (SlaveInfo target : stored) {
+            synchronized (locs) {
+                if (!locs.contains(target.id)) locs.add(target.id);
+            }
+            // Une petite entrée de journal par réplique, plutôt que le FileMeta entier
             try {
-                metaStore.save(meta);
+                metaStore.replicaAdded(task.chunkId, target.id);
             } catch (Exception e) {
                 System.err.println("[RepairEngine] Failed to persist meta: " + e.getMessage());
             }
+            totalRepairs++;
+            System.out.println("[RepairEngine] ✅ Re-replicated chunk "
+                    + task.chunkId + " → " + target.id
+                    + " (" + countAliveReplicas(locs) + "/"
+                    + REPLICATION_FACTOR + " replicas)");
+        }
+    }
+
+    /**
+     * Reconstruit les fragments manquants d'un chunk codé à partir de k fragments
+     * survivants, et les place sur des OSD ne portant encore aucun fragment du chunk.
+     */
+    private void repairFragments(String chunkId, ErasureCode ec, List<String> locs) {
+        List<String> slots;
+        synchronized (locs) {
+            slots = new ArrayList<>(locs);
+        }
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < slots.size(); i++) {
+            OSDHealth h = health.get(slots.get(i));
+            if (h == null || !h.isAlive()) missing.add(i);
+        }
+        if (missing.isEmpty()) return; // déjà réparé entre-temps
+
+        // Lire k fragments survivants
+        byte[][] fragments = new byte[ec.totalShards()][];
+        int got = 0;
+        for (int i = 0; i < slots.size() && got < ec.dataShards; i++) {
+            if (missing.contains(i)) continue;
+            try {
+                fragments[i] = fetchChunk(osds.get(slots.get(i)), ErasureCode.fragmentId(chunkId, i));
+                got++;
+            } catch (Exception e) {
+                System.out.println("[RepairEngine] Fragment " + i + " unreadable on " + slots.get(i));
+            }
+        }
+        if (got < ec.dataShards) {
+            System.out.println("[RepairEngine] ❌ Only " + got + "/" + ec.dataShards
+                    + " fragments left for chunk: " + chunkId);
+            failedRepairs++;
+            return;
+        }
+        ec.reconstruct(fragments);
+
+        // Un fragment par OSD : exclure ceux qui portent déjà un fragment vivant
+        List<String> occupied = new ArrayList<>(slots);
+        for (int i : missing) occupied.set(i, ErasureCode.LOST);
+        List<SlaveInfo> targets = pickTargets(occupied, missing.size());
+        if (targets.size() < missing.size()) {
+            System.out.println("[RepairEngine] ⚠️ Not enough alive OSD to place "
+                    + missing.size() + " fragment(s) of " + chunkId);
+        }
+
+        for (int t = 0; t < targets.size(); t++) {
+            int slot = missing.get(t);
+            SlaveInfo target = targets.get(t);
+            byte[] fragment = fragments[slot];
+            if (!sendChunk(target, ErasureCode.fragmentId(chunkId, slot), fragment)) continue;
+            synchronized (locs) {
+                locs.set(slot, target.id);
+            }
+            try {
+                metaStore.slotPlaced(chunkId, slot, target.id);
+            } catch (Exception e) {
+                System.err.println("[RepairEngine] Failed to persist meta: " + e.getMessage());
+            }
+            totalRepairs++;
+            System.out.println("[RepairEngine] ✅ Rebuilt fragment " + slot + " of chunk "
+                    + chunkId + " → " + target.id + " (" + countAliveReplicas(locs) + "/"
+                    + ec.totalShards() + " fragments)");
         }
     }
 
@@ -265,7 +345,7 @@ public class ReplicationManager {
     public List<SlaveInfo> pickForWrite(int n) {
         List<SlaveInfo> candidates = health.entrySet().stream()
                 .filter(e -> e.getValue().isAlive())
-                .sorted(Comparator.comparingInt(e -> e.getValue().chunkCount))
+                .sorted(Comparator.comparingInt(e -> e.getValue().chunkCount.get()))
                 .map(e -> osds.get(e.getKey()))
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
@@ -286,7 +366,7 @@ public class ReplicationManager {
         List<SlaveInfo> candidates = health.entrySet().stream()
                 .filter(e -> e.getValue().status == OSDHealth.Status.UP)
                 .filter(e -> !existing.contains(e.getKey()))
-                .sorted(Comparator.comparingInt(e -> e.getValue().chunkCount))
+                .sorted(Comparator.comparingInt(e -> e.getValue().chunkCount.get()))
                 .map(e -> osds.get(e.getKey()))
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
@@ -297,7 +377,7 @@ public class ReplicationManager {
                     .filter(e -> e.getValue().status == OSDHealth.Status.SUSPECTED)
                     .filter(e -> !existing.contains(e.getKey()))
                     .filter(e -> candidates.stream().noneMatch(s -> s.id.equals(e.getKey())))
-                    .sorted(Comparator.comparingInt(e -> e.getValue().chunkCount))
+                    .sorted(Comparator.comparingInt(e -> e.getValue().chunkCount.get()))
                     .map(e -> osds.get(e.getKey()))
                     .filter(Objects::nonNull)
                     .collect(Collectors.toList());
@@ -311,6 +391,12 @@ public class ReplicationManager {
     //  HELPERS
     // ════════════════════════════════════════════════════════════════════════
 
+    /** Copies attendues : REPLICATION_FACTOR, ou k + m fragments pour un chunk codé. */
+    private static int targetCopies(String chunkId) {
+        ErasureCode ec = ErasureCode.ofChunk(chunkId);
+        return ec == null ? REPLICATION_FACTOR : ec.totalShards();
+    }
+
     private int countAliveReplicas(List<String> locs) {
         int count = 0;
         for (String id : locs) {
@@ -331,46 +417,15 @@ public class ReplicationManager {
         return null;
     }
 
-   private byte[] fetchChunk(SlaveInfo s, String chunkId) throws Exception {
-    try (Socket socket = new Socket(s.host, s.port);
-         DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-         DataInputStream dis = new DataInputStream(socket.getInputStream())) {
-
-        dos.writeUTF("GET_CHUNK");
-        dos.writeUTF(chunkId);
-
-        String status = dis.readUTF();
-        if (!"OK".equals(status)) throw new IOException("Chunk not found");
-
-        int size = dis.readInt();
-        byte[] data = new byte[size];
-        dis.readFully(data);
-        return data;
+    private byte[] fetchChunk(SlaveInfo s, String chunkId) throws IOException {
+        return OSDClient.fetch(s, chunkId);
     }
-}
-
-private boolean sendChunk(SlaveInfo osd, String chunkId, byte[] chunk) {
-    try (Socket socket = new Socket(osd.host, osd.port);
-         DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-         DataInputStream dis = new DataInputStream(socket.getInputStream())) {
-
-        dos.writeUTF("STORE_CHUNK");
-        dos.writeUTF(chunkId);
-        dos.writeInt(chunk.length);
-        dos.write(chunk);
-        dos.flush();
 
-        String resp = dis.readUTF();
-        if (!"OK".equals(resp)) return false;
-
-        health.get(osd.id).chunkCount++;
+    private boolean sendChunk(SlaveInfo osd, String chunkId, byte[] chunk) {
+        if (!OSDClient.store(osd, chunkId, chunk, 0, chunk.length)) return false;
+        health.get(osd.id).chunkCount.incrementAndGet();
         return true;
-
-    } catch (Exception e) {
-        System.out.println("[RepairEngine] Send failed → " + osd.id + ": " + e.getMessage());
-        return false;
     }
-}
 
     // ── Stats publiques ───────────────────────────────────────────────────────
 
@@ -378,6 +433,7 @@ private boolean sendChunk(SlaveInfo osd, String chunkId, byte[] chunk) {
         StringBuilder sb = new StringBuilder();
         sb.append("=== Replication Stats ===\n");
         sb.append("Factor      : ").append(REPLICATION_FACTOR).append("\n");
+        sb.append("Mode        : ").append(CHAIN_REPLICATION ? "chain" : "fan-out").append("\n");
         sb.append("Repairs OK  : ").append(totalRepairs).append("\n");
         sb.append("Repairs KO  : ").append(failedRepairs).append("\n");
         sb.append("Queue size  : ").append(repairQueue.size()).append("\n\n");
@@ -386,7 +442,7 @@ private boolean sendChunk(SlaveInfo osd, String chunkId, byte[] chunk) {
         for (OSDHealth h : health.values()) {
             sb.append(h.osdId)
                     .append(" | ").append(h.status)
-                    .append(" | chunks=").append(h.chunkCount)
+                    .append(" | chunks=").append(h.chunkCount.get())
                     .append("\n");
         }
         return sb.toString();
@@ -0,0 +1,367 @@
+package dir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run trié et immuable de la table des fichiers LSM (cf. LsmFileTable).
+ *
+ *   run-<minSeq>-<maxSeq>.sst
+ *     blocs    entrées triées par clé : [UTF clé][byte type][int len][valeur]
+ *     filtre   bloom : [int k][int n][long × n]
+ *     index    première clé et position de chaque bloc : [int n] n × [UTF clé][long pos][int len]
+ *     pied     [long minSeq][long maxSeq][long entrées][long filtre][long index][int MAGIC]
+ *
+ * Le filtre et l'index restent en mémoire (BLOOM_BITS bits par entrée, une clé
+ * par bloc de BLOCK_SIZE) : une lecture coûte au plus un bloc lu sur le disque,
+ * aucun pour une clé absente dans la plupart des cas. minSeq..maxSeq sont les
+ * numéros des vidages couverts : un run compacté couvre ceux de ses sources.
+ *
+ * Un run est compté : une référence pour la table, une par lecture en cours
+ * (acquire/release). Un run remplacé (retire) n'est fermé et supprimé qu'une
+ * fois la dernière lecture rendue.
+ */
+final class SortedRun {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final int BLOCK_SIZE = Integer.getInteger("dir.lsmBlockBytes", 16 * 1024);
+    static final int BLOOM_BITS = 10;
+    static final int BLOOM_HASHES = 7;
+
+    /** Valeur d'une suppression, comparée par identité. */
+    static final byte[] DELETED = new byte[0];
+
+    private static final int  MAGIC  = 0x4C534D31;   // "LSM1"
+    private static final int  FOOTER = 5 * Long.BYTES + Integer.BYTES;
+    private static final byte PUT    = 0;
+    private static final byte DELETE = 1;
+
+    final Path path;
+    final long minSeq;
+    final long maxSeq;
+    final long entries;
+    final long bytes;
+    private final FileChannel channel;
+    private final long[]   bloom;
+    private final int      hashes;
+    private final String[] blockKeys;
+    private final long[]   blockPos;
+    private final int[]    blockLen;
+    private final AtomicInteger refs = new AtomicInteger(1);   // la table, plus les lectures en cours
+
+    private SortedRun(Path path, FileChannel channel, long minSeq, long maxSeq, long entries, long bytes,
+                      long[] bloom, int hashes, String[] blockKeys, long[] blockPos, int[] blockLen) {
+        this.path = path;
+        this.channel = channel;
+        this.minSeq = minSeq;
+        this.maxSeq = maxSeq;
+        this.entries = entries;
+        this.bytes = bytes;
+        this.bloom = bloom;
+        this.hashes = hashes;
+        this.blockKeys = blockKeys;
+        this.blockPos = blockPos;
+        this.blockLen = blockLen;
+    }
+
+    static String name(long minSeq, long maxSeq) {
+        return String.format("run-%06d-%06d.sst", minSeq, maxSeq);
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  ÉCRITURE
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Écrit un run depuis des entrées triées par clé (valeur DELETED = suppression),
+     * dans un fichier temporaire renommé une fois sur le disque ; le renommage est
+     * durable (fsync du répertoire) quand write() rend la main, avant que l'image
+     * ne retienne le run ou que les sources d'une compaction ne soient supprimées.
+     */
+    static SortedRun write(Path dir, long minSeq, long maxSeq, long expected,
+                           Iterator<Map.Entry<String, byte[]>> entries) throws IOException {
+        Path path = dir.resolve(name(minSeq, maxSeq));
+        Path tmp = dir.resolve(path.getFileName() + ".tmp");
+
+        long bits = Math.max(64, Math.max(1, expected) * BLOOM_BITS);
+        long[] bloom = new long[(int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64)];
+        List<String> keys = new ArrayList<>();
+        List<long[]> blocks = new ArrayList<>();   // {position, longueur}
+
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+            DataOutputStream b = new DataOutputStream(block);
+            long offset = 0;
+            long count = 0;
+            String first = null;
+            while (entries.hasNext()) {
+                Map.Entry<String, byte[]> e = entries.next();
+                if (block.size() == 0) first = e.getKey();
+                b.writeUTF(e.getKey());
+                if (e.getValue() == DELETED) {
+                    b.writeByte(DELETE);
+                } else {
+                    b.writeByte(PUT);
+                    b.writeInt(e.getValue().length);
+                    b.write(e.getValue());
+                }
+                addToBloom(bloom, BLOOM_HASHES, e.getKey());
+                count++;
+                if (block.size() >= BLOCK_SIZE) {
+                    keys.add(first);
+                    blocks.add(new long[]{offset, block.size()});
+                    offset += block.size();
+                    block.writeTo(out);
+                    block.reset();
+                }
+            }
+            if (block.size() > 0) {
+                keys.add(first);
+                blocks.add(new long[]{offset, block.size()});
+                offset += block.size();
+                block.writeTo(out);
+            }
+
+            long bloomOffset = offset;
+            out.writeInt(BLOOM_HASHES);
+            out.writeInt(bloom.length);
+            for (long w : bloom) out.writeLong(w);
+
+            long indexOffset = bloomOffset + 2 * Integer.BYTES + (long) bloom.length * Long.BYTES;
+            out.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out.writeUTF(keys.get(i));
+                out.writeLong(blocks.get(i)[0]);
+                out.writeInt((int) blocks.get(i)[1]);
+            }
+
+            out.writeLong(minSeq);
+            out.writeLong(maxSeq);
+            out.writeLong(count);
+            out.writeLong(bloomOffset);
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dir);
+        return open(path);
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  LECTURE
+    // ════════════════════════════════════════════════════════════════════════
+
+    static SortedRun open(Path path) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = ch.size();
+            if (size < FOOTER) throw new IOException("Run tronqué: " + path.getFileName());
+            ByteBuffer footer = read(ch, size - FOOTER, FOOTER);
+            long minSeq = footer.getLong();
+            long maxSeq = footer.getLong();
+            long entries = footer.getLong();
+            long bloomOffset = footer.getLong();
+            long indexOffset = footer.getLong();
+            if (footer.getInt() != MAGIC) throw new IOException("Run invalide: " + path.getFileName());
+
+            ByteBuffer b = read(ch, bloomOffset, (int) (indexOffset - bloomOffset));
+            int hashes = b.getInt();
+            long[] bloom = new long[b.getInt()];
+            b.asLongBuffer().get(bloom);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    read(ch, indexOffset, (int) (size - FOOTER - indexOffset)).array()));
+            int n = in.readInt();
+            String[] keys = new String[n];
+            long[] pos = new long[n];
+            int[] len = new int[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = in.readUTF();
+                pos[i] = in.readLong();
+                len[i] = in.readInt();
+            }
+            return new SortedRun(path, ch, minSeq, maxSeq, entries, size, bloom, hashes, keys, pos, len);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /** Faux seulement si la clé n'est sûrement pas dans le run. */
+    boolean mightContain(String key) {
+        long h = hash(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long nbits = (long) bloom.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % nbits;
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /** Valeur de la clé, DELETED si elle a été supprimée, null si le run ne la contient pas. */
+    byte[] get(String key) throws IOException {
+        int b = floorBlock(key);
+        if (b < 0) return null;
+        DataInputStream in = block(b);
+        while (in.available() > 0) {
+            int c = in.readUTF().compareTo(key);
+            byte kind = in.readByte();
+            if (c > 0) return null;
+            if (kind == DELETE) {
+                if (c == 0) return DELETED;
+                continue;
+            }
+            int len = in.readInt();
+            if (c == 0) {
+                byte[] value = new byte[len];
+                in.readFully(value);
+                return value;
+            }
+            in.skipBytes(len);
+        }
+        return null;
+    }
+
+    /** Entrées à partir de from (incluse ou non), suppressions comprises. */
+    Iterator<Map.Entry<String, byte[]>> iterator(String from, boolean inclusive) {
+        return new Iterator<>() {
+            private int blockIndex = Math.max(0, floorBlock(from));
+            private DataInputStream in;
+            private Map.Entry<String, byte[]> next = advance();
+
+            private Map.Entry<String, byte[]> advance() {
+                try {
+                    while (true) {
+                        while (in == null || in.available() == 0) {
+                            if (blockIndex >= blockKeys.length) return null;
+                            in = block(blockIndex++);
+                        }
+                        String key = in.readUTF();
+                        byte kind = in.readByte();
+                        byte[] value = DELETED;
+                        if (kind == PUT) {
+                            value = new byte[in.readInt()];
+                            in.readFully(value);
+                        }
+                        int c = key.compareTo(from);
+                        if (c > 0 || (c == 0 && inclusive)) return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, byte[]> next() {
+                if (next == null) throw new NoSuchElementException();
+                Map.Entry<String, byte[]> e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+
+    /** Prend une référence pour une lecture ; faux si le run est déjà fermé. */
+    boolean acquire() {
+        while (true) {
+            int r = refs.get();
+            if (r == 0) return false;
+            if (refs.compareAndSet(r, r + 1)) return true;
+        }
+    }
+
+    /** Rend une référence ; la dernière ferme et supprime le run retiré. */
+    void release() {
+        if (refs.decrementAndGet() > 0) return;
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("[LSM] Suppression impossible: " + path.getFileName() + " → " + e.getMessage());
+        }
+    }
+
+    /** Run remplacé par une compaction : supprimé quand plus aucune lecture ne le tient. */
+    void retire() {
+        release();
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    // ─── helpers ─────────────────────────────────────────────────────────────
+
+    /** Rend les renommages du répertoire durables (sans effet là où un répertoire ne s'ouvre pas). */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** Dernier bloc dont la première clé est ≤ key, -1 si key précède tout le run. */
+    private int floorBlock(String key) {
+        int lo = 0;
+        int hi = blockKeys.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockKeys[mid].compareTo(key) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private DataInputStream block(int i) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(read(channel, blockPos[i], blockLen[i]).array()));
+    }
+
+    private static ByteBuffer read(FileChannel ch, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) throw new EOFException("Run tronqué");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void addToBloom(long[] bloom, int hashes, String key) {
+        long h = hash(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long nbits = (long) bloom.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % nbits;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /** FNV-1a 64 bits sur les caractères de la clé. */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,156 @@
+package dir;
+
+import common.ChunkCodec;
+import common.ChunkSizePolicy;
+import common.ContentHash;
+import common.FileMeta;
+import common.OSDClient;
+import common.SlaveInfo;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Pipeline d'upload en étages :
+ *
+ *  1. Réception  — le thread de connexion lit le flux client
+ *  2. Découpage  — les octets sont accumulés directement dans un buffer de chunk
+ *  3. Compression — chunk compressé si l'échantillonnage le juge utile (ChunkCodec)
+ *  4. Réplication — chaque chunk complet part en parallèle vers ses OSD cibles
+ *                  (ou vers la tête de chaîne si CHAIN_REPLICATION est actif)
+ *
+ * Les chunks sont identifiés par l'empreinte de leur contenu : un chunk que le
+ * cluster possède déjà n'est pas renvoyé, seules ses références sont ajoutées.
+ * Chaque chunk soumis est réservé dans le ChunkRegistry jusqu'à release(),
+ * après la publication ou l'abandon du fichier.
+ *
+ * Au plus MAX_IN_FLIGHT chunks, et MAX_IN_FLIGHT_BYTES octets, sont en cours de
+ * réplication pour un même upload. Quand la limite est atteinte, submit() bloque
+ * le lecteur : il arrête de lire la socket et TCP ralentit l'émetteur
+ * (backpressure). La mémoire reste donc bornée quelle que soit la taille du
+ * fichier, y compris avec des chunks de 64 Mio.
+ */
+class UploadPipeline {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final int  MAX_IN_FLIGHT       = 8;            // chunks en vol par upload
+    static final long MAX_IN_FLIGHT_BYTES = 128L << 20;   // octets en vol par upload
+
+    // Pool partagé par tous les uploads pour les écritures vers les OSD
+    private static final ExecutorService SENDERS = Executors.newFixedThreadPool(16, r -> {
+        Thread t = new Thread(r, "upload-sender");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ReplicationManager     replication;
+    private final ChunkRegistry          registry;
+    private final Map<String, OSDHealth> health;
+    private final FileMeta               meta;
+
+    private final Semaphore inFlight;
+    private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+    private final List<String> unstored = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> reserved = new ArrayList<>();
+
+    UploadPipeline(ReplicationManager replication, ChunkRegistry registry,
+                   Map<String, OSDHealth> health, FileMeta meta) {
+        this.replication = replication;
+        this.registry    = registry;
+        this.health      = health;
+        this.meta        = meta;
+        this.inFlight    = new Semaphore(ChunkSizePolicy.fit(MAX_IN_FLIGHT_BYTES, meta.chunkSize, MAX_IN_FLIGHT));
+    }
+
+    /**
+     * Enregistre le chunk dans le FileMeta (ordre préservé) puis lance
+     * sa réplication en arrière-plan. Bloque tant que la fenêtre est pleine.
+     */
+    void submit(byte[] chunk, int length) throws InterruptedException, IOException {
+        String chunkId = ContentHash.of(chunk, 0, length);
+        List<String> known = registry.reserve(chunkId);
+        reserved.add(chunkId);
+        meta.chunkIds().add(chunkId);
+
+        if (known != null) {
+            meta.chunkLocations().put(chunkId, known);
+            System.out.println("[DIR] Chunk " + chunkId.substring(0, 8) + "... déjà stocké (dedup)");
+            return;
+        }
+
+        inFlight.acquire();
+
+        ChunkCodec.Encoded enc = ChunkCodec.encode(chunk, length);
+        if (!ChunkCodec.NONE.equals(enc.codec)) meta.chunkCodecs().put(chunkId, enc.codec);
+
+        List<SlaveInfo> targets = replication.pickForWrite(ReplicationManager.REPLICATION_FACTOR);
+        List<String> locs = Collections.synchronizedList(new ArrayList<>());
+        meta.chunkLocations().put(chunkId, locs);
+
+        CompletableFuture<?>[] sends;
+        if (ReplicationManager.CHAIN_REPLICATION) {
+            // Un seul envoi par chunk : les OSD se relaient le flux
+            sends = new CompletableFuture<?>[] { CompletableFuture.runAsync(() -> {
+                for (String id : OSDClient.storeChain(targets, chunkId, enc.data, 0, enc.length)) {
+                    stored(locs, id);
+                }
+            }, SENDERS) };
+        } else {
+            sends = new CompletableFuture<?>[targets.size()];
+            for (int i = 0; i < targets.size(); i++) {
+                SlaveInfo s = targets.get(i);
+                sends[i] = CompletableFuture.runAsync(() -> {
+                    if (OSDClient.store(s, chunkId, enc.data, 0, enc.length)) stored(locs, s.id);
+                }, SENDERS);
+            }
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(sends).whenComplete((v, ex) -> {
+            inFlight.release();
+            if (locs.isEmpty()) unstored.add(chunkId);
+            System.out.println("[DIR] Chunk " + chunkId.substring(0, 8) + "... stored on "
+                    + locs.size() + " OSD (" + enc.codec + ", " + enc.length + "/" + length + " bytes)");
+        });
+        synchronized (pending) {
+            pending.add(all);
+        }
+    }
+
+    /**
+     * Attend la fin de la réplication de tous les chunks soumis. Échoue si un
+     * chunk n'a été écrit sur aucun OSD : le fichier ne serait pas relisible.
+     */
+    void finish() throws InterruptedException, IOException {
+        CompletableFuture<?>[] all;
+        synchronized (pending) {
+            all = pending.toArray(new CompletableFuture<?>[0]);
+        }
+        try {
+            CompletableFuture.allOf(all).get();
+        } catch (ExecutionException e) {
+            System.err.println("[DIR] Upload pipeline error: " + e.getCause());
+        }
+        if (!unstored.isEmpty()) {
+            throw new IOException(unstored.size() + " chunk(s) stockés sur aucun OSD, dont "
+                    + unstored.get(0).substring(0, 8) + "...");
+        }
+    }
+
+    /**
+     * Libère les réservations de l'upload, une fois le fichier publié ou abandonné.
+     *
+     * @return les chunks devenus orphelins entre-temps, à supprimer des OSD
+     */
+    Map<String, List<String>> release() {
+        Map<String, List<String>> orphans = registry.release(reserved);
+        reserved.clear();
+        return orphans;
+    }
+
+    private void stored(List<String> locs, String osdId) {
+        locs.add(osdId);
+        OSDHealth h = health.get(osdId);
+        if (h != null) h.chunkCount.incrementAndGet();
+    }
+}
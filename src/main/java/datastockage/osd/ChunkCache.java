@@ -0,0 +1,355 @@
+package osd;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache des chunks lus souvent, hors du tas Java.
+ *
+ * La mémoire (-Dosd.cacheBytes) est prise par dalles directes de SLAB_SIZE,
+ * allouées au fur et à mesure du remplissage puis gardées, et découpée en blocs
+ * de BLOCK_SIZE : un chunk en cache occupe quelques blocs, sans allocation ni
+ * travail pour le GC par lecture.
+ *
+ * Une lecture absente du cache est servie depuis le disque (transferTo) ; un
+ * chunk manqué une deuxième fois parmi les derniers manqués (autant que de blocs)
+ * est copié en cache en tâche de fond (FILLER), hors du chemin de la requête.
+ *
+ * Éviction SLRU, résistante aux parcours : un chunk copié en cache entre en
+ * probation ; il ne passe dans la partie protégée (PROTECTED_RATIO de la capacité)
+ * qu'à sa lecture suivante. Une réparation ou une vérification qui lit tout le
+ * disque une fois ne touche pas au cache.
+ *
+ * Une lecture servie depuis le cache garde ses blocs réservés jusqu'à la fin de
+ * l'envoi : un chunk évincé entre-temps ne libère ses blocs qu'après.
+ */
+final class ChunkCache {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final long   CAPACITY        = Long.getLong("osd.cacheBytes", 128L << 20);
+    static final int    BLOCK_SIZE      = 64 * 1024;
+    static final int    SLAB_SIZE       = 64 << 20;
+    static final double PROTECTED_RATIO = 0.8;
+    static final int    FILL_QUEUE      = 256;
+
+    // Copies en cache des chunks manqués deux fois ; au-delà de FILL_QUEUE en attente, abandonnées
+    private static final ThreadPoolExecutor FILLER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(FILL_QUEUE), r -> {
+                Thread t = new Thread(r, "osd-cache-fill");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final ByteBuffer[] slabs;
+    private final int          blocksPerSlab;
+    private final int          totalBlocks;
+    private final int[]        freeBlocks;
+    private int                freeCount;
+    private final long         protectedCapacity;
+    private final long         maxEntry;
+
+    // Ordre d'insertion = ordre LRU : un accès retire puis remet en queue
+    private final LinkedHashMap<String, Entry> probation  = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> protectedLru = new LinkedHashMap<>();
+    private long protectedBytes;
+    // Chunks manqués une fois (ordre d'accès), et copies en cours : invalidate() retire la
+    // marque d'une copie, qui n'est alors pas insérée
+    private final LinkedHashMap<String, Boolean> ghosts  = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Object>            filling = new HashMap<>();
+    private final int                            ghostEntries;
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicLong hits      = new AtomicLong();
+    private final AtomicLong misses    = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loads     = new AtomicLong();
+
+    ChunkCache() {
+        int blocks = (int) Math.min(Integer.MAX_VALUE, CAPACITY / BLOCK_SIZE);
+        this.blocksPerSlab = SLAB_SIZE / BLOCK_SIZE;
+        this.slabs = new ByteBuffer[(blocks + blocksPerSlab - 1) / blocksPerSlab];
+        this.totalBlocks = blocks;
+        this.freeBlocks = new int[blocks];
+        for (int i = 0; i < blocks; i++) freeBlocks[i] = blocks - 1 - i;
+        this.freeCount = blocks;
+        this.protectedCapacity = (long) (blocks * (long) BLOCK_SIZE * PROTECTED_RATIO);
+        // Un chunk plus gros qu'un huitième du cache le viderait pour une seule lecture
+        this.maxEntry = (long) blocks * BLOCK_SIZE / 8;
+        this.ghostEntries = Math.max(1024, blocks);
+    }
+
+    private final class Entry {
+        final String        chunkId;
+        final int[]         blocks;
+        final int           length;
+        final AtomicInteger refs = new AtomicInteger(1);   // 1 = présent dans le cache
+
+        Entry(String chunkId, int[] blocks, int length) {
+            this.chunkId = chunkId;
+            this.blocks = blocks;
+            this.length = length;
+        }
+
+        long bytes() {
+            return (long) blocks.length * BLOCK_SIZE;
+        }
+
+        ByteBuffer block(int i) {
+            int b = blocks[i];
+            ByteBuffer bb = slabs[b / blocksPerSlab].duplicate();
+            int pos = (b % blocksPerSlab) * BLOCK_SIZE;
+            bb.position(pos).limit(pos + BLOCK_SIZE);
+            return bb.slice();
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                synchronized (ChunkCache.this) {
+                    for (int b : blocks) freeBlocks[freeCount++] = b;
+                }
+            }
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  LECTURE
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Chunk en cache, à refermer après envoi ; null si absent. */
+    ChunkStore.Slice get(String chunkId) {
+        Entry e;
+        synchronized (this) {
+            e = probation.remove(chunkId);
+            if (e != null) {
+                // Deuxième lecture : promotion, la partie protégée rend ses plus anciens à la probation
+                protectedLru.put(chunkId, e);
+                protectedBytes += e.bytes();
+                while (protectedBytes > protectedCapacity && protectedLru.size() > 1) {
+                    Entry demoted = removeEldest(protectedLru);
+                    protectedBytes -= demoted.bytes();
+                    probation.put(demoted.chunkId, demoted);
+                }
+            } else {
+                e = protectedLru.remove(chunkId);
+                if (e != null) protectedLru.put(chunkId, e);
+            }
+            if (e != null) e.refs.incrementAndGet();
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new CachedSlice(e);
+    }
+
+    /**
+     * Lecture servie depuis le disque faute d'être en cache : au deuxième manqué
+     * récent, le chunk est copié en cache en tâche de fond depuis store.
+     */
+    void missed(String chunkId, ChunkStore store) {
+        Object mark = new Object();
+        synchronized (this) {
+            if (ghosts.remove(chunkId) == null) {
+                ghosts.put(chunkId, Boolean.TRUE);
+                if (ghosts.size() > ghostEntries) ghosts.remove(ghosts.keySet().iterator().next());
+                return;
+            }
+            if (filling.putIfAbsent(chunkId, mark) != null) return;   // déjà en cours
+        }
+        try {
+            FILLER.execute(() -> fill(chunkId, store, mark));
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                filling.remove(chunkId, mark);
+            }
+        }
+    }
+
+    /** Copie le chunk en cache ; rien si trop gros, sans place, ou invalidé pendant la copie. */
+    private void fill(String chunkId, ChunkStore store, Object mark) {
+        Entry e = null;
+        try (ChunkStore.Slice disk = store.open(chunkId)) {
+            long size = disk == null ? -1 : disk.size();
+            if (size < 0 || size > maxEntry) return;
+            int needed = (int) Math.max(1, (size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            synchronized (this) {
+                int[] blocks = allocate(needed);
+                if (blocks == null) return;
+                e = new Entry(chunkId, blocks, (int) size);
+            }
+            disk.copyTo(0, (int) size, new BlockOutput(e));
+            synchronized (this) {
+                // Supprimé ou réécrit pendant la copie : la marque a été retirée
+                if (filling.get(chunkId) == mark && !probation.containsKey(chunkId)
+                        && !protectedLru.containsKey(chunkId)) {
+                    probation.put(chunkId, e);
+                    e = null;
+                    loads.incrementAndGet();
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("[OSD] Copie en cache impossible: " + chunkId + " → " + ex.getMessage());
+        } finally {
+            if (e != null) e.release();
+            synchronized (this) {
+                filling.remove(chunkId, mark);
+            }
+        }
+    }
+
+    /** Retire un chunk supprimé ou réécrit. */
+    synchronized void invalidate(String chunkId) {
+        filling.remove(chunkId);
+        Entry e = probation.remove(chunkId);
+        if (e == null) {
+            e = protectedLru.remove(chunkId);
+            if (e != null) protectedBytes -= e.bytes();
+        }
+        if (e != null) e.release();
+    }
+
+    /** Prend needed blocs libres, en évinçant la probation d'abord ; null si tout est en cours d'envoi. */
+    private int[] allocate(int needed) {
+        while (freeCount < needed) {
+            Entry victim;
+            if (!probation.isEmpty()) {
+                victim = removeEldest(probation);
+            } else if (!protectedLru.isEmpty()) {
+                victim = removeEldest(protectedLru);
+                protectedBytes -= victim.bytes();
+            } else {
+                return null;
+            }
+            evictions.incrementAndGet();
+            victim.release();
+        }
+        int[] blocks = new int[needed];
+        for (int i = 0; i < needed; i++) {
+            blocks[i] = freeBlocks[--freeCount];
+            int slab = blocks[i] / blocksPerSlab;
+            if (slabs[slab] == null) {
+                int n = Math.min(blocksPerSlab, totalBlocks - slab * blocksPerSlab);
+                slabs[slab] = ByteBuffer.allocateDirect(n * BLOCK_SIZE);
+            }
+        }
+        return blocks;
+    }
+
+    private static Entry removeEldest(LinkedHashMap<String, Entry> lru) {
+        Map.Entry<String, Entry> eldest = lru.entrySet().iterator().next();
+        lru.remove(eldest.getKey());
+        return eldest.getValue();
+    }
+
+    /** Remplit les blocs d'une entrée dans l'ordre. */
+    private static final class BlockOutput extends OutputStream {
+        private final Entry entry;
+        private int written;
+
+        BlockOutput(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                ByteBuffer block = entry.block(written / BLOCK_SIZE);
+                block.position(written % BLOCK_SIZE);
+                int n = Math.min(len, block.remaining());
+                block.put(b, off, n);
+                written += n;
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    /** Lecture d'un chunk en cache : ses blocs restent réservés jusqu'à close(). */
+    private static final class CachedSlice implements ChunkStore.Slice {
+        private final Entry entry;
+        private boolean closed;
+
+        CachedSlice(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public long size() {
+            return entry.length;
+        }
+
+        @Override
+        public void transferTo(long offset, int length, WritableByteChannel out) throws IOException {
+            long pos = offset;
+            long end = offset + length;
+            while (pos < end) {
+                ByteBuffer block = entry.block((int) (pos / BLOCK_SIZE));
+                int from = (int) (pos % BLOCK_SIZE);
+                block.position(from).limit((int) Math.min(BLOCK_SIZE, from + end - pos));
+                pos += block.remaining();
+                while (block.hasRemaining()) out.write(block);
+            }
+        }
+
+        @Override
+        public void copyTo(long offset, int length, OutputStream out) throws IOException {
+            byte[] buf = new byte[Math.min(BLOCK_SIZE, Math.max(length, 1))];
+            long pos = offset;
+            long end = offset + length;
+            while (pos < end) {
+                ByteBuffer block = entry.block((int) (pos / BLOCK_SIZE));
+                int from = (int) (pos % BLOCK_SIZE);
+                int n = (int) Math.min(BLOCK_SIZE - from, end - pos);
+                block.position(from);
+                block.get(buf, 0, n);
+                out.write(buf, 0, n);
+                pos += n;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                entry.release();
+            }
+        }
+    }
+
+    String getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        int probationSize;
+        int protectedSize;
+        int free;
+        synchronized (this) {
+            probationSize = probation.size();
+            protectedSize = protectedLru.size();
+            free = freeCount;
+        }
+        long used = (long) (totalBlocks - free) * BLOCK_SIZE;
+        return "=== Chunk Cache ===\n"
+                + "Capacity    : " + (long) totalBlocks * BLOCK_SIZE + " bytes off-heap, " + used + " used\n"
+                + "Entries     : " + probationSize + " probation, " + protectedSize + " protected\n"
+                + "Hits        : " + h + " / " + (h + m)
+                + (h + m > 0 ? String.format(" (%.1f%%)", 100.0 * h / (h + m)) : "") + "\n"
+                + "Loads       : " + loads.get() + ", evictions " + evictions.get() + "\n";
+    }
+}
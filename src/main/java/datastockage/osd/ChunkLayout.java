@@ -0,0 +1,94 @@
+package osd;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+/**
+ * Emplacement des chunks sur le disque d'un OSD.
+ *
+ *   <racine>/<osdId>/ab/cd/<chunkId>
+ *
+ * Chaque OSD a sa propre arborescence : trois répliques sont trois fichiers,
+ * même quand les OSD tournent dans le même processus. Les deux niveaux de
+ * sous-répertoires (65 536 feuilles) viennent des 4 premiers caractères
+ * hexadécimaux de l'identifiant, qui est une empreinte SHA-256 : les chunks s'y
+ * répartissent uniformément et un répertoire reste petit même à des millions
+ * de chunks.
+ *
+ * Les chunks écrits avant ce découpage (<racine>/<chunkId>, partagé par tous
+ * les OSD) restent lisibles et supprimables ; toute nouvelle écriture va dans
+ * l'arborescence de l'OSD.
+ */
+final class ChunkLayout {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final String STORAGE_ROOT = System.getProperty("osd.storage", "storage");
+
+    final Path root;
+    private final Path legacyRoot;
+
+    ChunkLayout(String osdId) {
+        this.legacyRoot = Paths.get(STORAGE_ROOT);
+        this.root = legacyRoot.resolve(osdId);
+    }
+
+    /** Chemin du chunk dans l'arborescence de l'OSD (nouvelles écritures). */
+    Path path(String chunkId) throws IOException {
+        validate(chunkId);
+        return root.resolve(shard(chunkId, 0)).resolve(shard(chunkId, 2)).resolve(chunkId);
+    }
+
+    /** Chemin où le chunk existe, ancien emplacement compris ; null s'il est absent. */
+    Path existing(String chunkId) throws IOException {
+        Path p = path(chunkId);
+        if (Files.exists(p)) return p;
+        Path legacy = legacyRoot.resolve(chunkId);
+        return Files.isRegularFile(legacy) ? legacy : null;
+    }
+
+    /** Supprime le chunk, aux deux emplacements possibles. */
+    void delete(String chunkId) throws IOException {
+        Files.deleteIfExists(path(chunkId));
+        Files.deleteIfExists(legacyRoot.resolve(chunkId));
+    }
+
+    /** Supprime les fichiers temporaires laissés par des écritures interrompues, sauf ceux marqués keep. */
+    int removeTemporary(String keep) throws IOException {
+        if (!Files.isDirectory(root)) return 0;
+        int removed = 0;
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (name.contains(".tmp-") && !name.contains(keep) && Files.deleteIfExists(p)) removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Deux caractères hexadécimaux à partir de from : ceux de l'empreinte si
+     * l'identifiant en commence par une, sinon ceux de son hashCode.
+     */
+    private static String shard(String chunkId, int from) {
+        if (chunkId.length() >= 4 && isHex(chunkId, 4)) return chunkId.substring(from, from + 2);
+        String h = String.format("%08x", chunkId.hashCode());
+        return h.substring(from, from + 2);
+    }
+
+    private static boolean isHex(String s, int n) {
+        for (int i = 0; i < n; i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    /** Un identifiant ne doit pas pouvoir sortir de l'arborescence. */
+    static void validate(String chunkId) throws IOException {
+        if (chunkId.isEmpty() || chunkId.startsWith(".") || chunkId.contains("/") || chunkId.contains("\\")) {
+            throw new IOException("Identifiant de chunk invalide: " + chunkId);
+        }
+    }
+}
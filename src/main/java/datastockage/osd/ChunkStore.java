@@ -0,0 +1,56 @@
+package osd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Stockage des chunks d'un OSD (-Dosd.store) :
+ *
+ *   file     un fichier par chunk, arborescence découpée par empreinte ({@link FileChunkStore})
+ *   segment  journal de gros segments en ajout seul, index en mémoire ({@link SegmentStore})
+ *
+ * L'écriture se fait en flux vers un {@link Write}, publié ensuite par le
+ * {@link DurableWriter} selon le niveau de durabilité.
+ */
+interface ChunkStore extends Closeable {
+
+    static ChunkStore create(String osdId) throws IOException {
+        ChunkLayout layout = new ChunkLayout(osdId);
+        String kind = System.getProperty("osd.store", "file");
+        return switch (kind) {
+            case "file" -> new FileChunkStore(layout);
+            case "segment" -> new SegmentStore(layout.root.resolve("segments"), new FileChunkStore(layout));
+            default -> throw new IllegalArgumentException("Stockage inconnu: " + kind);
+        };
+    }
+
+    /** Chunk en cours de réception. */
+    abstract class Write extends DurableWriter.Commit {
+        abstract void write(byte[] b, int off, int len) throws IOException;
+    }
+
+    /** Chunk stocké, ouvert en lecture. */
+    interface Slice extends Closeable {
+        long size() throws IOException;
+
+        /** Envoie [offset, offset + length) sans passer par le tas. */
+        void transferTo(long offset, int length, WritableByteChannel out) throws IOException;
+
+        void copyTo(long offset, int length, OutputStream out) throws IOException;
+    }
+
+    /** Prépare la réception de size octets pour chunkId. */
+    Write begin(String chunkId, int size) throws IOException;
+
+    /** Chunk ouvert en lecture, null s'il est absent. */
+    Slice open(String chunkId) throws IOException;
+
+    void delete(String chunkId) throws IOException;
+
+    String getStats();
+
+    @Override
+    void close() throws IOException;
+}
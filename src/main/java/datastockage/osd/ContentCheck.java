@@ -0,0 +1,85 @@
+package osd;
+
+import common.ChunkCodec;
+import common.ChunkSizePolicy;
+import common.ContentHash;
+
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Vérifie au fil de l'eau qu'un chunk correspond à son identifiant.
+ *
+ * L'id d'un chunk est l'empreinte de son contenu brut, et l'OSD en reçoit soit
+ * le contenu brut, soit sa forme deflate (ChunkCodec) sans savoir laquelle :
+ * les deux empreintes sont calculées en même temps, la forme stockée est celle
+ * qui correspond. Une même suite d'octets ne peut pas valoir pour les deux.
+ *
+ * Les fragments codés (<id>.fN) et les anciens ids ne sont pas l'empreinte de
+ * leur propre contenu : of() rend null, ils ne sont pas vérifiables ici (le DIR
+ * contrôle les chunks codés en les reconstruisant).
+ */
+final class ContentCheck extends OutputStream {
+
+    private final String        expected;
+    private final MessageDigest raw      = ContentHash.digest();
+    private final MessageDigest inflated = ContentHash.digest();
+    private final byte[]        out      = new byte[64 * 1024];
+    private Inflater inflater = new Inflater();   // null dès que le flux n'est pas du deflate
+    private long     inflatedBytes;
+
+    private ContentCheck(String expected) {
+        this.expected = expected;
+    }
+
+    /** Contrôle d'un chunk répliqué, null si l'id n'est pas une empreinte. */
+    static ContentCheck of(String chunkId) {
+        return ContentHash.isHash(chunkId) ? new ContentCheck(chunkId) : null;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        raw.update(b, off, len);
+        if (inflater == null) return;
+        inflater.setInput(b, off, len);
+        try {
+            // Tout consommer avant de rendre la main : l'appelant réutilise son tampon
+            while (!inflater.needsInput() && !inflater.finished()) {
+                int n = inflater.inflate(out);
+                if (n == 0) break;
+                inflatedBytes += n;
+                if (inflatedBytes > ChunkSizePolicy.MAX_CHUNK) {
+                    giveUp();
+                    return;
+                }
+                inflated.update(out, 0, n);
+            }
+            if (inflater.needsDictionary()) giveUp();
+        } catch (DataFormatException e) {
+            giveUp();
+        }
+    }
+
+    /** Codec sous lequel les octets reçus correspondent à l'id, null s'ils n'y correspondent pas. */
+    String codec() {
+        if (expected.equals(ContentHash.hex(raw.digest()))) {
+            giveUp();
+            return ChunkCodec.NONE;
+        }
+        boolean complete = inflater != null && inflater.finished() && inflater.getRemaining() == 0;
+        giveUp();
+        return complete && expected.equals(ContentHash.hex(inflated.digest())) ? ChunkCodec.DEFLATE : null;
+    }
+
+    private void giveUp() {
+        if (inflater != null) inflater.end();
+        inflater = null;
+    }
+}
@@ -0,0 +1,220 @@
+package osd;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Publication durable des chunks reçus, quel que soit le {@link ChunkStore}.
+ *
+ * Le niveau de durabilité (-Dosd.durability) fixe le moment de l'ack :
+ *
+ *   NONE   après publication, données en cache de pages (perdues si la machine tombe)
+ *   FSYNC  après fsync des données, publication et fsync du répertoire touché
+ *   GROUP  comme FSYNC, mais par lots : un thread regroupe les chunks arrivés
+ *          pendant GROUP_WINDOW_US (au plus GROUP_MAX) et ne synchronise qu'une
+ *          fois chaque cible partagée par le lot (segment, répertoire)
+ *
+ * Avec un fichier par chunk, chaque chunk reste un fichier à forcer et chaque
+ * répertoire touché aussi : les fsync d'un lot sont lancés ensemble (SYNC_THREADS)
+ * plutôt que l'un après l'autre, pour que le journal du système de fichiers les
+ * valide en une fois ; le lot coûte alors à peu près la latence d'un fsync. Avec le
+ * journal de segments, un lot entier ne coûte qu'un force() du segment actif.
+ * GROUP garde la garantie de FSYNC avec beaucoup plus d'IOPS quand les écritures
+ * sont concurrentes, au prix d'au plus GROUP_WINDOW_US de latence.
+ */
+final class DurableWriter {
+
+    enum Durability { NONE, FSYNC, GROUP }
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final Durability DURABILITY =
+            Durability.valueOf(System.getProperty("osd.durability", "GROUP").toUpperCase());
+    static final long GROUP_WINDOW_US = 2_000;
+    static final int  GROUP_MAX       = 256;
+    static final int  SYNC_THREADS    = 16;
+
+    // fsync simultanés d'un même lot (fichiers et répertoires distincts)
+    private static final ExecutorService SYNCERS = Executors.newFixedThreadPool(SYNC_THREADS, r -> {
+        Thread t = new Thread(r, "osd-fsync-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Durability durability;
+    private final BlockingQueue<Commit> groupQueue = new LinkedBlockingQueue<>();
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong syncs     = new AtomicLong();
+    private final AtomicLong batches   = new AtomicLong();
+    private final AtomicLong failures  = new AtomicLong();
+
+    DurableWriter(String osdId) {
+        this.durability = DURABILITY;
+        if (durability == Durability.GROUP) {
+            Thread t = new Thread(this::groupLoop, "osd-fsync-" + osdId);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /** Chunk entièrement reçu, en attente de publication. */
+    abstract static class Commit {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /** Ce que sync() force : les commits d'un lot qui partagent cette clé ne le font qu'une fois. */
+        abstract Object syncKey();
+
+        /** Force les données sur le disque. */
+        abstract void sync() throws IOException;
+
+        /** Rend le chunk visible sous son identifiant. */
+        abstract void publish() throws IOException;
+
+        /** Répertoire modifié par publish(), à synchroniser ensuite ; null si aucun. */
+        abstract Path directory();
+
+        /** Abandonne le chunk et libère ce qu'il occupe. */
+        abstract void abort();
+    }
+
+    /** Publie le chunk ; se termine quand la durabilité demandée est acquise. */
+    CompletableFuture<Void> commit(Commit c) {
+        switch (durability) {
+            case NONE -> {
+                try {
+                    c.publish();
+                    committed.incrementAndGet();
+                    c.done.complete(null);
+                } catch (IOException e) {
+                    fail(c, e);
+                }
+            }
+            case FSYNC -> sync(List.of(c));
+            case GROUP -> groupQueue.add(c);
+        }
+        return c.done;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  SYNCHRONISATION
+    // ════════════════════════════════════════════════════════════════════════
+
+    private void groupLoop() {
+        List<Commit> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(groupQueue.take());
+                long deadline = System.nanoTime() + GROUP_WINDOW_US * 1_000;
+                while (batch.size() < GROUP_MAX) {
+                    long wait = deadline - System.nanoTime();
+                    Commit next = wait > 0 ? groupQueue.poll(wait, TimeUnit.NANOSECONDS) : groupQueue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                sync(batch);
+            } catch (InterruptedException e) {
+                for (Commit c : batch) fail(c, new IOException("Arrêt de l'OSD"));
+                return;
+            } catch (RuntimeException e) {
+                for (Commit c : batch) fail(c, new IOException(e));
+            }
+            batch.clear();
+        }
+    }
+
+    /** Un fsync par cible distincte, publication, puis un fsync par répertoire touché. */
+    private void sync(List<Commit> batch) {
+        Map<Object, Commit> targets = new LinkedHashMap<>();
+        for (Commit c : batch) targets.putIfAbsent(c.syncKey(), c);
+        Map<Object, IOException> errors = new HashMap<>();
+        forceAll(new ArrayList<>(targets.keySet()), key -> {
+            try {
+                targets.get(key).sync();
+                syncs.incrementAndGet();
+            } catch (IOException e) {
+                synchronized (errors) {
+                    errors.put(key, e);
+                }
+            }
+        });
+
+        List<Commit> published = new ArrayList<>(batch.size());
+        for (Commit c : batch) {
+            try {
+                IOException error = errors.get(c.syncKey());
+                if (error != null) throw error;
+                c.publish();
+                published.add(c);
+            } catch (IOException e) {
+                fail(c, e);
+            }
+        }
+
+        Set<Path> dirs = new HashSet<>();
+        for (Commit c : published) {
+            if (c.directory() != null) dirs.add(c.directory());
+        }
+        forceAll(new ArrayList<>(dirs), this::syncDirectory);
+
+        batches.incrementAndGet();
+        for (Commit c : published) {
+            committed.incrementAndGet();
+            c.done.complete(null);
+        }
+    }
+
+    /** Lance les fsync ensemble et attend qu'ils soient tous faits ; un seul s'exécute sur place. */
+    private static <T> void forceAll(List<T> targets, Consumer<T> force) {
+        if (targets.size() == 1) {
+            force.accept(targets.get(0));
+            return;
+        }
+        List<Future<?>> running = new ArrayList<>(targets.size());
+        for (T t : targets) running.add(SYNCERS.submit(() -> force.accept(t)));
+        boolean interrupted = false;
+        for (Future<?> f : running) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;   // le lot doit finir : ses chunks attendent leur ack
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Rend les renommages durables (sans effet là où un répertoire ne s'ouvre pas). */
+    private void syncDirectory(Path dir) {
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+            syncs.incrementAndGet();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void fail(Commit c, IOException e) {
+        failures.incrementAndGet();
+        c.abort();
+        c.done.completeExceptionally(e);
+    }
+
+    String getStats() {
+        long b = batches.get();
+        return "=== Durability ===\n"
+                + "Mode        : " + durability + "\n"
+                + "Committed   : " + committed.get() + " chunks, " + failures.get() + " failed\n"
+                + "fsync       : " + syncs.get() + " in " + b + " batches"
+                + (b > 0 ? String.format(" (%.1f chunks/batch)", (double) committed.get() / b) : "") + "\n";
+    }
+}
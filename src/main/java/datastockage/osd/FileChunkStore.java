@@ -0,0 +1,181 @@
+package osd;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Un fichier par chunk, dans l'arborescence de {@link ChunkLayout}.
+ *
+ * Réception dans un fichier temporaire voisin, puis renommage atomique : un
+ * lecteur ne voit jamais de chunk à moitié écrit, et un chunk interrompu ne
+ * laisse qu'un ".tmp-", supprimé au démarrage suivant. Les temporaires portent
+ * la marque du processus (TMP_TAG) : le nettoyage, en tâche de fond pendant
+ * que l'OSD reçoit déjà des chunks, ne touche que ceux des processus précédents.
+ */
+final class FileChunkStore implements ChunkStore {
+
+    static final int IO_BUFFER = 64 * 1024;
+
+    private static final AtomicLong TMP_IDS = new AtomicLong();
+    private static final String     TMP_TAG = ".tmp-" + UUID.randomUUID().toString().substring(0, 8) + "-";
+
+    private final ChunkLayout layout;
+
+    FileChunkStore(ChunkLayout layout) {
+        this.layout = layout;
+
+        // Écritures interrompues par un arrêt brutal : nettoyage en tâche de fond
+        Thread t = new Thread(() -> {
+            try {
+                int n = layout.removeTemporary(TMP_TAG);
+                if (n > 0) System.out.println("[OSD] " + n + " fichiers temporaires supprimés dans " + layout.root);
+            } catch (IOException e) {
+                System.err.println("[OSD] Nettoyage impossible: " + e.getMessage());
+            }
+        }, "osd-cleanup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public Write begin(String chunkId, int size) throws IOException {
+        return new TempFileWrite(layout.path(chunkId));
+    }
+
+    @Override
+    public Slice open(String chunkId) throws IOException {
+        Path path = layout.existing(chunkId);
+        if (path == null) return null;
+        try {
+            return new FileSlice(FileChannel.open(path, StandardOpenOption.READ));
+        } catch (NoSuchFileException e) {
+            return null; // supprimé entre-temps
+        }
+    }
+
+    @Override
+    public void delete(String chunkId) throws IOException {
+        layout.delete(chunkId);
+    }
+
+    @Override
+    public String getStats() {
+        return "=== Chunk Store ===\n"
+                + "Backend     : file (" + layout.root + ")\n";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  ÉCRITURE
+    // ════════════════════════════════════════════════════════════════════════
+
+    private static final class TempFileWrite extends Write {
+        final Path        target;
+        final Path        tmp;
+        final FileChannel channel;
+
+        TempFileWrite(Path target) throws IOException {
+            this.target = target;
+            this.tmp = target.resolveSibling(target.getFileName() + TMP_TAG + TMP_IDS.incrementAndGet());
+            Files.createDirectories(target.getParent());
+            this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+            while (bb.hasRemaining()) channel.write(bb);
+        }
+
+        @Override
+        Object syncKey() {
+            return this;
+        }
+
+        @Override
+        void sync() throws IOException {
+            channel.force(false);
+        }
+
+        @Override
+        void publish() throws IOException {
+            channel.close();
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        Path directory() {
+            return target.getParent();
+        }
+
+        @Override
+        void abort() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  LECTURE
+    // ════════════════════════════════════════════════════════════════════════
+
+    private static final class FileSlice implements Slice {
+        private final FileChannel channel;
+
+        FileSlice(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        /** transferTo : sendfile sous Linux, du cache de pages à la socket. */
+        @Override
+        public void transferTo(long offset, int length, WritableByteChannel out) throws IOException {
+            long pos = offset;
+            long end = offset + length;
+            while (pos < end) {
+                long n = channel.transferTo(pos, end - pos, out);
+                if (n <= 0 && pos >= channel.size()) throw new EOFException("Chunk raccourci pendant la lecture");
+                pos += n;
+            }
+        }
+
+        @Override
+        public void copyTo(long offset, int length, OutputStream out) throws IOException {
+            byte[] buf = new byte[Math.min(IO_BUFFER, Math.max(length, 1))];
+            long pos = offset;
+            int remaining = length;
+            while (remaining > 0) {
+                int r = channel.read(ByteBuffer.wrap(buf, 0, Math.min(buf.length, remaining)), pos);
+                if (r < 0) throw new EOFException("Chunk raccourci pendant la lecture");
+                out.write(buf, 0, r);
+                pos += r;
+                remaining -= r;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
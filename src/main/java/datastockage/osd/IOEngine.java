@@ -0,0 +1,77 @@
+package osd;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moteur d'exécution des opérations disque d'un OSD.
+ *
+ * Un nombre fixe de threads sert une file d'opérations : des milliers de
+ * requêtes en vol sur les connexions multiplexées ne coûtent qu'une entrée
+ * dans la file, pas un thread ni un tampon de chunk (les données sont lues et
+ * écrites par tranches au moment de l'exécution).
+ *
+ * La profondeur de file (en attente + en cours) est remontée au DIR avec
+ * chaque heartbeat.
+ */
+final class IOEngine {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final int IO_THREADS = Integer.getInteger("osd.ioThreads", 16);
+
+    private final ExecutorService pool;
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicInteger queued    = new AtomicInteger();
+    private final AtomicInteger active    = new AtomicInteger();
+    private final AtomicInteger peak      = new AtomicInteger();
+    private final AtomicLong    completed = new AtomicLong();
+    private final AtomicLong    failed    = new AtomicLong();
+
+    IOEngine(String osdId) {
+        pool = Executors.newFixedThreadPool(IO_THREADS, r -> {
+            Thread t = new Thread(r, "osd-io-" + osdId);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    void submit(Operation op) {
+        peak.accumulateAndGet(queued.incrementAndGet() + active.get(), Math::max);
+        pool.execute(() -> {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                op.run();
+                completed.incrementAndGet();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                System.err.println("[OSD] Opération échouée: " + e.getMessage());
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+    }
+
+    /** Opérations en attente ou en cours. */
+    int queueDepth() {
+        return queued.get() + active.get();
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    String getStats() {
+        return "=== IO Engine ===\n"
+                + "Threads     : " + IO_THREADS + "\n"
+                + "Queue depth : " + queueDepth() + " (" + active.get() + " active, peak " + peak.get() + ")\n"
+                + "Completed   : " + completed.get() + "\n"
+                + "Failed      : " + failed.get() + "\n";
+    }
+}
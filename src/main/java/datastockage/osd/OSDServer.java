@@ -1,8 +1,16 @@
 package osd;
 
+import common.OSDClient;
+import common.SlaveInfo;
+
 import java.io.*;
 import java.net.*;
-import java.nio.file.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.concurrent.*;
 
 public class OSDServer implements Runnable {
@@ -10,15 +18,46 @@ public class OSDServer implements Runnable {
     static String dirHost = "10.134.17.222";
     static int dirPort = 7000;
 
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final int CONNECTION_THREADS = Integer.getInteger("osd.connectionThreads", 256);
+    static final int IO_BUFFER          = 64 * 1024;
+    static final int VERIFIED_ENTRIES   = Integer.getInteger("osd.verifiedEntries", 100_000);
+
     private String osdId;
     private int port;
     private volatile boolean running = true;
 
     private ScheduledExecutorService heartbeatExecutor;
 
+    // Une connexion classique occupe un thread le temps de ses commandes ; le trafic
+    // du DIR passe par quelques connexions multiplexées dont les opérations vont au moteur
+    private final ThreadPoolExecutor connections;
+    private final IOEngine engine;
+    private final DurableWriter writer;
+    private final ChunkStore store;
+    private final ChunkCache cache;
+
+    // Codec sous lequel les derniers chunks reçus ont été vérifiés (ContentCheck) : CHECK_CHUNK
+    // y répond sans relire le chunk ; au-delà de VERIFIED_ENTRIES ou après un redémarrage, il le relit
+    private final LinkedHashMap<String, String> verified = new LinkedHashMap<>(16, 0.75f, true);
+
     public OSDServer(int port) {
         this.port = port;
         this.osdId = "osd-" + port;
+        this.connections = new ThreadPoolExecutor(0, CONNECTION_THREADS, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, "osd-conn-" + osdId);
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.engine = new IOEngine(osdId);
+        this.writer = new DurableWriter(osdId);
+        this.cache = new ChunkCache();
+        try {
+            this.store = ChunkStore.create(osdId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Stockage de " + osdId + " illisible", e);
+        }
     }
 
     @Override
@@ -26,12 +65,19 @@ public class OSDServer implements Runnable {
 
         startHeartbeat();   // 🔥 IMPORTANT
 
-        try (ServerSocket serverSocket = new ServerSocket(port, 50, java.net.InetAddress.getByName("0.0.0.0"))) {
+        // Accepter par un canal : chaque socket a alors un SocketChannel, cible de transferTo
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress("0.0.0.0", port), 50);
             System.out.println("[OSD " + osdId + "] Started on port " + port + " (toutes interfaces)");
 
             while (running) {
-                Socket client = serverSocket.accept();
-                new Thread(() -> handle(client)).start();
+                Socket client = serverChannel.accept().socket();
+                try {
+                    connections.execute(() -> handle(client));
+                } catch (RejectedExecutionException e) {
+                    System.err.println("[OSD " + osdId + "] Trop de connexions, refusée: " + client.getInetAddress());
+                    closeQuietly(client);
+                }
             }
 
         } catch (BindException ex) {
@@ -51,6 +97,7 @@ public class OSDServer implements Runnable {
                 dos.writeUTF("HEARTBEAT");
                 dos.writeUTF(osdId);
                 dos.writeInt(port);
+                dos.writeInt(engine.queueDepth());
                 dos.flush();
 
                 System.out.println("[OSD " + osdId + "] Heartbeat sent");
@@ -67,55 +114,504 @@ public class OSDServer implements Runnable {
         if (heartbeatExecutor != null) {
             heartbeatExecutor.shutdownNow();
         }
+        connections.shutdownNow();
+        engine.shutdown();
+        closeQuietly(store);
     }
 
+    /**
+     * Sert les commandes d'une connexion les unes après les autres, jusqu'à ce que
+     * le client ferme. "MUX" bascule la connexion en mode multiplexé.
+     */
     private void handle(Socket socket) {
-        try (DataInputStream dis = new DataInputStream(socket.getInputStream());
-                DataOutputStream dos = new DataOutputStream(socket.getOutputStream())) {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream(), IO_BUFFER));
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), IO_BUFFER))) {
 
-            String command = dis.readUTF();
-            switch (command) {
+            while (true) {
+                String command;
+                try {
+                    command = dis.readUTF();
+                } catch (EOFException e) {
+                    return; // fin de connexion entre deux commandes
+                }
+                if ("MUX".equals(command)) {
+                    serveMultiplexed(socket, dis, dos);
+                    return;
+                }
+                if ("STORE_CHUNK_CHAIN".equals(command)) {
+                    storeChain(dis, dos);
+                } else {
+                    execute(command, dis).writeTo(dos, socket.getChannel());
+                }
+                dos.flush();
+            }
 
-                case "STORE_CHUNK" -> {
-                    String chunkId = dis.readUTF();
-                    int size = dis.readInt();
-                    byte[] data = new byte[size];
-                    dis.readFully(data);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-                    Path path = Paths.get("storage/" + chunkId);
-                    Files.createDirectories(path.getParent());
-                    Files.write(path, data);
+    /**
+     * Mode multiplexé : requêtes [long id][int len][commande], réponses
+     * [long id][int len][réponse] envoyées dès qu'elles sont prêtes.
+     *
+     * Le thread de la connexion ne fait que lire : un STORE_CHUNK est écrit sur
+     * disque au fil de la lecture (par tranches, sans tamponner le chunk), les
+     * autres commandes partent dans la file du moteur d'I/O. Les lectures de chunk
+     * passent du fichier à la socket par transferTo au moment de répondre.
+     */
+    private void serveMultiplexed(Socket socket, DataInputStream dis, DataOutputStream dos) throws IOException {
+        while (true) {
+            long id;
+            try {
+                id = dis.readLong();
+            } catch (EOFException e) {
+                return;
+            }
+            DataInputStream request = new DataInputStream(new BoundedInputStream(dis, dis.readInt()));
+            String command = request.readUTF();
 
-                    dos.writeUTF("OK");
-                    System.out.println("[OSD " + osdId + "] Stored " + chunkId);
+            if ("STORE_CHUNK".equals(command)) {
+                CompletableFuture<Void> stored;
+                try {
+                    stored = store(request);
+                } catch (EOFException e) {
+                    throw e; // flux tronqué : la connexion est inutilisable
+                } catch (IOException e) {
+                    stored = CompletableFuture.failedFuture(e);
                 }
+                request.skipNBytes(request.available());
+                // L'ack part quand la durabilité est acquise, sans bloquer la lecture
+                stored.whenComplete((r, e) -> engine.submit(() ->
+                        reply(socket, dos, id, e == null ? Response.status("OK") : Response.error(e))));
+                continue;
+            }
+
+            // Arguments courts : les lire maintenant, exécuter plus tard
+            DataInputStream args = new DataInputStream(new ByteArrayInputStream(request.readAllBytes()));
+            engine.submit(() -> {
+                Response response;
+                try {
+                    response = execute(command, args);
+                } catch (IOException e) {
+                    response = Response.error(e);
+                }
+                reply(socket, dos, id, response);
+            });
+        }
+    }
 
-                case "GET_CHUNK" -> {
-                    String chunkId = dis.readUTF();
-                    Path path = Paths.get("storage/" + chunkId);
-                    if (!Files.exists(path)) {
-                        dos.writeUTF("NOT_FOUND");
-                        return;
+    private void reply(Socket socket, DataOutputStream dos, long id, Response response) {
+        synchronized (dos) {
+            try {
+                dos.writeLong(id);
+                dos.writeInt(response.size());
+                response.writeTo(dos, socket.getChannel());
+                dos.flush();
+            } catch (IOException e) {
+                // Réponse partiellement écrite : la trame est corrompue, couper la connexion
+                System.out.println("[OSD " + osdId + "] Connexion MUX perdue: " + e.getMessage());
+                closeQuietly(response.body);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private Response execute(String command, DataInputStream dis) throws IOException {
+        switch (command) {
+
+            case "STORE_CHUNK" -> {
+                CompletableFuture<Void> stored = store(dis);
+                try {
+                    await(stored);
+                } catch (IOException e) {
+                    return Response.error(e);   // chunk lu en entier : la connexion reste utilisable
+                }
+                return Response.status("OK");
+            }
+
+            case "CHECK_CHUNK" -> {
+                // "OK <codec> <taille>" : codec sous lequel le chunk correspond à son id,
+                // "-" si l'id n'est pas vérifiable (fragment, ancien id)
+                String chunkId = dis.readUTF();
+                try (ChunkStore.Slice in = store.open(chunkId)) {
+                    if (in == null) return Response.status("NOT_FOUND");
+                    ContentCheck check = ContentCheck.of(chunkId);
+                    if (check == null) return Response.status("OK - " + in.size());
+                    String codec = verifiedCodec(chunkId);
+                    if (codec == null) {
+                        in.copyTo(0, (int) in.size(), check);
+                        codec = check.codec();
+                        if (codec == null) return Response.status("CORRUPT");
+                        verified(chunkId, codec);
                     }
-                    byte[] data = Files.readAllBytes(path);
-                    dos.writeUTF("OK");
-                    dos.writeInt(data.length);
-                    dos.write(data);
-                    System.out.println("[OSD " + osdId + "] Sent " + chunkId);
+                    return Response.status("OK " + codec + " " + in.size());
+                }
+            }
+
+            case "GET_CHUNK" -> {
+                String chunkId = dis.readUTF();
+                ChunkStore.Slice in = cache.get(chunkId);
+                if (in == null) {
+                    // Servi depuis le disque (transferTo) ; le cache se remplit à côté
+                    in = store.open(chunkId);
+                    if (in == null) return Response.status("NOT_FOUND");
+                    cache.missed(chunkId, store);
                 }
+                long size = in.size();
+                System.out.println("[OSD " + osdId + "] Sent " + chunkId);
+                return Response.data(in, 0, (int) size);
+            }
+
+            case "GET_CHUNK_RANGE" -> {
+                String chunkId = dis.readUTF();
+                int offset = dis.readInt();
+                int length = dis.readInt();
+                // Une lecture partielle profite du cache sans y charger tout le chunk
+                ChunkStore.Slice in = cache.get(chunkId);
+                if (in == null) in = store.open(chunkId);
+                if (in == null) return Response.status("NOT_FOUND");
+                // Ne lire que la portion demandée
+                int n = (int) Math.max(0, Math.min(length, in.size() - offset));
+                System.out.println("[OSD " + osdId + "] Sent " + chunkId + " [" + offset + "+" + length + "]");
+                return Response.data(in, offset, n);
+            }
 
-                case "DELETE_CHUNK" -> {
-                    String chunkId = dis.readUTF();
-                    Files.deleteIfExists(Paths.get("storage/" + chunkId));
-                    dos.writeUTF("OK");
-                    System.out.println("[OSD " + osdId + "] Deleted " + chunkId);
+            case "DELETE_CHUNK" -> {
+                String chunkId = dis.readUTF();
+                store.delete(chunkId);
+                cache.invalidate(chunkId);
+                synchronized (verified) {
+                    verified.remove(chunkId);
                 }
+                System.out.println("[OSD " + osdId + "] Deleted " + chunkId);
+                return Response.status("OK");
+            }
 
-                default -> System.out.println("[OSD] Unknown command: " + command);
+            case "STATS" -> {
+                return Response.status(engine.getStats() + "\n" + writer.getStats() + "\n" + store.getStats()
+                        + "\n" + cache.getStats());
             }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+            default -> {
+                System.out.println("[OSD] Unknown command: " + command);
+                throw new IOException("Commande inconnue: " + command);
+            }
+        }
+    }
+
+    /**
+     * Reçoit un chunk (id, taille, données) dans le stockage, par tranches de
+     * IO_BUFFER, et lance sa publication selon le mode de durabilité.
+     *
+     * Un chunk répliqué n'est publié que si son contenu correspond à son id
+     * (ContentCheck), sinon le futur échoue une fois le flux consommé. Une copie
+     * déjà présente est gardée telle quelle : l'id fixe le contenu.
+     */
+    private CompletableFuture<Void> store(DataInputStream dis) throws IOException {
+        String chunkId = dis.readUTF();
+        int size = dis.readInt();
+
+        ContentCheck check = ContentCheck.of(chunkId);
+        if (check != null && holds(chunkId)) {
+            dis.skipNBytes(size);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        ChunkStore.Write pending = store.begin(chunkId, size);
+        try {
+            byte[] buf = new byte[Math.min(IO_BUFFER, Math.max(size, 1))];
+            int remaining = size;
+            while (remaining > 0) {
+                int r = dis.read(buf, 0, Math.min(buf.length, remaining));
+                if (r < 0) throw new EOFException("Chunk tronqué: " + chunkId);
+                pending.write(buf, 0, r);
+                if (check != null) check.write(buf, 0, r);
+                remaining -= r;
+            }
+        } catch (IOException e) {
+            pending.abort();
+            throw e;
+        }
+        String codec = check != null ? check.codec() : null;
+        if (check != null && codec == null) {
+            pending.abort();
+            rejected(chunkId);
+            return CompletableFuture.failedFuture(new IOException("Contenu ne correspondant pas à " + chunkId));
+        }
+
+        return writer.commit(pending).thenRun(() -> {
+            if (codec != null) verified(chunkId, codec);
+            cache.invalidate(chunkId);
+            System.out.println("[OSD " + osdId + "] Stored " + chunkId);
+        });
+    }
+
+    /** Retient le codec sous lequel le chunk a été vérifié. */
+    private void verified(String chunkId, String codec) {
+        synchronized (verified) {
+            verified.put(chunkId, codec);
+            if (verified.size() > VERIFIED_ENTRIES) {
+                Iterator<String> it = verified.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    private String verifiedCodec(String chunkId) {
+        synchronized (verified) {
+            return verified.get(chunkId);
+        }
+    }
+
+    private boolean holds(String chunkId) throws IOException {
+        try (ChunkStore.Slice existing = store.open(chunkId)) {
+            return existing != null;
+        }
+    }
+
+    private void rejected(String chunkId) {
+        System.err.println("[OSD " + osdId + "] Chunk refusé, contenu ne correspondant pas à son id: " + chunkId);
+    }
+
+    private static void await(CompletableFuture<Void> f) throws IOException {
+        try {
+            f.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  RÉPONSES
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Réponse d'une commande : un statut writeUTF, suivi pour les lectures de
+     * [int len] et d'une portion de chunk, envoyée au moment de répondre.
+     */
+    private static final class Response {
+        final byte[]           header;
+        final ChunkStore.Slice body;
+        final long             offset;
+        final int              length;
+
+        private Response(byte[] header, ChunkStore.Slice body, long offset, int length) {
+            this.header = header;
+            this.body = body;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        static Response status(String status) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                new DataOutputStream(bytes).writeUTF(status);
+            } catch (IOException impossible) {
+                throw new UncheckedIOException(impossible);
+            }
+            return new Response(bytes.toByteArray(), null, 0, 0);
+        }
+
+        static Response error(Throwable e) {
+            if (e instanceof CompletionException && e.getCause() != null) e = e.getCause();
+            return status("ERROR " + e.getMessage());
+        }
+
+        static Response data(ChunkStore.Slice body, long offset, int length) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF("OK");
+            out.writeInt(length);
+            return new Response(bytes.toByteArray(), body, offset, length);
+        }
+
+        int size() {
+            return header.length + length;
+        }
+
+        /**
+         * Écrit la réponse et referme le chunk, même en cas d'échec.
+         *
+         * Avec un canal, le contenu part du stockage vers la socket sans copie par
+         * le tas (transferTo ou projection mémoire). Le flux est vidé avant, pour
+         * que l'en-tête précède les données.
+         */
+        void writeTo(DataOutputStream out, WritableByteChannel channel) throws IOException {
+            try (ChunkStore.Slice in = body) {
+                out.write(header);
+                if (in == null) return;
+                if (channel != null) {
+                    out.flush();
+                    in.transferTo(offset, length, channel);
+                } else {
+                    in.copyTo(offset, length, out);
+                }
+            }
+        }
+    }
+
+    /** Vue limitée aux len octets d'une requête multiplexée. */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private int remaining;
+
+        BoundedInputStream(InputStream in, int len) {
+            super(in);
+            this.remaining = len;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) return -1;
+            int r = super.read(b, off, Math.min(len, remaining));
+            if (r > 0) remaining -= r;
+            return r;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long s = super.skip(Math.min(n, remaining));
+            remaining -= (int) s;
+            return s;
+        }
+
+        @Override
+        public int available() {
+            return remaining;
+        }
+    }
+
+    /**
+     * Réplication en chaîne : écrit le chunk localement tout en relayant
+     * le flux vers le maillon suivant, puis remonte l'ack de toute la chaîne.
+     * Un maillon injoignable est sauté ; la réparation complétera les copies manquantes.
+     */
+    private void storeChain(DataInputStream dis, DataOutputStream dos) throws IOException {
+        String chunkId = dis.readUTF();
+        int size = dis.readInt();
+        int n = dis.readInt();
+        List<SlaveInfo> rest = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            rest.add(new SlaveInfo(dis.readUTF(), dis.readUTF(), dis.readInt()));
+        }
+
+        // Ouvrir le maillon suivant
+        Socket next = null;
+        DataOutputStream nextOut = null;
+        while (next == null && !rest.isEmpty()) {
+            SlaveInfo s = rest.remove(0);
+            try {
+                next = new Socket(s.host, s.port);
+                nextOut = new DataOutputStream(new BufferedOutputStream(next.getOutputStream()));
+                OSDClient.writeChainHeader(nextOut, chunkId, size, rest);
+            } catch (IOException e) {
+                System.out.println("[OSD " + osdId + "] Chain link unreachable: " + s.id);
+                closeQuietly(next);
+                next = null;
+            }
+        }
+
+        // Vérifié comme STORE_CHUNK ; une copie locale déjà présente est gardée
+        ContentCheck check = ContentCheck.of(chunkId);
+        boolean held = check != null && holds(chunkId);
+        ChunkStore.Write local = null;
+        if (!held) {
+            try {
+                local = store.begin(chunkId, size);
+            } catch (IOException e) {
+                System.err.println("[OSD " + osdId + "] Local write failed: " + e.getMessage());
+            }
+        }
+
+        // Copier le flux : disque local + maillon suivant
+        byte[] buf = new byte[64 * 1024];
+        int remaining = size;
+        while (remaining > 0) {
+            int r = dis.read(buf, 0, Math.min(buf.length, remaining));
+            if (r < 0) {
+                if (local != null) local.abort();
+                closeQuietly(next);
+                throw new EOFException("Chunk tronqué: " + chunkId);
+            }
+            if (local != null) {
+                try {
+                    local.write(buf, 0, r);
+                    if (check != null) check.write(buf, 0, r);
+                } catch (IOException e) {
+                    System.err.println("[OSD " + osdId + "] Local write failed: " + e.getMessage());
+                    local.abort();
+                    local = null;
+                }
+            }
+            if (next != null) {
+                try {
+                    nextOut.write(buf, 0, r);
+                } catch (IOException e) {
+                    System.out.println("[OSD " + osdId + "] Chain link broken: " + e.getMessage());
+                    closeQuietly(next);
+                    next = null;
+                }
+            }
+            remaining -= r;
+        }
+
+        String codec = local != null && check != null ? check.codec() : null;
+        if (local != null && check != null && codec == null) {
+            local.abort();
+            local = null;
+            rejected(chunkId);
+        }
+
+        // Publication locale pendant que l'ack du reste de la chaîne remonte
+        CompletableFuture<Void> localDone = local != null ? writer.commit(local) : null;
+
+        List<String> stored = new ArrayList<>();
+        if (next != null) {
+            try {
+                nextOut.flush();
+                stored.addAll(OSDClient.readChainAck(new DataInputStream(next.getInputStream())));
+            } catch (IOException e) {
+                System.out.println("[OSD " + osdId + "] Chain ack lost: " + e.getMessage());
+            } finally {
+                closeQuietly(next);
+            }
+        }
+
+        if (localDone != null) {
+            try {
+                await(localDone);
+                if (codec != null) verified(chunkId, codec);
+                cache.invalidate(chunkId);
+                stored.add(0, osdId);
+                System.out.println("[OSD " + osdId + "] Stored " + chunkId + " (chain)");
+            } catch (IOException e) {
+                System.err.println("[OSD " + osdId + "] Local write failed: " + e.getMessage());
+            }
+        }
+
+        if (held) stored.add(0, osdId);
+
+        dos.writeUTF("OK");
+        dos.writeInt(stored.size());
+        for (String id : stored) dos.writeUTF(id);
+        dos.flush();
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
         }
     }
 }
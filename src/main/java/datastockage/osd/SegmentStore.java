@@ -0,0 +1,613 @@
+package osd;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Stockage des chunks en journal de segments (-Dosd.store=segment).
+ *
+ * Les chunks sont ajoutés à la suite dans de gros fichiers préalloués
+ * (SEGMENT_SIZE) : écriture séquentielle, pas d'inode ni de répertoire par chunk.
+ * Un enregistrement :
+ *
+ *   [int MAGIC][byte type][short len][chunkId][int length][données][int crc32]
+ *
+ * type PUT (chunk), DELETE (suppression, sans données) ou ABORTED (réception
+ * abandonnée). La place est réservée et l'en-tête écrit sous verrou dès le début
+ * de la réception ; les données arrivent ensuite en parallèle à leur position.
+ *
+ * Index en mémoire chunkId → (segment, position, longueur) : ouvrir ou supprimer
+ * un chunk ne coûte qu'une recherche. Il est sauvegardé toutes les
+ * CHECKPOINT_INTERVAL_S secondes (index.ckpt) avec la position à partir de
+ * laquelle rejouer le journal ; au démarrage on charge la sauvegarde puis on
+ * relit les enregistrements suivants (un enregistrement au crc faux, interrompu
+ * par un arrêt brutal, est ignoré).
+ *
+ * Les lectures passent par des projections mémoire des segments (mmap) : pas
+ * d'appel système par lecture et envoi direct du cache de pages vers la socket.
+ *
+ * Un compacteur recopie les chunks vivants des segments scellés dont moins de
+ * COMPACT_BELOW de l'espace est encore utile, puis supprime ces segments.
+ *
+ * Les chunks absents de l'index sont cherchés dans le stockage fichier (chunks
+ * écrits avant le passage aux segments).
+ */
+final class SegmentStore implements ChunkStore {
+
+    // ── Configuration ────────────────────────────────────────────────────────
+    static final long   SEGMENT_SIZE          = Long.getLong("osd.segmentSize", 256L << 20);
+    static final double COMPACT_BELOW         = 0.5;
+    static final long   CHECKPOINT_INTERVAL_S = 30;
+    static final long   COMPACT_INTERVAL_S    = 60;
+
+    private static final int  MAGIC      = 0x43484E4B;   // "CHNK"
+    private static final int  CKPT_MAGIC = 0x434B5054;   // "CKPT"
+    private static final byte PUT        = 1;
+    private static final byte DELETE     = 2;
+    private static final byte ABORTED    = 3;
+
+    private final Path       dir;
+    private final ChunkStore fallback;
+
+    private final Map<String, Location>              index    = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    /** Enregistrements réservés mais pas encore publiés (position globale). */
+    private final ConcurrentSkipListSet<Long>        inFlight = new ConcurrentSkipListSet<>();
+    private final ScheduledExecutorService           maintenance;
+    private Segment active;   // protégé par this
+    /** Suppression et déplacement par le compacteur d'un même chunk s'excluent. */
+    private final Object relocation = new Object();
+    /** Une sauvegarde de l'index à la fois (maintenance, compactage, fermeture). */
+    private final Object checkpointing = new Object();
+    private volatile boolean dirty;
+
+    // ── Stats ────────────────────────────────────────────────────────────────
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong reclaimed   = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+
+    SegmentStore(Path dir, ChunkStore fallback) throws IOException {
+        this.dir = dir;
+        this.fallback = fallback;
+        Files.createDirectories(dir);
+        recover();
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "osd-segments");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenance.scheduleWithFixedDelay(this::checkpointIfDirty,
+                CHECKPOINT_INTERVAL_S, CHECKPOINT_INTERVAL_S, TimeUnit.SECONDS);
+        maintenance.scheduleWithFixedDelay(this::compactQuietly,
+                COMPACT_INTERVAL_S, COMPACT_INTERVAL_S, TimeUnit.SECONDS);
+    }
+
+    /** Emplacement des données d'un chunk. */
+    private static final class Location {
+        final int  segment;
+        final long record;   // début de l'enregistrement
+        final long data;     // début des données
+        final int  length;
+
+        Location(int segment, long record, long data, int length) {
+            this.segment = segment;
+            this.record = record;
+            this.data = data;
+            this.length = length;
+        }
+
+        long recordSize() {
+            return data - record + length + Integer.BYTES;
+        }
+    }
+
+    private static final class Segment {
+        final int         id;
+        final Path        path;
+        final FileChannel channel;
+        final long        capacity;
+        final AtomicLong  live = new AtomicLong();
+        long tail;                          // protégé par le store
+        private volatile MappedByteBuffer map;
+
+        Segment(int id, Path path, FileChannel channel, long capacity) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.capacity = capacity;
+        }
+
+        MappedByteBuffer map() throws IOException {
+            MappedByteBuffer m = map;
+            if (m == null) {
+                synchronized (this) {
+                    if (map == null) map = channel.map(FileChannel.MapMode.READ_ONLY, 0, capacity);
+                    m = map;
+                }
+            }
+            return m;
+        }
+    }
+
+    private static long position(int segment, long offset) {
+        return ((long) segment << 40) | offset;
+    }
+
+    private static int headerSize(byte[] id) {
+        return Integer.BYTES + 1 + Short.BYTES + id.length + Integer.BYTES;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  ÉCRITURE
+    // ════════════════════════════════════════════════════════════════════════
+
+    @Override
+    public Write begin(String chunkId, int size) throws IOException {
+        ChunkLayout.validate(chunkId);
+        byte[] id = chunkId.getBytes(StandardCharsets.UTF_8);
+        return new SegmentWrite(chunkId, reserve(PUT, id, size), headerSize(id), size);
+    }
+
+    /** Réserve la place d'un enregistrement en fin de journal et écrit son en-tête. */
+    private synchronized Location reserve(byte type, byte[] id, int length) throws IOException {
+        long size = headerSize(id) + (long) length + Integer.BYTES;
+        if (active == null || active.tail + size > active.capacity) roll(size);
+
+        Segment s = active;
+        long offset = s.tail;
+        ByteBuffer header = ByteBuffer.allocate(headerSize(id));
+        header.putInt(MAGIC).put(type).putShort((short) id.length).put(id).putInt(length).flip();
+        writeFully(s.channel, header, offset);
+        s.tail += size;
+        inFlight.add(position(s.id, offset));
+        return new Location(s.id, offset, offset + headerSize(id), length);
+    }
+
+    /** Ouvre un nouveau segment actif, assez grand pour minSize. */
+    private void roll(long minSize) throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        long capacity = Math.max(SEGMENT_SIZE, minSize);
+        Path path = dir.resolve(String.format("seg-%06d.log", id));
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ch.write(ByteBuffer.allocate(1), capacity - 1);   // préallocation (fichier creux)
+        Segment s = new Segment(id, path, ch, capacity);
+        segments.put(id, s);
+        active = s;
+        syncDirectory();
+    }
+
+    private final class SegmentWrite extends Write {
+        final String   chunkId;
+        final Location location;
+        final Segment  segment;
+        final int      headerSize;
+        final CRC32    crc = new CRC32();
+        long written;
+
+        SegmentWrite(String chunkId, Location location, int headerSize, int length) throws IOException {
+            this.chunkId = chunkId;
+            this.location = location;
+            this.segment = segments.get(location.segment);
+            this.headerSize = headerSize;
+            if (length == 0) writeCrc();
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) throws IOException {
+            if (written + len > location.length) throw new IOException("Chunk plus long qu'annoncé: " + chunkId);
+            writeFully(segment.channel, ByteBuffer.wrap(b, off, len), location.data + written);
+            crc.update(b, off, len);
+            written += len;
+            if (written == location.length) writeCrc();
+        }
+
+        private void writeCrc() throws IOException {
+            ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).flip();
+            writeFully(segment.channel, bb, location.data + location.length);
+        }
+
+        @Override
+        Object syncKey() {
+            return segment;
+        }
+
+        @Override
+        void sync() throws IOException {
+            segment.channel.force(false);
+        }
+
+        @Override
+        void publish() throws IOException {
+            if (written != location.length) throw new IOException("Chunk incomplet: " + chunkId);
+            Location old = index.put(chunkId, location);
+            segment.live.addAndGet(location.recordSize());
+            if (old != null) release(old);
+            inFlight.remove(position(location.segment, location.record));
+            dirty = true;
+        }
+
+        @Override
+        Path directory() {
+            return null;
+        }
+
+        @Override
+        void abort() {
+            try {
+                writeFully(segment.channel, ByteBuffer.wrap(new byte[]{ABORTED}), location.record + Integer.BYTES);
+            } catch (IOException ignored) {
+                // crc incomplet : ignoré au rejeu de toute façon
+            }
+            inFlight.remove(position(location.segment, location.record));
+        }
+    }
+
+    private void release(Location old) {
+        Segment s = segments.get(old.segment);
+        if (s != null) s.live.addAndGet(-old.recordSize());
+    }
+
+    @Override
+    public void delete(String chunkId) throws IOException {
+        synchronized (relocation) {
+            Location loc = index.get(chunkId);
+            if (loc == null) {
+                fallback.delete(chunkId);
+                return;
+            }
+            byte[] id = chunkId.getBytes(StandardCharsets.UTF_8);
+            Location tomb = reserve(DELETE, id, 0);
+            try {
+                ByteBuffer crc = ByteBuffer.allocate(Integer.BYTES).putInt((int) new CRC32().getValue()).flip();
+                writeFully(segments.get(tomb.segment).channel, crc, tomb.data);
+                // Le compacteur ne peut plus le déplacer : loc n'a changé que si le chunk a été réécrit
+                if (index.remove(chunkId, loc)) release(loc);
+                dirty = true;
+            } finally {
+                inFlight.remove(position(tomb.segment, tomb.record));
+            }
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  LECTURE
+    // ════════════════════════════════════════════════════════════════════════
+
+    @Override
+    public Slice open(String chunkId) throws IOException {
+        // Un compactage peut déplacer le chunk entre la recherche et la projection : réessayer
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Location loc = index.get(chunkId);
+            if (loc == null) return fallback.open(chunkId);
+            Segment s = segments.get(loc.segment);
+            if (s == null) continue;
+            try {
+                ByteBuffer view = s.map().duplicate();
+                view.position((int) loc.data).limit((int) (loc.data + loc.length));
+                return new MappedSlice(view.slice());
+            } catch (ClosedChannelException e) {
+                // segment compacté et fermé entre-temps
+            }
+        }
+        throw new IOException("Chunk déplacé pendant la lecture: " + chunkId);
+    }
+
+    private static final class MappedSlice implements Slice {
+        private final ByteBuffer data;
+
+        MappedSlice(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public long size() {
+            return data.remaining();
+        }
+
+        @Override
+        public void transferTo(long offset, int length, WritableByteChannel out) throws IOException {
+            ByteBuffer b = range(offset, length);
+            while (b.hasRemaining()) out.write(b);
+        }
+
+        @Override
+        public void copyTo(long offset, int length, OutputStream out) throws IOException {
+            ByteBuffer b = range(offset, length);
+            byte[] buf = new byte[Math.min(FileChunkStore.IO_BUFFER, Math.max(length, 1))];
+            while (b.hasRemaining()) {
+                int n = Math.min(buf.length, b.remaining());
+                b.get(buf, 0, n);
+                out.write(buf, 0, n);
+            }
+        }
+
+        private ByteBuffer range(long offset, int length) {
+            ByteBuffer b = data.duplicate();
+            b.position((int) offset).limit((int) (offset + length));
+            return b;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  SAUVEGARDE DE L'INDEX ET REJEU
+    // ════════════════════════════════════════════════════════════════════════
+
+    private void checkpointIfDirty() {
+        if (!dirty) return;
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("[Segments] Sauvegarde de l'index impossible: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Écrit l'index et la position de rejeu : le plus ancien enregistrement encore
+     * en cours, sinon la fin du journal. Tout ce qui est publié après cette
+     * position sera rejoué, qu'il figure ou non dans la copie de l'index.
+     *
+     * Seules la position et les fins de segments se lisent sous le verrou de
+     * reserve() ; l'index est copié et écrit ensuite sans bloquer les écritures.
+     * Un enregistrement sorti d'inFlight est déjà dans l'index : tout ce qui
+     * précède la position figure donc dans la copie, faite après.
+     */
+    private void checkpoint() throws IOException {
+        synchronized (checkpointing) {
+            dirty = false;
+            long replayFrom;
+            List<long[]> tails = new ArrayList<>();   // {id, fin}
+            synchronized (this) {
+                replayFrom = active == null ? position(1, 0) : position(active.id, active.tail);
+                if (!inFlight.isEmpty()) replayFrom = Math.min(replayFrom, inFlight.first());
+                for (Segment s : segments.values()) tails.add(new long[]{s.id, s.tail});
+            }
+            writeCheckpoint(replayFrom, tails, new ArrayList<>(index.entrySet()));
+            checkpoints.incrementAndGet();
+        }
+    }
+
+    private void writeCheckpoint(long replayFrom, List<long[]> tails,
+                                 List<Map.Entry<String, Location>> entries) throws IOException {
+        Path tmp = dir.resolve("index.ckpt.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp), FileChunkStore.IO_BUFFER))) {
+            out.writeInt(CKPT_MAGIC);
+            out.writeLong(replayFrom);
+            out.writeInt(tails.size());
+            for (long[] t : tails) {
+                out.writeInt((int) t[0]);
+                out.writeLong(t[1]);
+            }
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Location> e : entries) {
+                Location loc = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeInt(loc.segment);
+                out.writeLong(loc.record);
+                out.writeLong(loc.data);
+                out.writeInt(loc.length);
+            }
+            out.writeInt(CKPT_MAGIC);
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve("index.ckpt"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (!name.startsWith("seg-") || !name.endsWith(".log")) continue;
+                int id = Integer.parseInt(name.substring(4, name.length() - 4));
+                FileChannel ch = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                Segment s = new Segment(id, p, ch, ch.size());
+                s.tail = s.capacity;   // jusqu'à preuve du contraire (sauvegarde ou rejeu)
+                segments.put(id, s);
+            }
+        }
+
+        long replayFrom = position(1, 0);
+        Path ckpt = dir.resolve("index.ckpt");
+        if (Files.exists(ckpt)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(ckpt), FileChunkStore.IO_BUFFER))) {
+                if (in.readInt() != CKPT_MAGIC) throw new IOException("Sauvegarde d'index invalide");
+                replayFrom = in.readLong();
+                int nSegments = in.readInt();
+                for (int i = 0; i < nSegments; i++) {
+                    Segment s = segments.get(in.readInt());
+                    long tail = in.readLong();
+                    if (s != null) s.tail = tail;
+                }
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    String id = in.readUTF();
+                    Location loc = new Location(in.readInt(), in.readLong(), in.readLong(), in.readInt());
+                    if (segments.containsKey(loc.segment)) index.put(id, loc);
+                }
+                if (in.readInt() != CKPT_MAGIC) throw new IOException("Sauvegarde d'index tronquée");
+            }
+        }
+
+        int replayed = 0;
+        for (Segment s : segments.tailMap((int) (replayFrom >>> 40), true).values()) {
+            long from = s.id == (int) (replayFrom >>> 40) ? replayFrom & ((1L << 40) - 1) : 0;
+            replayed += replay(s, from);
+        }
+
+        for (Location loc : index.values()) {
+            Segment s = segments.get(loc.segment);
+            if (s != null) s.live.addAndGet(loc.recordSize());
+        }
+        active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        System.out.println("[Segments] " + index.size() + " chunks dans " + segments.size()
+                + " segments (" + replayed + " enregistrements rejoués)");
+    }
+
+    /** Relit les enregistrements du segment à partir de from ; fixe sa fin. */
+    private int replay(Segment s, long from) throws IOException {
+        ByteBuffer map = s.map().duplicate();
+        long pos = from;
+        int count = 0;
+        while (pos + 11 <= s.capacity) {
+            map.position((int) pos);
+            if (map.getInt() != MAGIC) break;
+            byte type = map.get();
+            int idLen = map.getShort() & 0xFFFF;
+            if (pos + 11 + idLen > s.capacity) break;
+            byte[] id = new byte[idLen];
+            map.get(id);
+            int length = map.getInt();
+            long data = pos + headerSize(id);
+            long end = data + length + Integer.BYTES;
+            if (length < 0 || end > s.capacity) break;
+
+            String chunkId = new String(id, StandardCharsets.UTF_8);
+            if (type == PUT && crcMatches(map, data, length)) {
+                index.put(chunkId, new Location(s.id, pos, data, length));
+            } else if (type == DELETE) {
+                index.remove(chunkId);
+            }
+            pos = end;
+            count++;
+        }
+        s.tail = pos;
+        return count;
+    }
+
+    private static boolean crcMatches(ByteBuffer map, long data, int length) {
+        ByteBuffer b = map.duplicate();
+        b.position((int) data).limit((int) (data + length));
+        CRC32 crc = new CRC32();
+        crc.update(b);
+        return map.getInt((int) (data + length)) == (int) crc.getValue();
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    //  COMPACTAGE
+    // ════════════════════════════════════════════════════════════════════════
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            System.err.println("[Segments] Compactage interrompu: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Recopie en fin de journal les chunks vivants des segments scellés peu remplis,
+     * sauvegarde l'index, puis supprime ces segments.
+     */
+    void compact() throws IOException {
+        Segment current;
+        synchronized (this) {
+            current = active;
+        }
+        Set<Integer> victims = new HashSet<>();
+        for (Segment s : segments.values()) {
+            if (s == current || s.tail == 0) continue;
+            boolean writing = !inFlight.subSet(position(s.id, 0), position(s.id + 1, 0)).isEmpty();
+            if (!writing && s.live.get() < s.tail * COMPACT_BELOW) victims.add(s.id);
+        }
+        if (victims.isEmpty()) return;
+
+        Set<Segment> touched = new HashSet<>();
+        for (Map.Entry<String, Location> e : index.entrySet()) {
+            if (!victims.contains(e.getValue().segment)) continue;
+            String chunkId = e.getKey();
+            synchronized (relocation) {
+                Location old = index.get(chunkId);   // supprimé ou réécrit depuis le parcours ?
+                if (old != null && victims.contains(old.segment)) move(chunkId, old, touched);
+            }
+        }
+        for (Segment s : touched) s.channel.force(false);
+        checkpoint();
+
+        for (int id : victims) {
+            Segment s = segments.remove(id);
+            reclaimed.addAndGet(s.tail - s.live.get());
+            s.channel.close();
+            Files.deleteIfExists(s.path);
+            compactions.incrementAndGet();
+        }
+        syncDirectory();
+    }
+
+    /** Recopie un chunk vivant en fin de journal (sous relocation). */
+    private void move(String chunkId, Location old, Set<Segment> touched) throws IOException {
+        ByteBuffer data = segments.get(old.segment).map().duplicate();
+        data.position((int) old.data).limit((int) (old.data + old.length));
+        byte[] id = chunkId.getBytes(StandardCharsets.UTF_8);
+        Location moved = reserve(PUT, id, old.length);
+        Segment target = segments.get(moved.segment);
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            writeFully(target.channel, data, moved.data);
+            writeFully(target.channel, ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).flip(),
+                    moved.data + moved.length);
+            touched.add(target);
+            // Réécrit entre-temps (put ne prend pas le verrou) : la copie reste une place morte
+            if (index.replace(chunkId, old, moved)) target.live.addAndGet(moved.recordSize());
+        } finally {
+            inFlight.remove(position(moved.segment, moved.record));
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+
+    private static void writeFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) pos += ch.write(b, pos);
+    }
+
+    private void syncDirectory() {
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public String getStats() {
+        long used = 0;
+        long live = 0;
+        for (Segment s : segments.values()) {
+            used += s.tail;
+            live += s.live.get();
+        }
+        return "=== Chunk Store ===\n"
+                + "Backend     : segment (" + dir + ")\n"
+                + "Chunks      : " + index.size() + " in " + segments.size() + " segments\n"
+                + "Bytes       : " + live + " live / " + used + " written\n"
+                + "Compactions : " + compactions.get() + " (" + reclaimed.get() + " bytes reclaimed)\n"
+                + "Checkpoints : " + checkpoints.get() + "\n";
+    }
+
+    @Override
+    public void close() throws IOException {
+        maintenance.shutdownNow();
+        checkpoint();
+        for (Segment s : segments.values()) s.channel.close();
+    }
+}
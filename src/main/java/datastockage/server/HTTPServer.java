@@ -4,6 +4,9 @@ import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 import dir.DirServer;
+import dir.FileTable;
+import client.DirectUploader;
+import common.ErasureCode;
 import common.FileMeta;
 
 import java.io.*;
@@ -102,22 +105,27 @@ public class HTTPServer {
             }
 
             try {
-                InputStream is = exchange.getRequestBody();
-                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                byte[] data = new byte[8192];
-                int nRead;
-                while ((nRead = is.read(data, 0, data.length)) != -1) {
-                    buffer.write(data, 0, nRead);
-                }
-                byte[] fileData = buffer.toByteArray();
-
                 String query = exchange.getRequestURI().getQuery();
                 Map<String, String> params = parseQuery(query);
                 
                 String fileName = params.getOrDefault("fileName", "unknown");
                 String userId = params.getOrDefault("userId", "anonymous");
 
-                if (dirServer.handleUploadData(userId, fileName, fileData)) {
+                // erasure=4+2 (ou "ec") : code d'effacement ; absent : réplication
+                ErasureCode ec;
+                try {
+                    ec = ErasureCode.parse(params.get("erasure"));
+                } catch (IllegalArgumentException e) {
+                    sendError(exchange, 400, "Parametre erasure invalide");
+                    return;
+                }
+
+                // Le corps est découpé à la volée et envoyé directement aux OSD
+                String length = exchange.getRequestHeaders().getFirst("Content-Length");
+                long totalSize = length != null ? Long.parseLong(length) : -1;
+                InputStream is = exchange.getRequestBody();
+
+                if (DirectUploader.upload(dirServer, userId, fileName, totalSize, is, ec)) {
                     sendJson(exchange, 200, "{\"status\":\"success\",\"message\":\"Fichier distribue\",\"fileName\":\"" + escape(fileName) + "\"}");
                 } else {
                     sendError(exchange, 500, "Erreur upload");
@@ -142,28 +150,83 @@ public class HTTPServer {
                 return;
             }
 
-            try {
-                String query = exchange.getRequestURI().getQuery();
-                Map<String, String> params = parseQuery(query);
-                
-                String fileName = params.getOrDefault("fileName", "");
-                String userId = params.getOrDefault("userId", "anonymous");
+            String query = exchange.getRequestURI().getQuery();
+            Map<String, String> params = parseQuery(query);
 
-                byte[] fileData = dirServer.handleDownloadRequest(fileName, userId);
-                
-                if (fileData != null) {
-                    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
-                    exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=" + fileName);
-                    exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-                    
-                    exchange.sendResponseHeaders(200, fileData.length);
-                    exchange.getResponseBody().write(fileData);
-                    exchange.getResponseBody().close();
+            String fileName = params.getOrDefault("fileName", "");
+            String userId = params.getOrDefault("userId", "anonymous");
+
+            FileMeta meta = dirServer.lookupFile(fileName, userId);
+            if (meta == null) {
+                sendError(exchange, 404, "Fichier non trouve");
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=" + fileName);
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+            // Range: bytes=... → 206 avec uniquement la plage demandée
+            String rangeHeader = exchange.getRequestHeaders().getFirst("Range");
+            long[] range = rangeHeader != null && meta.totalSize > 0
+                    ? parseRange(rangeHeader, meta.totalSize) : null;
+
+            if (range != null && range.length == 0) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + meta.totalSize);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+
+            // Une erreur après l'envoi des en-têtes remonte au serveur HTTP, qui coupe
+            // la connexion sans trame finale : le client ne voit pas un fichier tronqué "complet"
+            boolean ok;
+            if (range != null) {
+                long length = range[1] - range[0] + 1;
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + range[0] + "-" + range[1] + "/" + meta.totalSize);
+                exchange.sendResponseHeaders(206, length);
+                ok = dirServer.streamRange(meta, range[0], length, exchange.getResponseBody());
+            } else {
+                exchange.sendResponseHeaders(200, 0); // Transfer-Encoding: chunked
+                ok = dirServer.streamFile(meta, exchange.getResponseBody());
+            }
+            if (!ok) {
+                throw new IOException("Chunks manquants: " + fileName);
+            }
+            exchange.getResponseBody().close();
+        }
+
+        /**
+         * Analyse un en-tête "Range: bytes=debut-fin" (une seule plage).
+         *
+         * @return {debut, fin} inclusifs, un tableau vide si la plage est hors du fichier,
+         *         null si l'en-tête n'est pas exploitable (réponse complète)
+         */
+        static long[] parseRange(String header, long totalSize) {
+            if (!header.startsWith("bytes=") || header.contains(",")) return null;
+            String spec = header.substring(6).trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+            try {
+                String a = spec.substring(0, dash).trim();
+                String b = spec.substring(dash + 1).trim();
+                long start, end;
+                if (a.isEmpty()) {
+                    // bytes=-N : les N derniers octets
+                    long suffix = Long.parseLong(b);
+                    if (suffix <= 0) return new long[0];
+                    start = Math.max(0, totalSize - suffix);
+                    end = totalSize - 1;
                 } else {
-                    sendError(exchange, 404, "Fichier non trouve");
+                    start = Long.parseLong(a);
+                    end = b.isEmpty() ? totalSize - 1 : Math.min(Long.parseLong(b), totalSize - 1);
                 }
-            } catch (Exception e) {
-                sendError(exchange, 500, "Erreur: " + e.getMessage());
+                if (start >= totalSize || start > end) return new long[0];
+                return new long[] { start, end };
+            } catch (NumberFormatException e) {
+                return null;
             }
         }
     }
@@ -181,7 +244,7 @@ public class HTTPServer {
             exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
 
             try {
-                Map<String, FileMeta> files = dirServer.getFiles();
+                FileTable files = dirServer.getFiles();
                 StringBuilder json = new StringBuilder("[");
                 
                 boolean first = true;
@@ -190,7 +253,7 @@ public class HTTPServer {
                     json.append("{\"fileName\":\"").append(escape(file.fileName)).append("\",");
                     json.append("\"ownerId\":\"").append(escape(file.ownerId)).append("\",");
                     json.append("\"totalSize\":").append(file.totalSize).append(",");
-                    json.append("\"chunks\":").append(file.chunkIds.size()).append("}");
+                    json.append("\"chunks\":").append(file.chunkCount()).append("}");
                     first = false;
                 }
                 json.append("]");
@@ -12,7 +12,11 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import client.DirectUploader;
+import common.DirClient;
+import common.DirProtocol;
 import common.FileMeta;
+import common.FramedInputStream;
 import dir.DirServer;
 
 public class FileService {
@@ -58,28 +62,14 @@ public class FileService {
     }
 
     /**
-     * Upload vers le serveur DIR via socket TCP (port 7000)
+     * Upload vers le cluster : placements demandés au DIR (port 7000),
+     * données envoyées directement aux OSD
      */
     private static void uploadToDistributed(String userId, File file) throws Exception {
-        try (Socket socket = new Socket(DIR_HOST, DIR_PORT);
-             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-             FileInputStream fis = new FileInputStream(file)) {
-
-            dos.writeUTF("UPLOAD");
-            dos.writeUTF(userId);
-            dos.writeUTF(file.getName());
-            dos.writeLong(file.length());
-
-            byte[] buffer = new byte[1_000_000];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                dos.writeInt(bytesRead);
-                dos.write(buffer, 0, bytesRead);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            if (!DirectUploader.upload(DIR_HOST, DIR_PORT, userId, file.getName(), file.length(), in)) {
+                throw new IOException("Upload direct échoué: " + file.getName());
             }
-
-            dos.writeInt(-1);
-            dos.flush();
-
             System.out.println("[FileService] Upload distribue OK: " + file.getName());
         }
     }
@@ -104,9 +94,9 @@ public class FileService {
                         FileMeta meta = DirServer.files.get(fileKey);
 
                         if (meta != null) {
-                            model.setDistribue(!meta.chunkIds.isEmpty());
-                            model.setChunkCount(meta.chunkIds.size());
-                            model.setReplicas(meta.chunkLocations.values().stream()
+                            model.setDistribue(!meta.chunkIds().isEmpty());
+                            model.setChunkCount(meta.chunkIds().size());
+                            model.setReplicas(meta.chunkLocations().values().stream()
                                     .mapToInt(List::size).max().orElse(0));
                         } else {
                             model.setDistribue(false);
@@ -133,17 +123,15 @@ public class FileService {
 
         // Recuperer depuis le cluster via socket
         try {
-            byte[] data = downloadFromDistributed(String.valueOf(user.getId()), nomFichier);
-            if (data != null) {
-                File dossier = new File(APACHE_ROOT + user.getDossierUtilisateur() + "/uploads/");
-                if (!dossier.exists()) dossier.mkdirs();
+            File dossier = new File(APACHE_ROOT + user.getDossierUtilisateur() + "/uploads/");
+            if (!dossier.exists()) dossier.mkdirs();
 
-                f = new File(dossier, nomFichier);
-                Files.write(f.toPath(), data);
+            if (downloadFromDistributed(String.valueOf(user.getId()), nomFichier, f)) {
                 System.out.println("[FileService] Fichier reconstruit depuis cluster: " + nomFichier);
                 return f;
             }
         } catch (Exception e) {
+            f.delete();
             System.err.println("[FileService] Erreur reconstruction: " + e.getMessage());
         }
 
@@ -151,9 +139,9 @@ public class FileService {
     }
 
     /**
-     * Telecharge depuis le serveur DIR via socket TCP (GET)
+     * Telecharge depuis le serveur DIR via socket TCP (GET), en flux vers le fichier cible
      */
-    private static byte[] downloadFromDistributed(String userId, String fileName) throws Exception {
+    private static boolean downloadFromDistributed(String userId, String fileName, File target) throws Exception {
         try (Socket socket = new Socket(DIR_HOST, DIR_PORT);
              DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
              DataInputStream dis = new DataInputStream(socket.getInputStream())) {
@@ -164,12 +152,14 @@ public class FileService {
             dos.flush();
 
             boolean exists = dis.readBoolean();
-            if (!exists) return null;
+            if (!exists) return false;
 
-            long size = dis.readLong();
-            byte[] data = new byte[(int) size];
-            dis.readFully(data);
-            return data;
+            dis.readLong(); // taille annoncée
+            try (InputStream in = new FramedInputStream(dis);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+                in.transferTo(out);
+            }
+            return true;
         }
     }
 
@@ -240,16 +230,11 @@ public class FileService {
     }
 
     /**
-     * Verifie si le serveur DIR est accessible via socket (GET health)
+     * Verifie si le serveur DIR est accessible (negociation du protocole v2)
      */
     public static boolean isDistributedServerAvailable() {
-        try (Socket socket = new Socket()) {
-            socket.connect(new InetSocketAddress(DIR_HOST, DIR_PORT), 2000);
-            DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-            DataInputStream dis = new DataInputStream(socket.getInputStream());
-            dos.writeUTF("STATS");
-            dos.flush();
-            dis.readUTF();
+        try {
+            DirClient.connect(DIR_HOST, DIR_PORT, 2000).close();
             return true;
         } catch (Exception e) {
             return false;
@@ -257,30 +242,14 @@ public class FileService {
     }
 
     /**
-     * Liste les fichiers stockes sur le cluster via socket (GET list)
+     * Liste les fichiers stockes sur le cluster (protocole v2, page par page)
      */
     public static List<String> listerFichiersDistribues() {
         List<String> fichiers = new ArrayList<>();
-        try (Socket socket = new Socket(DIR_HOST, DIR_PORT);
-             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
-
-            dos.writeUTF("LIST_ALL");
-            dos.flush();
-
-            String response = dis.readUTF();
-            if (response != null && !response.isBlank()) {
-                for (String line : response.split("\n")) {
-                    if (!line.isBlank()) {
-                        String[] parts = line.split("\\|");
-                        if (parts.length >= 3) {
-                            fichiers.add("User:" + parts[0] + " | " + parts[1] +
-                                " (" + formatSize(Long.parseLong(parts[2])) + ")");
-                        } else {
-                            fichiers.add(line.trim());
-                        }
-                    }
-                }
+        try (DirClient dir = DirClient.connect(DIR_HOST, DIR_PORT, 5000)) {
+            for (DirProtocol.FileEntry f : dir.listAll()) {
+                fichiers.add("User:" + f.ownerId + " | " + f.fileName +
+                        " (" + formatSize(f.totalSize) + ")");
             }
         } catch (Exception e) {
             System.err.println("[FileService] Erreur listing cluster: " + e.getMessage());
@@ -289,16 +258,11 @@ public class FileService {
     }
 
     /**
-     * Obtient les statistiques du cluster via socket (GET stats)
+     * Obtient les statistiques du cluster (protocole v2)
      */
     public static String getClusterStats() {
-        try (Socket socket = new Socket(DIR_HOST, DIR_PORT);
-             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
-
-            dos.writeUTF("STATS");
-            dos.flush();
-            return dis.readUTF();
+        try (DirClient dir = DirClient.connect(DIR_HOST, DIR_PORT, 5000)) {
+            return dir.stats();
         } catch (Exception e) {
             return "Serveur distribue non disponible";
         }
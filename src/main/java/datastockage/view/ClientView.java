@@ -213,7 +213,7 @@ public class ClientView extends JFrame {
                 seen.add(f.getNomFichier());
                 String status = "Cluster";
                 String chunks = String.valueOf(f.getChunkCount());
-                String replicas = String.valueOf(f.getReplicas());
+                String replicas = f.getReplicas() >= 0 ? String.valueOf(f.getReplicas()) : "-";
                 tableModel.addRow(new Object[]{
                         f.getNomFichier(),
                         f.getTailleFormatee(),
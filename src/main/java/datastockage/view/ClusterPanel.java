@@ -1,6 +1,8 @@
 package view;
 
 import common.ClusterManager;
+import common.DirClient;
+import common.DirProtocol;
 import model.Domain;
 import service.DomainService;
 import service.FileService;
@@ -28,6 +30,8 @@ public class ClusterPanel extends JPanel {
     private JButton refreshBtn;
     private JCheckBox useDistributedCheckbox;
 
+    private static final int MAX_CHUNK_LINES = 5_000;
+
     private Timer refreshTimer;
     private DefaultListModel<String> filesModel;
 
@@ -246,60 +250,42 @@ public class ClusterPanel extends JPanel {
     private void refreshDashboard() {
         if (!ClusterManager.isClusterRunning()) return;
 
-        // OSD Health (GET via socket)
-        String clusterRaw = fetchSocket("CLUSTER");
-        osdArea.setText(formatOSDHealth(clusterRaw));
+        // Une seule connexion au DirServer, protocole v2 (enregistrements types)
+        try (DirClient dir = DirClient.connect("10.134.17.222", 7000, 5000)) {
 
-        // Chunks Map (GET via socket)
-        String chunksRaw = fetchSocket("CHUNKS");
-        chunkArea.setText(formatChunks(chunksRaw));
+            // OSD Health
+            List<DirProtocol.OsdEntry> osds = dir.cluster();
+            osdArea.setText(formatOSDHealth(osds));
 
-        // Replication Stats (GET via socket)
-        String statsRaw = fetchSocket("STATS");
-        statsArea.setText(statsRaw);
+            // Chunks Map
+            chunkArea.setText(formatChunks(dir.chunks()));
 
-        // Repair + Domaines info (GET via socket)
-        String healthRaw = fetchSocket("HEALTH");
-        repairArea.setText(formatHealthAndDomaines(healthRaw));
+            // Replication Stats
+            statsArea.setText(dir.stats());
 
-        updateStatusBar(clusterRaw);
-        updateStatus();
-    }
+            // Repair + Domaines info
+            repairArea.setText(formatHealthAndDomaines(osds));
 
-    /**
-     * Envoie une commande au DirServer via socket TCP (methode GET/POST)
-     */
-    private String fetchSocket(String command) {
-        try (java.net.Socket socket = new java.net.Socket("10.134.17.222", 7000);
-             java.io.DataOutputStream dos = new java.io.DataOutputStream(socket.getOutputStream());
-             java.io.DataInputStream dis = new java.io.DataInputStream(socket.getInputStream())) {
-
-            dos.writeUTF(command);
-            dos.flush();
-            return dis.readUTF();
+            updateStatusBar(osds);
         } catch (Exception e) {
-            return "ERR " + e.getMessage();
+            String err = "ERR " + e.getMessage();
+            osdArea.setText(err);
+            chunkArea.setText("Erreur: " + err);
+            statsArea.setText(err);
+            repairArea.setText(formatHealthAndDomaines(null) + err);
+            updateStatusBar(null);
         }
+        updateStatus();
     }
 
-    private String formatOSDHealth(String raw) {
-        if (raw.startsWith("ERR")) return raw;
-
+    private String formatOSDHealth(List<DirProtocol.OsdEntry> osds) {
         StringBuilder sb = new StringBuilder();
         sb.append(String.format("%-12s %-10s %-20s%n", "OSD ID", "STATUS", "ADDRESS"));
         sb.append("-".repeat(44)).append("\n");
 
-        for (String line : raw.split("\n")) {
-            if (line.isBlank()) continue;
-            String[] parts = line.split("\\|");
-            if (parts.length < 3) continue;
-
-            String id = parts[0].trim();
-            String status = parts[1].trim();
-            String address = parts[2].trim();
-
+        for (DirProtocol.OsdEntry osd : osds) {
             String icon;
-            switch (status) {
+            switch (osd.status) {
                 case "UP": icon = "[OK]"; break;
                 case "SUSPECTED": icon = "[??]"; break;
                 case "DOWN": icon = "[KO]"; break;
@@ -307,19 +293,39 @@ public class ClusterPanel extends JPanel {
             }
 
             sb.append(String.format("%-12s %s %-8s  %s%n",
-                    id, icon, status, address));
+                    osd.id, icon, osd.status, osd.host + ":" + osd.port));
         }
         return sb.toString();
     }
 
-    private String formatChunks(String raw) {
-        if (raw == null || raw.isBlank()) return "(Aucun chunk enregistre)";
-        if (raw.startsWith("ERR")) return "Erreur: " + raw;
-        if (raw.startsWith("Aucun")) return raw;
-        return raw;
+    /** Carte des chunks, tronquee a l'affichage : la liste complete peut etre enorme. */
+    private String formatChunks(Iterable<DirProtocol.ChunkEntry> chunks) {
+        StringBuilder sb = new StringBuilder();
+        String currentFile = null;
+        int lines = 0;
+
+        for (DirProtocol.ChunkEntry c : chunks) {
+            if (lines >= MAX_CHUNK_LINES) {
+                sb.append("... (liste tronquee a ").append(MAX_CHUNK_LINES).append(" lignes)\n");
+                break;
+            }
+            if (!c.fileName.equals(currentFile)) {
+                currentFile = c.fileName;
+                sb.append("FILE=").append(c.fileName).append("\n");
+                lines++;
+            }
+            sb.append("  ")
+                    .append(c.chunkId, 0, Math.min(8, c.chunkId.length()))
+                    .append("... => ")
+                    .append(c.locations)
+                    .append("\n");
+            lines++;
+        }
+
+        return sb.length() == 0 ? "Aucun fichier enregistre\n" : sb.toString();
     }
 
-    private String formatHealthAndDomaines(String raw) {
+    private String formatHealthAndDomaines(List<DirProtocol.OsdEntry> osds) {
         StringBuilder sb = new StringBuilder();
 
         // Section domaines
@@ -338,41 +344,32 @@ public class ClusterPanel extends JPanel {
         sb.append("\n=== Charge par OSD ===\n");
         sb.append("-".repeat(40)).append("\n");
 
-        if (raw.startsWith("ERR")) {
-            sb.append("DIR non accessible\n").append(raw);
+        if (osds == null) {
+            sb.append("DIR non accessible\n");
             return sb.toString();
         }
 
-        for (String line : raw.split("\n")) {
-            if (line.isBlank()) continue;
-            String[] parts = line.split("\\|");
-            if (parts.length < 3) continue;
-
-            String id = parts[0].trim();
-            String status = parts[1].trim();
-            String chunks = parts[2].replace("chunks=", "").trim();
-            int n = 0;
-            try { n = Integer.parseInt(chunks); } catch (Exception ignored) {}
-
+        for (DirProtocol.OsdEntry osd : osds) {
+            int n = osd.chunkCount;
             String bar = buildBar(n, 30);
-            String icon = status.equals("UP") ? "[OK]" : status.equals("SUSPECTED") ? "[??]" : "[KO]";
-            sb.append(String.format("%s %-10s %s %3s chunks%n", icon, id, bar, n));
+            String icon = osd.status.equals("UP") ? "[OK]" : osd.status.equals("SUSPECTED") ? "[??]" : "[KO]";
+            sb.append(String.format("%s %-10s %s %3s chunks  queue=%d%n", icon, osd.id, bar, n, osd.queueDepth));
         }
 
         return sb.toString();
     }
 
-    private void updateStatusBar(String clusterRaw) {
-        if (clusterRaw.startsWith("ERR")) {
+    private void updateStatusBar(List<DirProtocol.OsdEntry> osds) {
+        if (osds == null) {
             statusBar.setText("  DIR inaccessible");
             statusBar.setBackground(new Color(120, 30, 30));
             return;
         }
 
-        long total = clusterRaw.lines().filter(l -> !l.isBlank()).count();
-        long up = clusterRaw.lines().filter(l -> l.contains("|UP|")).count();
-        long suspect = clusterRaw.lines().filter(l -> l.contains("|SUSPECTED|")).count();
-        long down = clusterRaw.lines().filter(l -> l.contains("|DOWN|")).count();
+        long total = osds.size();
+        long up = osds.stream().filter(o -> o.status.equals("UP")).count();
+        long suspect = osds.stream().filter(o -> o.status.equals("SUSPECTED")).count();
+        long down = osds.stream().filter(o -> o.status.equals("DOWN")).count();
 
         // Ajouter info domaines
         int nbDomaines = DomainService.listerTousDomaines().size();